@@ -28,6 +28,19 @@ import android.view.ViewGroup.LayoutParams;
 
 import androidx.core.util.Pair;
 
+import net.maxsmr.cameracontroller.camera.focus.FocusPolicy;
+import net.maxsmr.cameracontroller.camera.focus.FocusTracker;
+import net.maxsmr.cameracontroller.camera.photo.PhotoRequest;
+import net.maxsmr.cameracontroller.camera.photo.PhotoRequestQueue;
+import net.maxsmr.cameracontroller.camera.photo.PhotoThumbnailExtractor;
+import net.maxsmr.cameracontroller.camera.photo.PhotoTimeline;
+import net.maxsmr.cameracontroller.camera.photo.PhotoTimelineStats;
+import net.maxsmr.cameracontroller.camera.photo.PhotoWriter;
+import net.maxsmr.cameracontroller.camera.preview.BitmapPool;
+import net.maxsmr.cameracontroller.camera.preview.MakePreviewJournal;
+import net.maxsmr.cameracontroller.camera.preview.MakePreviewScheduler;
+import net.maxsmr.cameracontroller.camera.preview.VideoPreviewEncoder;
+import net.maxsmr.cameracontroller.camera.preview.VideoPreviewGenerator;
 import net.maxsmr.cameracontroller.camera.settings.ColorEffect;
 import net.maxsmr.cameracontroller.camera.settings.FlashMode;
 import net.maxsmr.cameracontroller.camera.settings.FocusMode;
@@ -40,6 +53,14 @@ import net.maxsmr.cameracontroller.camera.settings.video.VideoQuality;
 import net.maxsmr.cameracontroller.camera.settings.video.record.VideoRecordLimit;
 import net.maxsmr.cameracontroller.camera.settings.video.record.VideoSettings;
 import net.maxsmr.cameracontroller.frame.FrameCalculator;
+import net.maxsmr.cameracontroller.frame.FrameStatsRegistry;
+import net.maxsmr.cameracontroller.frame.MeasuredFpsFuture;
+import net.maxsmr.cameracontroller.frame.buffer.FrameBufferPool;
+import net.maxsmr.cameracontroller.frame.buffer.FrameLease;
+import net.maxsmr.cameracontroller.frame.buffer.FrameLeaseRing;
+import net.maxsmr.cameracontroller.frame.dispatch.DeliveryPolicy;
+import net.maxsmr.cameracontroller.frame.dispatch.FrameDispatchLane;
+import net.maxsmr.cameracontroller.frame.encoder.FrameJpegEncoder;
 import net.maxsmr.cameracontroller.frame.stats.IFrameStatsListener;
 import net.maxsmr.commonutils.android.gui.OrientationIntervalListener;
 import net.maxsmr.commonutils.android.gui.progressable.Progressable;
@@ -68,10 +89,15 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.maxsmr.cameracontroller.camera.settings.photo.CameraSettings.DEFAULT_IMAGE_FORMAT;
 import static net.maxsmr.cameracontroller.camera.settings.photo.CameraSettings.DEFAULT_PREVIEW_FORMAT;
@@ -109,6 +135,20 @@ public class CameraController {
 
     private static final long AUTO_FOCUS_TIMEOUT = TimeUnit.SECONDS.toMillis(3);
 
+    public static final int DEFAULT_DEGRADED_JPEG_QUALITY = 60;
+
+    /**
+     * frames needed to trust fps estimate for {@link VideoSettings#VIDEO_FRAME_RATE_AUTO}
+     */
+    private static final int MIN_ESTIMATED_FPS_SAMPLES = 5;
+
+    /**
+     * max relative change of fps estimate to consider it stable
+     */
+    private static final double MEASURED_FPS_TOLERANCE = 0.1;
+
+    private static final long MEASURED_FPS_TIMEOUT = TimeUnit.SECONDS.toMillis(2);
+
     private final Object sync = new Object();
 
     private final SurfaceCallbackObservable surfaceHolderCallbacks = new SurfaceCallbackObservable();
@@ -121,6 +161,15 @@ public class CameraController {
 
     private final PhotoReadyObservable photoReadyListeners = new PhotoReadyObservable();
 
+    private final PhotoBurstObservable photoBurstListeners = new PhotoBurstObservable();
+
+    private final PhotoTimelineObservable photoTimelineListeners = new PhotoTimelineObservable();
+
+    private final PhotoTimelineStats photoTimelineStats = new PhotoTimelineStats();
+
+    @Nullable
+    private volatile PhotoTimeline lastPhotoTimeline;
+
     private final RecordLimitReachedObservable recordLimitReachedListeners = new RecordLimitReachedObservable();
 
     private final VideoPreviewObservable videoPreviewListeners = new VideoPreviewObservable();
@@ -129,17 +178,51 @@ public class CameraController {
 
     private final PreviewFrameObservable previewFrameListeners = new PreviewFrameObservable();
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /**
+     * callback buffers, which are given back to camera only after all frame listeners released them
+     */
+    private final FrameBufferPool previewFrameBufferPool = new FrameBufferPool();
+
+    /**
+     * persists taken photos off the camera thread
+     */
+    private final PhotoWriter photoWriter = new PhotoWriter(new PhotoWriteCallback());
+
+    /**
+     * JPEG quality applied while photo writer is under pressure with {@link PhotoWriter.BackpressurePolicy#DEGRADE}
+     */
+    private volatile int degradedJpegQuality = DEFAULT_DEGRADED_JPEG_QUALITY;
+
+    /**
+     * true if photo writer reported pressure with {@link PhotoWriter.BackpressurePolicy#DEGRADE},
+     * next photos are taken with {@link #degradedJpegQuality}
+     */
+    private volatile boolean isWriterUnderPressure = false;
+
+    /**
+     * degraded quality set for current photo, 0 if it's taken with user quality
+     */
+    private int appliedDegradedJpegQuality = 0;
+
+    /**
+     * encodes preview frames for zero shutter lag photos, may be used by clients for snapshots or streaming
+     */
+    private final FrameJpegEncoder frameJpegEncoder = new FrameJpegEncoder();
+
+    /**
+     * number of pooled buffers currently added to camera callback queue
+     */
+    private final AtomicInteger queuedCallbackBuffers = new AtomicInteger();
 
-    private final ShutterCallback shutterCallbackStub = () -> logger.d("onShutter()");
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     private final IdHolder videoPreviewIdsHolder = new IdHolder(0);
 
-    private boolean isReleased = false;
+    private volatile boolean isReleased = false;
 
     private Context context;
 
-    private int callbackBufferQueueSize = DEFAULT_PREVIEW_CALLBACK_BUFFER_QUEUE_SIZE;
+    private volatile int callbackBufferQueueSize = DEFAULT_PREVIEW_CALLBACK_BUFFER_QUEUE_SIZE;
 
     private SurfaceView cameraSurfaceView;
 
@@ -166,10 +249,38 @@ public class CameraController {
 
     private Runnable autoFocusResetRunnable;
 
+    @Nullable
+    private PhotoBurst currentBurst;
+
+    private final FocusTracker focusTracker = new FocusTracker();
+
+    private final PhotoRequestQueue photoRequestQueue = new PhotoRequestQueue();
+
+    private final Runnable photoRequestsDrainRunnable = this::drainPhotoRequests;
+
+    @NotNull
+    private volatile FocusPolicy focusPolicy = FocusPolicy.ALWAYS;
+
+    private final PhotoThumbnailExtractor photoThumbnailExtractor = new PhotoThumbnailExtractor();
+
+    private volatile boolean photoThumbnailsEnabled = true;
+
+    /**
+     * last preview frames for zero shutter lag photos, null if disabled
+     */
+    @Nullable
+    private volatile FrameLeaseRing zeroShutterLagRing;
+
+    /**
+     * scheduled next shot of current burst, null if shot is in progress
+     */
+    @Nullable
+    private Runnable burstShotRunnable;
+
     @Nullable
     private Handler callbackHandler;
 
-    private Camera camera;
+    private volatile Camera camera;
 
     private int cameraId = CAMERA_ID_NONE;
 
@@ -178,7 +289,7 @@ public class CameraController {
     @NotNull
     private CameraState currentCameraState = CameraState.IDLE;
 
-    private boolean isCameraLocked = true;
+    private volatile boolean isCameraLocked = true;
 
     private CameraThread cameraThread;
 
@@ -199,6 +310,19 @@ public class CameraController {
     @Nullable
     private File lastPreviewFile;
 
+    private final BitmapPool videoPreviewBitmapPool = new BitmapPool();
+
+    private final VideoPreviewGenerator videoPreviewGenerator = new VideoPreviewGenerator(VideoPreviewGenerator.DEFAULT_MAX_TILE_SIZE, videoPreviewBitmapPool);
+
+    private volatile boolean videoPreviewFramesRecycled = false;
+
+    private final VideoPreviewEncoder videoPreviewEncoder = new VideoPreviewEncoder();
+
+    private volatile boolean singlePassVideoPreview = true;
+
+    @Nullable
+    private volatile VideoPreviewGenerator.Timing lastVideoPreviewTiming;
+
     @Nullable
     private File lastVideoFile;
 
@@ -210,7 +334,7 @@ public class CameraController {
     @Nullable
     private MediaRecorder mediaRecorder;
 
-    private int expectedCallbackBufSize = 0;
+    private volatile int expectedCallbackBufSize = 0;
 
     private boolean enableStoreLocation = DEFAULT_ENABLE_STORE_LOCATION;
 
@@ -225,10 +349,23 @@ public class CameraController {
      */
     private TaskRunnableExecutor<MakePreviewRunnableInfo, Void, Void, MakePreviewRunnable> makePreviewThreadPoolExecutor;
 
+    /**
+     * orders and merges make-preview tasks before {@link #makePreviewThreadPoolExecutor}
+     */
+    @Nullable
+    private volatile MakePreviewScheduler makePreviewScheduler;
+
+    /**
+     * mirrors tasks of {@link #makePreviewScheduler}
+     */
+    @Nullable
+    private volatile MakePreviewJournal makePreviewJournal;
+
     public CameraController(@NotNull Context context, boolean enableFpsLogging) {
         this.context = context;
         enableFpsLogging(enableFpsLogging);
         orientationListener = new OrientationListener(context);
+        previewFrameBufferPool.setRecycler(this::requeueCallbackBuffer);
     }
 
     public boolean isReleased() {
@@ -251,6 +388,16 @@ public class CameraController {
             releaseCamera();
         }
 
+        disableZeroShutterLag();
+
+        frameJpegEncoder.shutdown();
+
+        photoWriter.shutdown();
+
+        photoThumbnailExtractor.clear();
+
+        videoPreviewBitmapPool.clear();
+
         surfaceHolderCallbacks.unregisterAll();
 
         cameraStateListeners.unregisterAll();
@@ -261,10 +408,16 @@ public class CameraController {
 
         photoReadyListeners.unregisterAll();
 
+        photoBurstListeners.unregisterAll();
+
+        photoTimelineListeners.unregisterAll();
+
         recordLimitReachedListeners.unregisterAll();
 
         videoPreviewListeners.unregisterAll();
 
+        previewFrameListeners.unregisterAllLanes();
+
         context = null;
 
         isReleased = true;
@@ -290,6 +443,14 @@ public class CameraController {
         return photoReadyListeners;
     }
 
+    public Observable<IPhotoBurstListener> getPhotoBurstListeners() {
+        return photoBurstListeners;
+    }
+
+    public Observable<IPhotoTimelineListener> getPhotoTimelineListeners() {
+        return photoTimelineListeners;
+    }
+
     public Observable<IRecordLimitReachedListener> getRecordLimitReachedListeners() {
         return recordLimitReachedListeners;
     }
@@ -298,14 +459,52 @@ public class CameraController {
         return videoPreviewListeners;
     }
 
+    /**
+     * listeners registered here are notified one by one on {@link #getCallbackHandler()};
+     * use {@link #registerPreviewFrameListener(IPreviewFrameListener, DeliveryPolicy, int)}
+     * for a separate delivery lane
+     */
     public Observable<IPreviewFrameListener> getPreviewFrameListeners() {
         return previewFrameListeners;
     }
 
+    /**
+     * Registers listener with its own delivery thread and pending frames queue
+     *
+     * @param capacity max pending frames for this listener, ignored for {@link DeliveryPolicy#LATEST_ONLY}
+     * @return lane, which can be used to read delivery and drop counters
+     */
+    @NotNull
+    public FrameDispatchLane registerPreviewFrameListener(@NotNull IPreviewFrameListener listener, @NotNull DeliveryPolicy policy, int capacity) {
+        logger.d("registerPreviewFrameListener(), listener=" + listener + ", policy=" + policy + ", capacity=" + capacity);
+        checkReleased();
+        return previewFrameListeners.registerLane(listener, policy, capacity);
+    }
+
+    public void unregisterPreviewFrameListener(@NotNull IPreviewFrameListener listener) {
+        logger.d("unregisterPreviewFrameListener(), listener=" + listener);
+        previewFrameListeners.unregisterLane(listener);
+    }
+
+    @Nullable
+    public FrameDispatchLane getPreviewFrameLane(@NotNull IPreviewFrameListener listener) {
+        return previewFrameListeners.getLane(listener);
+    }
+
     public Observable<IFrameStatsListener> getFrameStatsListeners() {
         return previewCallback.getFrameStatsObservable();
     }
 
+    /**
+     * Adds preview frame stream of this controller to given registry under streamName (e.g. "back" or "front"),
+     * so it's included in consolidated snapshots and calculated on registry thread;
+     * remove with {@link FrameStatsRegistry#unregisterStream(String)}, which restores previous calculation mode
+     */
+    public void registerPreviewFrameStats(@NotNull FrameStatsRegistry registry, @NotNull String streamName) {
+        logger.d("registerPreviewFrameStats(), streamName=" + streamName);
+        registry.registerStream(streamName, previewCallback);
+    }
+
     @Nullable
     public Progressable getProgressable() {
         return progressable;
@@ -326,6 +525,9 @@ public class CameraController {
                 currentCameraState = state;
                 logger.i("STATE : " + currentCameraState);
                 cameraStateListeners.notifyStateChanged(currentCameraState);
+                if (state == CameraState.IDLE) {
+                    schedulePhotoRequestsDrain();
+                }
                 Runnable run = () -> {
                     if (progressable != null) {
                         if (currentCameraState == CameraState.IDLE) {
@@ -501,20 +703,40 @@ public class CameraController {
         return true;
     }
 
-    private byte[] allocatePreviewCallbackBuffer() {
+    /**
+     * @return memory cap for preview callback buffers, including ones held by frame listeners
+     */
+    public long getPreviewFrameBufferPoolMaxBytes() {
+        return previewFrameBufferPool.getMaxBytes();
+    }
+
+    public void setPreviewFrameBufferPoolMaxBytes(long maxBytes) {
+        logger.d("setPreviewFrameBufferPoolMaxBytes(), maxBytes=" + maxBytes);
+        previewFrameBufferPool.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @return pool of preview callback buffers, exposed for monitoring
+     */
+    @NotNull
+    public FrameBufferPool getPreviewFrameBufferPool() {
+        return previewFrameBufferPool;
+    }
+
+    private int calculatePreviewCallbackBufferSize() {
 
         ImageFormat previewFormat = getCameraPreviewFormat();
 
         if (previewFormat == null) {
             logger.e("can't get previewFormat");
-            return null;
+            return 0;
         }
 
         Camera.Size previewSize = getCameraPreviewSize();
 
         if (previewSize == null) {
             logger.e("can't get previewSize");
-            return null;
+            return 0;
         }
 
         if (previewFormat != ImageFormat.YV12) {
@@ -531,16 +753,22 @@ public class CameraController {
         }
 
         // logger.d("preview callback byte buffer size: " + expectedCallbackBufSize);
-        return new byte[expectedCallbackBufSize];
+        return expectedCallbackBufSize;
     }
 
     private void setPreviewCallback() {
         synchronized (sync) {
             if (isCameraLocked()) {
                 camera.setPreviewCallback(null);
-                if (callbackBufferQueueSize > 0) {
-                    for (int i = 0; i < callbackBufferQueueSize; i++)
-                        camera.addCallbackBuffer(allocatePreviewCallbackBuffer());
+                queuedCallbackBuffers.set(0);
+                final int bufferSize;
+                if (callbackBufferQueueSize > 0 && (bufferSize = calculatePreviewCallbackBufferSize()) > 0) {
+                    previewFrameBufferPool.configure(bufferSize);
+                    for (int i = 0; i < callbackBufferQueueSize; i++) {
+                        // base queue is allocated regardless of the cap
+                        camera.addCallbackBuffer(previewFrameBufferPool.obtain(true));
+                        queuedCallbackBuffers.incrementAndGet();
+                    }
                     logger.d("setting preview callback with buffer...");
                     camera.setPreviewCallbackWithBuffer(previewCallback);
                 } else {
@@ -552,6 +780,65 @@ public class CameraController {
         }
     }
 
+    /**
+     * tops up camera callback queue from the pool within its memory cap;
+     * called from frame path, so doesn't take controller lock
+     */
+    private void fillCallbackBuffersQueue(@NotNull Camera camera) {
+        while (reserveCallbackBufferSlot()) {
+            final byte[] buffer = previewFrameBufferPool.obtain(false);
+            if (buffer == null) {
+                queuedCallbackBuffers.decrementAndGet();
+                // retained zero shutter lag frames must not starve camera: otherwise no more frames arrive
+                // and the ring is never rotated
+                final FrameLeaseRing zeroShutterLagRing = this.zeroShutterLagRing;
+                if (zeroShutterLagRing != null && zeroShutterLagRing.releaseOldest()) {
+                    continue;
+                }
+                logger.w("preview frame buffer pool cap (" + previewFrameBufferPool.getMaxBytes() + " bytes) is reached");
+                break;
+            }
+            if (!addCallbackBuffer(camera, buffer)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * invoked when last frame listener released the buffer, may be called from any thread
+     */
+    private boolean requeueCallbackBuffer(@NotNull byte[] buffer) {
+        final Camera camera = this.camera;
+        return camera != null && isCameraLocked && buffer.length == expectedCallbackBufSize
+                && reserveCallbackBufferSlot() && addCallbackBuffer(camera, buffer);
+    }
+
+    private boolean reserveCallbackBufferSlot() {
+        while (true) {
+            final int queued = queuedCallbackBuffers.get();
+            if (queued >= callbackBufferQueueSize) {
+                return false;
+            }
+            if (queuedCallbackBuffers.compareAndSet(queued, queued + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * slot must be reserved before
+     */
+    private boolean addCallbackBuffer(@NotNull Camera camera, @NotNull byte[] buffer) {
+        try {
+            camera.addCallbackBuffer(buffer);
+            return true;
+        } catch (RuntimeException e) {
+            // camera could have been released concurrently
+            logger.e("a RuntimeException occurred during addCallbackBuffer()", e);
+            queuedCallbackBuffers.decrementAndGet();
+            return false;
+        }
+    }
 
     private class CameraSurfaceHolderCallback implements SurfaceHolder.Callback {
 
@@ -1001,6 +1288,10 @@ public class CameraController {
                 try {
                     camera.lock();
                     isCameraLocked = true;
+                    if (currentCameraState == CameraState.IDLE) {
+                        // requests enqueued while camera was unlocked
+                        schedulePhotoRequestsDrain();
+                    }
                     return true;
                 } catch (Exception e) {
                     logger.e("an Exception occurred during lock()", e);
@@ -1049,6 +1340,7 @@ public class CameraController {
                     try {
                         camera.startPreview();
                         isPreviewStated = true;
+                        updateExpectedFpsRange();
                         previewCallback.notifySteamStarted();
                         result = true;
                     } catch (RuntimeException e) {
@@ -1060,6 +1352,19 @@ public class CameraController {
         }
     }
 
+    /**
+     * negotiated preview fps range is used by frame calculator to infer dropped frames
+     */
+    private void updateExpectedFpsRange() {
+        final Pair<Integer, Integer> fpsRange = getCameraPreviewFpsRange();
+        if (fpsRange != null && fpsRange.first != null && fpsRange.second != null
+                && fpsRange.first >= 0 && fpsRange.second >= fpsRange.first) {
+            previewCallback.setExpectedFpsRange(fpsRange.first, fpsRange.second);
+        } else {
+            previewCallback.setExpectedFpsRange(0, 0);
+        }
+    }
+
     private boolean stopPreview() {
         synchronized (sync) {
             boolean result = true;
@@ -1199,6 +1504,17 @@ public class CameraController {
 
             unlistenOrientationChanges();
 
+            photoRequestQueue.clear();
+
+            finishPhotoBurst();
+
+            focusTracker.invalidate();
+
+            final FrameLeaseRing zeroShutterLagRing = this.zeroShutterLagRing;
+            if (zeroShutterLagRing != null) {
+                zeroShutterLagRing.clear();
+            }
+
             setCurrentCameraState(CameraState.IDLE);
 
             if (cameraSurfaceView != null) {
@@ -1237,6 +1553,9 @@ public class CameraController {
 
             previewCallback.updatePreviewFormat(null);
             previewCallback.updatePreviewSize(null);
+
+            queuedCallbackBuffers.set(0);
+            previewFrameBufferPool.clear();
         }
     }
 
@@ -1903,6 +2222,7 @@ public class CameraController {
                 logger.d(" _ focus mode " + focusMode.getValue() + " is supported");
                 if (!CompareUtils.stringsEqual(params.getFocusMode(), focusMode.getValue(), false)) {
                     params.setFocusMode(focusMode.getValue());
+                    focusTracker.invalidate();
                     changed = true;
                 }
             } else {
@@ -2291,12 +2611,18 @@ public class CameraController {
                     logger.e("a RuntimeException occurred during setParameters()", e);
                     return false;
                 }
+                // scene in frame is different, last focus can't be trusted
+                focusTracker.invalidate();
             }
         }
 
         return true;
     }
 
+    /**
+     * @return false if photo can't be taken now; when camera is busy request is not queued,
+     * use {@link #enqueuePhoto(PhotoRequest)} for that
+     */
     public boolean takePhoto(String photoDirectoryPath, String photoFileName, final boolean writeToFile) {
         logger.d("takePhoto(), photoDirectoryPath=" + photoDirectoryPath + ", photoFileName=" + photoFileName + ", writeToFile=" + writeToFile);
 
@@ -2326,6 +2652,8 @@ public class CameraController {
 
             lastTakePhotoStartTime = System.currentTimeMillis();
 
+            final PhotoTimeline timeline = new PhotoTimeline();
+
             CameraSettings currentCameraSettings = getCurrentCameraSettings();
 
             if (currentCameraSettings == null) {
@@ -2341,6 +2669,8 @@ public class CameraController {
                 logger.e("a RuntimeException occurred during getParameters()", e);
             }
 
+            timeline.mark(PhotoTimeline.Phase.PARAMETERS_READ);
+
             FocusMode focusMode = null;
 
             if (params != null) {
@@ -2364,159 +2694,811 @@ public class CameraController {
 
             setCurrentCameraState(CameraState.TAKING_PHOTO);
 
-            if (focusMode == FocusMode.AUTO) {
-
-                cancelResetAutoFocusCallback();
-
-                camera.cancelAutoFocus();
-
-                cameraThread.addTask(autoFocusResetRunnable = () -> {
-                    logger.e("auto focus callback not triggered");
-                    synchronized (sync) {
-                        autoFocusResetRunnable = null;
-                        if (isCameraLocked()) {
-                            camera.cancelAutoFocus();
-                            takePhotoInternal(writeToFile);
-                        }
-                    }
-                }, AUTO_FOCUS_TIMEOUT);
-
+            if (focusMode == FocusMode.AUTO && focusTracker.shouldRefocus(focusPolicy)) {
                 logger.i("taking photo with auto focus...");
-                camera.autoFocus((success, camera) -> {
-                    logger.d("onAutoFocus(), success=" + true);
-                    cancelResetAutoFocusCallback();
-                    takePhotoInternal(writeToFile);
-                });
-
+                runWithAutoFocus(timeline, () -> takePhotoInternal(writeToFile, timeline));
             } else {
-                logger.i("taking photo without auto focus...");
-                takePhotoInternal(writeToFile);
+                logger.i("taking photo without auto focus" + (focusMode == FocusMode.AUTO ? " (reusing last focus)" : "") + "...");
+                takePhotoInternal(writeToFile, timeline);
             }
 
             return true;
         }
     }
 
-    private void takePhotoInternal(final boolean writeToFile) {
-        muteSound(true);
-        isPreviewStated = false;
-        try {
-            executor.submit(() -> {
-                camera.takePicture(isMuteSoundEnabled ? null : shutterCallbackStub,
-                        new PictureRawCallback(), new PictureReadyCallback(writeToFile));
-                return true;
-            }).get(EXECUTOR_CALL_TIMEOUT, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            logger.e("an Exception occurred during get()", e);
-            reopenCamera(cameraId, cameraSurfaceView, getCurrentCameraSettings(), callbackHandler);
-        }
-    }
+    /**
+     * Takes photo immediately if camera is idle, otherwise request waits in queue
+     * and is taken as soon as current capture (photo, burst or video) is finished
+     * and camera is locked again; requests that can't be taken after waiting
+     * are reported to {@link IExtendedPhotoReadyListener#onPhotoFailed(File, long)}
+     */
+    @NotNull
+    public PhotoRequestQueue.OfferResult enqueuePhoto(@NotNull PhotoRequest request) {
+        logger.d("enqueuePhoto(), request=" + request);
 
-    private void cancelResetAutoFocusCallback() {
-        if (autoFocusResetRunnable != null) {
-            cameraThread.removeTask(autoFocusResetRunnable);
-            autoFocusResetRunnable = null;
-        }
-    }
+        checkReleased();
 
-    private class PictureRawCallback implements Camera.PictureCallback {
+        if (!TextUtils.isEmpty(request.fileName) && request.fileName.contains(File.separator)) {
+            logger.e("photo file name " + request.fileName + " contains path separators!");
+            return PhotoRequestQueue.OfferResult.REJECTED;
+        }
 
-        @Override
-        public void onPictureTaken(byte[] data, Camera camera) {
-            logger.d(PictureRawCallback.class.getSimpleName() + " :: onPictureTaken()");
+        synchronized (sync) {
 
-            if (isReleased()) {
-                return;
+            if (!isCameraOpened()) {
+                logger.e("camera is not opened");
+                return PhotoRequestQueue.OfferResult.REJECTED;
             }
 
-            synchronized (sync) {
-
-                if (currentCameraState != CameraState.TAKING_PHOTO) {
-                    throw new IllegalStateException("current camera state is not " + CameraState.TAKING_PHOTO);
-                }
-
-                if (data != null) {
-                    photoReadyListeners.notifyRawDataReady(data);
-                }
+            final PhotoRequestQueue.OfferResult result = photoRequestQueue.offer(request);
+            if (result == PhotoRequestQueue.OfferResult.REJECTED) {
+                logger.e("photo request queue is full");
+            } else if (currentCameraState == CameraState.IDLE) {
+                schedulePhotoRequestsDrain();
             }
+            return result;
         }
     }
 
-    private class PictureReadyCallback implements Camera.PictureCallback {
-
-        private final boolean writeToFile;
+    @NotNull
+    public PhotoRequestQueue getPhotoRequestQueue() {
+        return photoRequestQueue;
+    }
 
-        PictureReadyCallback(boolean writeToFile) {
-            this.writeToFile = writeToFile;
+    private void schedulePhotoRequestsDrain() {
+        if (!photoRequestQueue.isEmpty() && isCameraThreadRunning()) {
+            cameraThread.removeTask(photoRequestsDrainRunnable);
+            cameraThread.addTask(photoRequestsDrainRunnable, 0);
         }
+    }
 
-        @Override
-        public void onPictureTaken(final byte[] data, Camera camera) {
-            logger.d(PictureReadyCallback.class.getSimpleName() + " :: onPictureTaken()");
-
-            if (isReleased()) {
+    private void drainPhotoRequests() {
+        synchronized (sync) {
+            if (currentCameraState != CameraState.IDLE || !isCameraLocked()) {
+                // requests are kept, will be scheduled again on IDLE or lock
                 return;
             }
-
-            synchronized (sync) {
-
-                if (currentCameraState != CameraState.TAKING_PHOTO) {
-                    throw new IllegalStateException("current camera state is not " + CameraState.TAKING_PHOTO);
-                }
-
-                File lastPhotoFile = writeToFile ? CameraController.this.lastPhotoFile : null;
-                final Location lastLocation = CameraController.this.lastLocation;
-
-                logger.d("last photo file: " + lastPhotoFile);
-                if (lastPhotoFile != null) {
-                    if (FileHelper.writeBytesToFile(lastPhotoFile, data, false)) {
-                        if (isStoreLocationEnabled() && lastLocation != null)
-                            if (!FileHelper.writeExifLocation(lastPhotoFile, lastLocation)) {
-                                logger.e("can't write location to exif");
-                            }
-                    } else {
-                        logger.e("can't write picture data to file");
-                        lastPhotoFile = null;
-                    }
-                }
-
-                if (startPreview()) {
-                    setPreviewCallback();
-                }
-
-                setCurrentCameraState(CameraState.IDLE);
-
-                muteSound(false);
-
-                final long currentTime = System.currentTimeMillis();
-                final long elapsedTime = lastTakePhotoStartTime >= 0 && lastTakePhotoStartTime <= currentTime ? currentTime - lastTakePhotoStartTime : 0;
-
-                if (lastPhotoFile != null) {
-                    photoReadyListeners.notifyPhotoFileReady(lastPhotoFile, elapsedTime);
-                } else {
-                    if (data != null) {
-                        photoReadyListeners.notifyPhotoDataReady(data, elapsedTime);
-                    }
+            PhotoRequest request;
+            while ((request = photoRequestQueue.poll()) != null) {
+                logger.i("taking queued photo, waited " + request.getWaitTime() + " ms, merged " + request.getMergedCount());
+                if (takePhoto(request.directoryPath, request.fileName, request.writeToFile)) {
+                    break;
                 }
+                logger.e("can't take queued photo " + request);
+                photoReadyListeners.notifyPhotoFailed(getRequestedPhotoFile(request), request.getWaitTime());
             }
-
         }
     }
 
-    public List<Camera.Size> getSupportedVideoSizes() {
-        synchronized (sync) {
-            try {
-                if (isCameraLocked()) {
-                    return camera.getParameters().getSupportedVideoSizes();
-                }
-            } catch (RuntimeException e) {
-                logger.e("a RuntimeException occurred during getParameters()", e);
-            }
+    @Nullable
+    private static File getRequestedPhotoFile(@NotNull PhotoRequest request) {
+        if (!request.writeToFile || TextUtils.isEmpty(request.directoryPath) || TextUtils.isEmpty(request.fileName)) {
             return null;
         }
+        return new File(request.directoryPath, FileHelper.removeExtension(request.fileName) + ".jpg");
     }
 
-    public VideoSettings getLowVideoSettings() {
+    /**
+     * Takes series of photos: auto focus (if enabled) is performed once before the first shot,
+     * next shot is triggered right after preview restart while previous photo is still being written;
+     * each photo is delivered to {@link IPhotoReadyListener}, burst progress - to {@link IPhotoBurstListener}
+     *
+     * @param photoFileName base name for shots, index will be appended
+     * @param interval      target interval between shots in ms, 0 - as fast as possible
+     * @return started burst or null if it can't be started
+     */
+    @Nullable
+    public PhotoBurst takePhotoBurst(String photoDirectoryPath, String photoFileName, int count, long interval, final boolean writeToFile) {
+        logger.d("takePhotoBurst(), photoDirectoryPath=" + photoDirectoryPath + ", photoFileName=" + photoFileName
+                + ", count=" + count + ", interval=" + interval + ", writeToFile=" + writeToFile);
+
+        checkReleased();
+
+        if (count <= 0 || interval < 0) {
+            logger.e("incorrect burst count " + count + " or interval " + interval);
+            return null;
+        }
+
+        if (!TextUtils.isEmpty(photoFileName) && photoFileName.contains(File.separator)) {
+            logger.e("photo file name " + photoFileName + " contains path separators!");
+            return null;
+        }
+
+        synchronized (sync) {
+
+            if (currentCameraState != CameraState.IDLE) {
+                logger.e("current camera state is not IDLE! state is " + currentCameraState);
+                return null;
+            }
+
+            if (!isCameraLocked()) {
+                logger.e("camera is not locked");
+                return null;
+            }
+
+            if (!isSurfaceCreated()) {
+                logger.e("surface is not created");
+                return null;
+            }
+
+            final PhotoTimeline timeline = new PhotoTimeline();
+
+            CameraSettings currentCameraSettings = getCurrentCameraSettings();
+
+            if (currentCameraSettings == null) {
+                logger.e("can't retrieve current camera settings");
+                return null;
+            }
+
+            FocusMode focusMode = null;
+
+            try {
+                focusMode = FocusMode.fromValue(camera.getParameters().getFocusMode());
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during getParameters()", e);
+            }
+
+            timeline.mark(PhotoTimeline.Phase.PARAMETERS_READ);
+
+            File baseFile = null;
+
+            if (writeToFile) {
+                if (TextUtils.isEmpty(photoDirectoryPath)) {
+                    logger.e("photo directory path is empty");
+                    return null;
+                }
+                if (TextUtils.isEmpty(photoFileName)) {
+                    photoFileName = makeNewFileName(CameraState.TAKING_PHOTO, new Date(System.currentTimeMillis()), new Pair<>(currentCameraSettings.getPictureWidth(), currentCameraSettings.getPictureHeight()), "jpg");
+                }
+                baseFile = new File(photoDirectoryPath, FileHelper.removeExtension(photoFileName));
+            }
+
+            final PhotoBurst burst = new PhotoBurst(count, interval, baseFile);
+            currentBurst = burst;
+
+            setCurrentCameraState(CameraState.TAKING_PHOTO);
+
+            if (focusMode == FocusMode.AUTO && focusTracker.shouldRefocus(focusPolicy)) {
+                logger.i("taking burst with auto focus...");
+                runWithAutoFocus(timeline, () -> takeBurstShot(writeToFile, timeline));
+            } else {
+                logger.i("taking burst without auto focus" + (focusMode == FocusMode.AUTO ? " (reusing last focus)" : "") + "...");
+                takeBurstShot(writeToFile, timeline);
+            }
+
+            return burst;
+        }
+    }
+
+    @Nullable
+    public PhotoBurst getCurrentPhotoBurst() {
+        synchronized (sync) {
+            return currentBurst;
+        }
+    }
+
+    /**
+     * Shot in progress (if any) will be completed
+     */
+    public void cancelPhotoBurst() {
+        synchronized (sync) {
+            final PhotoBurst burst = currentBurst;
+            if (burst == null) {
+                return;
+            }
+            burst.cancel();
+            if (burstShotRunnable != null) {
+                // no shot in progress
+                finishPhotoBurst();
+            }
+        }
+    }
+
+    /**
+     * @param timeline timeline of the first shot which was started before auto focus, null for next shots
+     */
+    private void takeBurstShot(final boolean writeToFile, @Nullable PhotoTimeline timeline) {
+        synchronized (sync) {
+            burstShotRunnable = null;
+            final PhotoBurst burst = currentBurst;
+            if (burst == null) {
+                return;
+            }
+            if (!burst.hasNextShot() || currentCameraState != CameraState.TAKING_PHOTO || !isCameraLocked()) {
+                finishPhotoBurst();
+                return;
+            }
+            final long time = System.currentTimeMillis();
+            lastTakePhotoStartTime = time;
+            final File shotFile = burst.onShotStarted(time);
+            lastPhotoFile = writeToFile ? shotFile : null;
+            if (!takePhotoInternal(writeToFile, timeline != null ? timeline : new PhotoTimeline())) {
+                finishPhotoBurst();
+            }
+        }
+    }
+
+    private void scheduleNextBurstShot(@NotNull PhotoBurst burst, final boolean writeToFile) {
+        if (!isCameraThreadRunning()) {
+            finishPhotoBurst();
+            return;
+        }
+        cameraThread.addTask(burstShotRunnable = () -> takeBurstShot(writeToFile, null), burst.getNextShotDelay());
+    }
+
+    private void finishPhotoBurst() {
+        synchronized (sync) {
+            final PhotoBurst burst = currentBurst;
+            if (burst == null) {
+                return;
+            }
+            currentBurst = null;
+            if (burstShotRunnable != null) {
+                if (isCameraThreadRunning()) {
+                    cameraThread.removeTask(burstShotRunnable);
+                }
+                burstShotRunnable = null;
+            }
+            burst.finish(System.currentTimeMillis());
+            logger.i("burst finished: " + burst);
+            setCurrentCameraState(CameraState.IDLE);
+            photoBurstListeners.notifyBurstFinished(burst);
+        }
+    }
+
+    public boolean isZeroShutterLagEnabled() {
+        return zeroShutterLagRing != null;
+    }
+
+    /**
+     * Starts keeping last framesCount preview frames, so {@link #takeZeroShutterLagPhoto(String, String, boolean)}
+     * can be used; retained frames hold preview buffers, so framesCount is clamped to fit
+     * in {@link #getPreviewFrameBufferPoolMaxBytes()} together with callback queue size
+     * (if preview buffer size is known), oldest frames are also released when camera queue can't be refilled
+     */
+    public void enableZeroShutterLag(int framesCount) {
+        logger.d("enableZeroShutterLag(), framesCount=" + framesCount);
+
+        checkReleased();
+
+        if (framesCount <= 0) {
+            throw new IllegalArgumentException("incorrect frames count: " + framesCount);
+        }
+
+        synchronized (sync) {
+            final int bufferSize = previewFrameBufferPool.getBufferSize();
+            if (bufferSize > 0) {
+                final long maxFramesCount = previewFrameBufferPool.getMaxBytes() / bufferSize - callbackBufferQueueSize;
+                if (framesCount > maxFramesCount) {
+                    logger.w("zero shutter lag frames don't fit in preview frame buffer pool (" + previewFrameBufferPool.getMaxBytes()
+                            + " bytes), clamping " + framesCount + " to " + Math.max(1, maxFramesCount));
+                    framesCount = (int) Math.max(1, maxFramesCount);
+                }
+            }
+            final FrameLeaseRing previous = zeroShutterLagRing;
+            if (previous != null && previous.getCapacity() == framesCount) {
+                return;
+            }
+            zeroShutterLagRing = new FrameLeaseRing(framesCount);
+            if (previous != null) {
+                previous.clear();
+            }
+        }
+    }
+
+    public void disableZeroShutterLag() {
+        logger.d("disableZeroShutterLag()");
+
+        synchronized (sync) {
+            final FrameLeaseRing zeroShutterLagRing = this.zeroShutterLagRing;
+            if (zeroShutterLagRing != null) {
+                this.zeroShutterLagRing = null;
+                zeroShutterLagRing.clear();
+            }
+        }
+    }
+
+    /**
+     * Takes photo from retained preview frame closest to the moment of this call without stopping preview:
+     * frame is encoded to JPEG by {@link #getFrameJpegEncoder()} and delivered to {@link IPhotoReadyListener};
+     * photo has preview resolution and sensor orientation
+     *
+     * @return false if zero shutter lag is not enabled, there are no frames yet or preview format is not supported
+     */
+    public boolean takeZeroShutterLagPhoto(String photoDirectoryPath, String photoFileName, final boolean writeToFile) {
+        final long triggerTime = System.nanoTime();
+        final long startTime = System.currentTimeMillis();
+
+        logger.d("takeZeroShutterLagPhoto(), photoDirectoryPath=" + photoDirectoryPath + ", photoFileName=" + photoFileName + ", writeToFile=" + writeToFile);
+
+        checkReleased();
+
+        if (!TextUtils.isEmpty(photoFileName) && photoFileName.contains(File.separator)) {
+            logger.e("photo file name " + photoFileName + " contains path separators!");
+            return false;
+        }
+
+        synchronized (sync) {
+
+            final FrameLeaseRing zeroShutterLagRing = this.zeroShutterLagRing;
+
+            if (zeroShutterLagRing == null) {
+                logger.e("zero shutter lag is not enabled");
+                return false;
+            }
+
+            if (!isCameraLocked()) {
+                logger.e("camera is not locked");
+                return false;
+            }
+
+            final int previewWidth;
+            final int previewHeight;
+            final int previewFormat;
+            final int jpegQuality;
+
+            try {
+                final Parameters params = camera.getParameters();
+                previewWidth = params.getPreviewSize().width;
+                previewHeight = params.getPreviewSize().height;
+                previewFormat = params.getPreviewFormat();
+                jpegQuality = isWriterUnderPressure ? Math.min(params.getJpegQuality(), degradedJpegQuality) : params.getJpegQuality();
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during getParameters()", e);
+                return false;
+            }
+
+            if (previewFormat != android.graphics.ImageFormat.NV21 && previewFormat != android.graphics.ImageFormat.YUY2) {
+                logger.e("preview format " + previewFormat + " can't be encoded to JPEG");
+                return false;
+            }
+
+            File photoFile = null;
+
+            if (writeToFile) {
+                if (TextUtils.isEmpty(photoFileName)) {
+                    photoFileName = makeNewFileName(CameraState.TAKING_PHOTO, new Date(System.currentTimeMillis()), new Pair<>(previewWidth, previewHeight), "jpg");
+                } else {
+                    photoFileName = FileHelper.removeExtension(photoFileName) + ".jpg";
+                }
+
+                if ((photoFile = FileHelper.checkPathNoThrow(photoDirectoryPath, photoFileName)) == null) {
+                    logger.e("incorrect photo path: " + photoDirectoryPath + File.separator + photoFileName);
+                    return false;
+                }
+                lastPhotoFile = photoFile;
+            }
+
+            final FrameLease lease = zeroShutterLagRing.retainClosest(triggerTime);
+
+            if (lease == null) {
+                logger.e("no preview frames retained yet");
+                return false;
+            }
+
+            logger.i("taking zero shutter lag photo from frame " + TimeUnit.NANOSECONDS.toMillis(lease.getTime() - triggerTime) + " ms from trigger...");
+
+            final File targetFile = photoFile;
+            final Location location = isStoreLocationEnabled() ? lastLocation : null;
+
+            final boolean submitted;
+
+            try {
+                submitted = frameJpegEncoder.submit(lease, previewFormat, previewWidth, previewHeight, jpegQuality, new FrameJpegEncoder.IJpegCallback() {
+
+                    @Override
+                    public void onJpegEncoded(@NotNull FrameJpegEncoder.EncodedJpeg jpeg) {
+                        final byte[] data = jpeg.toByteArray();
+                        final long captureTime = System.currentTimeMillis() - startTime;
+                        if (targetFile == null || !photoWriter.submit(data, targetFile, location, captureTime, null).isAccepted()) {
+                            photoReadyListeners.notifyPhotoDataReady(data, captureTime);
+                        }
+                    }
+
+                    @Override
+                    public void onJpegFailed(long frameTime) {
+                        logger.e("can't encode zero shutter lag photo");
+                        photoReadyListeners.notifyPhotoFailed(targetFile, System.currentTimeMillis() - startTime);
+                    }
+
+                    @Override
+                    public void onJpegDropped(long frameTime) {
+                        logger.e("zero shutter lag photo was dropped");
+                        photoReadyListeners.notifyPhotoFailed(targetFile, System.currentTimeMillis() - startTime);
+                    }
+                });
+            } finally {
+                lease.release();
+            }
+
+            if (!submitted) {
+                logger.e("frame JPEG encoder queue is full");
+            }
+
+            return submitted;
+        }
+    }
+
+    @NotNull
+    public FrameJpegEncoder getFrameJpegEncoder() {
+        return frameJpegEncoder;
+    }
+
+    /**
+     * @return extractor used for thumbnails of written photos, may be used to get thumbnail of any photo file
+     */
+    @NotNull
+    public PhotoThumbnailExtractor getPhotoThumbnailExtractor() {
+        return photoThumbnailExtractor;
+    }
+
+    public boolean isPhotoThumbnailsEnabled() {
+        return photoThumbnailsEnabled;
+    }
+
+    /**
+     * @param enabled if false, null thumbnail is passed to {@link IExtendedPhotoReadyListener#onPhotoFileReady(File, Bitmap, long, long)}
+     */
+    public void setPhotoThumbnailsEnabled(boolean enabled) {
+        this.photoThumbnailsEnabled = enabled;
+    }
+
+    @NotNull
+    public FocusTracker getFocusTracker() {
+        return focusTracker;
+    }
+
+    @NotNull
+    public FocusPolicy getFocusPolicy() {
+        return focusPolicy;
+    }
+
+    /**
+     * Sets when auto focus is performed before photo in {@link FocusMode#AUTO} mode
+     */
+    public void setFocusPolicy(@NotNull FocusPolicy focusPolicy) {
+        logger.d("setFocusPolicy(), focusPolicy=" + focusPolicy);
+        this.focusPolicy = focusPolicy;
+    }
+
+    private void runWithAutoFocus(@NotNull final PhotoTimeline timeline, @NotNull final Runnable action) {
+
+        cancelResetAutoFocusCallback();
+
+        camera.cancelAutoFocus();
+
+        timeline.mark(PhotoTimeline.Phase.AUTO_FOCUS_STARTED);
+        focusTracker.onFocusStarted();
+
+        cameraThread.addTask(autoFocusResetRunnable = () -> {
+            logger.e("auto focus callback not triggered");
+            synchronized (sync) {
+                autoFocusResetRunnable = null;
+                if (isCameraLocked()) {
+                    camera.cancelAutoFocus();
+                    timeline.mark(PhotoTimeline.Phase.AUTO_FOCUS_FINISHED);
+                    focusTracker.onFocusResult(false);
+                    action.run();
+                }
+            }
+        }, AUTO_FOCUS_TIMEOUT);
+
+        camera.autoFocus((success, camera) -> {
+            logger.d("onAutoFocus(), success=" + success);
+            timeline.mark(PhotoTimeline.Phase.AUTO_FOCUS_FINISHED);
+            focusTracker.onFocusResult(success);
+            cancelResetAutoFocusCallback();
+            action.run();
+        });
+    }
+
+    /**
+     * @return false if camera has been reopened because of failure
+     */
+    private boolean takePhotoInternal(final boolean writeToFile, @NotNull final PhotoTimeline timeline) {
+        muteSound(true);
+        isPreviewStated = false;
+        final int userJpegQuality = applyDegradedJpegQuality();
+        try {
+            timeline.mark(PhotoTimeline.Phase.TAKE_PICTURE_SUBMITTED);
+            executor.submit(() -> {
+                camera.takePicture(isMuteSoundEnabled ? null : (ShutterCallback) () -> {
+                            logger.d("onShutter()");
+                            timeline.mark(PhotoTimeline.Phase.SHUTTER);
+                        },
+                        new PictureRawCallback(timeline), new PictureReadyCallback(writeToFile, userJpegQuality, timeline));
+                return true;
+            }).get(EXECUTOR_CALL_TIMEOUT, TimeUnit.SECONDS);
+            return true;
+        } catch (Exception e) {
+            logger.e("an Exception occurred during get()", e);
+            restoreJpegQuality(userJpegQuality);
+            reopenCamera(cameraId, cameraSurfaceView, getCurrentCameraSettings(), callbackHandler);
+            return false;
+        }
+    }
+
+    private void cancelResetAutoFocusCallback() {
+        if (autoFocusResetRunnable != null) {
+            cameraThread.removeTask(autoFocusResetRunnable);
+            autoFocusResetRunnable = null;
+        }
+    }
+
+    private class PictureRawCallback implements Camera.PictureCallback {
+
+        @NotNull
+        private final PhotoTimeline timeline;
+
+        PictureRawCallback(@NotNull PhotoTimeline timeline) {
+            this.timeline = timeline;
+        }
+
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            logger.d(PictureRawCallback.class.getSimpleName() + " :: onPictureTaken()");
+
+            timeline.mark(PhotoTimeline.Phase.RAW_CALLBACK);
+
+            if (isReleased()) {
+                return;
+            }
+
+            synchronized (sync) {
+
+                if (currentCameraState != CameraState.TAKING_PHOTO) {
+                    throw new IllegalStateException("current camera state is not " + CameraState.TAKING_PHOTO);
+                }
+
+                if (data != null) {
+                    photoReadyListeners.notifyRawDataReady(data);
+                }
+            }
+        }
+    }
+
+    private class PictureReadyCallback implements Camera.PictureCallback {
+
+        private final boolean writeToFile;
+
+        /**
+         * quality to restore after this photo, 0 if it's taken without degradation
+         */
+        private final int userJpegQuality;
+
+        @NotNull
+        private final PhotoTimeline timeline;
+
+        PictureReadyCallback(boolean writeToFile, int userJpegQuality, @NotNull PhotoTimeline timeline) {
+            this.writeToFile = writeToFile;
+            this.userJpegQuality = userJpegQuality;
+            this.timeline = timeline;
+        }
+
+        @Override
+        public void onPictureTaken(final byte[] data, Camera camera) {
+            logger.d(PictureReadyCallback.class.getSimpleName() + " :: onPictureTaken()");
+
+            timeline.mark(PhotoTimeline.Phase.JPEG_CALLBACK);
+
+            if (isReleased()) {
+                return;
+            }
+
+            final File lastPhotoFile;
+            final Location lastLocation;
+            final long captureTime;
+
+            synchronized (sync) {
+
+                if (currentCameraState != CameraState.TAKING_PHOTO) {
+                    throw new IllegalStateException("current camera state is not " + CameraState.TAKING_PHOTO);
+                }
+
+                lastPhotoFile = writeToFile ? CameraController.this.lastPhotoFile : null;
+                lastLocation = isStoreLocationEnabled() ? CameraController.this.lastLocation : null;
+
+                final long currentTime = System.currentTimeMillis();
+                captureTime = lastTakePhotoStartTime >= 0 && lastTakePhotoStartTime <= currentTime ? currentTime - lastTakePhotoStartTime : 0;
+
+                logger.d("last photo file: " + lastPhotoFile + ", capture time: " + captureTime + " ms");
+
+                restoreJpegQuality(userJpegQuality);
+
+                if (startPreview()) {
+                    setPreviewCallback();
+                }
+
+                timeline.mark(PhotoTimeline.Phase.PREVIEW_RESTARTED);
+
+                final PhotoBurst burst = currentBurst;
+                if (burst != null) {
+                    burst.onShotTaken();
+                    photoBurstListeners.notifyBurstShotTaken(burst, burst.getTakenCount() - 1);
+                    if (burst.hasNextShot()) {
+                        scheduleNextBurstShot(burst, writeToFile);
+                    } else {
+                        finishPhotoBurst();
+                    }
+                } else {
+                    setCurrentCameraState(CameraState.IDLE);
+                }
+
+                muteSound(false);
+            }
+
+            // submit may block with BackpressurePolicy.BLOCK, so it's done without holding controller lock
+            boolean submitted = false;
+            if (lastPhotoFile != null && data != null) {
+                // file listeners will be notified when write completes
+                submitted = photoWriter.submit(data, lastPhotoFile, lastLocation, captureTime, timeline).isAccepted();
+            }
+
+            if (!submitted) {
+                if (data != null) {
+                    photoReadyListeners.notifyPhotoDataReady(data, captureTime);
+                }
+                completePhotoTimeline(timeline);
+            }
+        }
+    }
+
+    private class PhotoWriteCallback implements PhotoWriter.IPhotoWriteCallback {
+
+        @Override
+        public void onPhotoWritten(@NotNull File photoFile, @NotNull byte[] data, long captureTime, long persistTime, @Nullable PhotoTimeline timeline) {
+            // file may be overwritten with the same name
+            photoThumbnailExtractor.invalidate(photoFile);
+            Bitmap thumbnail = null;
+            if (photoThumbnailsEnabled) {
+                try {
+                    thumbnail = photoThumbnailExtractor.getThumbnail(data, photoFile);
+                } catch (RuntimeException e) {
+                    logger.e("a RuntimeException occurred during getThumbnail(): " + e.getMessage(), e);
+                }
+            }
+            photoReadyListeners.notifyPhotoFileReady(photoFile, thumbnail, captureTime, persistTime);
+            if (timeline != null) {
+                completePhotoTimeline(timeline);
+            }
+        }
+
+        @Override
+        public void onPhotoWriteFailed(@NotNull File photoFile, @NotNull byte[] data, long captureTime, @Nullable PhotoTimeline timeline) {
+            logger.e("can't write picture data to file " + photoFile);
+            photoReadyListeners.notifyPhotoDataReady(data, captureTime);
+            if (timeline != null) {
+                completePhotoTimeline(timeline);
+            }
+        }
+
+        @Override
+        public void onLocationWriteFailed(@NotNull File photoFile, @NotNull Location location, @NotNull Exception e) {
+            logger.w("location is not written to " + photoFile + ": " + e.getMessage());
+            photoReadyListeners.notifyPhotoLocationFailed(photoFile);
+        }
+
+        @Override
+        public void onPressureChanged(boolean underPressure) {
+            if (photoWriter.getBackpressurePolicy() != PhotoWriter.BackpressurePolicy.DEGRADE && underPressure) {
+                return;
+            }
+            logger.i("photo writer pressure changed: " + underPressure);
+            isWriterUnderPressure = underPressure;
+        }
+    }
+
+    public int getDegradedJpegQuality() {
+        return degradedJpegQuality;
+    }
+
+    /**
+     * @param degradedJpegQuality quality used for next photos while writer is under pressure
+     *                            with {@link PhotoWriter.BackpressurePolicy#DEGRADE}
+     */
+    public void setDegradedJpegQuality(int degradedJpegQuality) {
+        if (degradedJpegQuality <= 0 || degradedJpegQuality > 100) {
+            throw new IllegalArgumentException("incorrect degraded jpeg quality: " + degradedJpegQuality);
+        }
+        this.degradedJpegQuality = degradedJpegQuality;
+    }
+
+    /**
+     * Lowers JPEG quality for single photo if writer is under pressure,
+     * user quality in settings is not changed
+     *
+     * @return quality to restore after the photo, 0 if quality is not degraded
+     */
+    private int applyDegradedJpegQuality() {
+        synchronized (sync) {
+            if (!isWriterUnderPressure || !isCameraLocked()) {
+                return 0;
+            }
+            try {
+                final Parameters params = camera.getParameters();
+                final int userJpegQuality = params.getJpegQuality();
+                final int degradedJpegQuality = this.degradedJpegQuality;
+                if (userJpegQuality <= degradedJpegQuality) {
+                    return 0;
+                }
+                params.setJpegQuality(degradedJpegQuality);
+                camera.setParameters(params);
+                appliedDegradedJpegQuality = degradedJpegQuality;
+                logger.i("JPEG quality degraded for next photo: " + degradedJpegQuality);
+                return userJpegQuality;
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during setParameters()", e);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @param userJpegQuality value returned by {@link #applyDegradedJpegQuality()}
+     */
+    private void restoreJpegQuality(int userJpegQuality) {
+        if (userJpegQuality <= 0) {
+            return;
+        }
+        synchronized (sync) {
+            final int appliedDegradedJpegQuality = this.appliedDegradedJpegQuality;
+            this.appliedDegradedJpegQuality = 0;
+            if (!isCameraLocked()) {
+                return;
+            }
+            try {
+                final Parameters params = camera.getParameters();
+                if (params.getJpegQuality() != appliedDegradedJpegQuality) {
+                    // quality was changed by user during capture
+                    return;
+                }
+                params.setJpegQuality(userJpegQuality);
+                camera.setParameters(params);
+                logger.i("JPEG quality restored: " + userJpegQuality);
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during setParameters()", e);
+            }
+        }
+    }
+
+    private void completePhotoTimeline(@NotNull PhotoTimeline timeline) {
+        timeline.mark(PhotoTimeline.Phase.COMPLETED);
+        lastPhotoTimeline = timeline;
+        photoTimelineStats.record(timeline);
+        logger.d("photo timeline: " + timeline);
+        photoTimelineListeners.notifyPhotoTimeline(timeline);
+    }
+
+    /**
+     * @return phases of last completed photo taken with {@link Camera#takePicture(ShutterCallback, Camera.PictureCallback, Camera.PictureCallback)}
+     */
+    @Nullable
+    public PhotoTimeline getLastPhotoTimeline() {
+        return lastPhotoTimeline;
+    }
+
+    /**
+     * @return rolling percentiles of photo phases
+     */
+    @NotNull
+    public PhotoTimelineStats getPhotoTimelineStats() {
+        return photoTimelineStats;
+    }
+
+    public List<Camera.Size> getSupportedVideoSizes() {
+        synchronized (sync) {
+            try {
+                if (isCameraLocked()) {
+                    return camera.getParameters().getSupportedVideoSizes();
+                }
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during getParameters()", e);
+            }
+            return null;
+        }
+    }
+
+    public VideoSettings getLowVideoSettings() {
 
         if (!isCameraLocked()) {
             logger.e("can't get parameters: camera is not locked");
@@ -2600,9 +3582,10 @@ public class CameraController {
      *                      parameters will be setted in appropriate order without profile
      * @param videoSettings must not be null
      * @param fpsRange      if is not null and requested fps falls within the range, it will be applied
+     * @param measuredFps   preview fps measured before preview was stopped, used when requested fps can't be applied
      */
-    private boolean setMediaRecorderParams(CamcorderProfile profile, VideoSettings videoSettings, @Nullable Pair<Integer, Integer> fpsRange) {
-        logger.d("setMediaRecorderParams(), profile=" + profile + ", videoSettings=" + videoSettings + ", fpsRange=" + fpsRange);
+    private boolean setMediaRecorderParams(CamcorderProfile profile, VideoSettings videoSettings, @Nullable Pair<Integer, Integer> fpsRange, double measuredFps) {
+        logger.d("setMediaRecorderParams(), profile=" + profile + ", videoSettings=" + videoSettings + ", fpsRange=" + fpsRange + ", measuredFps=" + measuredFps);
 
         if (videoSettings == null) {
             logger.e("can't set media recorder parameters: videoSettings is null");
@@ -2623,20 +3606,10 @@ public class CameraController {
 
         if (profile == null) {
             videoFrameRate = videoSettings.getVideoFrameRate();
-            if ((fpsRange == null || fpsRange.first == null || fpsRange.second == null || videoFrameRate < fpsRange.first || videoFrameRate > fpsRange.second) ||
-                    videoFrameRate == VideoSettings.VIDEO_FRAME_RATE_AUTO) {
+            if (isMeasuredFrameRateRequired(videoFrameRate, fpsRange)) {
 
                 if (previewCallback.allowLogging) {
-                    if (Double.compare(previewCallback.getLastFps(), 0) == 0 && Thread.currentThread() != cameraThread) {
-                        // wait for count
-                        try {
-                            Thread.sleep(2000);
-                        } catch (InterruptedException e) {
-                            logger.e("an InterruptedException occurred during sleep()", e);
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-                    videoFrameRate = (int) previewCallback.getLastFps();
+                    videoFrameRate = (int) Math.round(measuredFps);
                 }
 
                 if (videoFrameRate == 0) {
@@ -2740,6 +3713,11 @@ public class CameraController {
         return GraphicUtils.canDecodeImage(lastPreviewFile);
     }
 
+    @NotNull
+    public PhotoWriter getPhotoWriter() {
+        return photoWriter;
+    }
+
     @Nullable
     public File getLastPhotoFile() {
         return lastPhotoFile;
@@ -2755,6 +3733,60 @@ public class CameraController {
         return lastPreviewFile;
     }
 
+    /**
+     * @return pool of video preview tiles and grids
+     */
+    @NotNull
+    public BitmapPool getVideoPreviewBitmapPool() {
+        return videoPreviewBitmapPool;
+    }
+
+    public boolean isVideoPreviewFramesRecycled() {
+        return videoPreviewFramesRecycled;
+    }
+
+    /**
+     * @param recycled true - frames passed to {@link IVideoPreviewListener#onVideoPreviewReady(File, Bitmap, Bitmap, File)}
+     *                 are recycled after all listeners were notified,
+     *                 false (default) - frames are left to listeners
+     */
+    public void setVideoPreviewFramesRecycled(boolean recycled) {
+        this.videoPreviewFramesRecycled = recycled;
+    }
+
+    /**
+     * full size frames are not taken from {@link #getVideoPreviewBitmapPool()},
+     * so they are recycled rather than pooled to not evict reusable tiles and grids
+     */
+    private static void recycleVideoPreviewFrames(@Nullable Bitmap firstFrame, @Nullable Bitmap lastFrame) {
+        if (firstFrame != null && !firstFrame.isRecycled()) {
+            firstFrame.recycle();
+        }
+        if (lastFrame != null && lastFrame != firstFrame && !lastFrame.isRecycled()) {
+            lastFrame.recycle();
+        }
+    }
+
+    public boolean isSinglePassVideoPreview() {
+        return singlePassVideoPreview;
+    }
+
+    /**
+     * @param singlePass true - video preview is made by {@link VideoPreviewGenerator} with one retriever and one seek pass,
+     *                   false - by separate retriever and {@link GraphicUtils#makePreviewFromVideoFile(File, int, boolean)}
+     */
+    public void setSinglePassVideoPreview(boolean singlePass) {
+        this.singlePassVideoPreview = singlePass;
+    }
+
+    /**
+     * @return timing of last made video preview, for legacy path only total time is measured
+     */
+    @Nullable
+    public VideoPreviewGenerator.Timing getLastVideoPreviewTiming() {
+        return lastVideoPreviewTiming;
+    }
+
     /**
      * must be called after setOutputFormat()
      */
@@ -2827,6 +3859,50 @@ public class CameraController {
         }
     }
 
+    /**
+     * @return true if requested frame rate is auto or can't be applied within preview fps range
+     */
+    private static boolean isMeasuredFrameRateRequired(int videoFrameRate, @Nullable Pair<Integer, Integer> fpsRange) {
+        return fpsRange == null || fpsRange.first == null || fpsRange.second == null || videoFrameRate < fpsRange.first || videoFrameRate > fpsRange.second ||
+                videoFrameRate == VideoSettings.VIDEO_FRAME_RATE_AUTO;
+    }
+
+    /**
+     * must be called while preview is running
+     *
+     * @return estimated preview fps, 0 if unknown
+     */
+    private double getMeasuredPreviewFps() {
+        if (!previewCallback.allowLogging) {
+            return 0;
+        }
+        double fps = previewCallback.getEstimatedFpsSamplesCount() >= MIN_ESTIMATED_FPS_SAMPLES ?
+                previewCallback.getEstimatedFps() : previewCallback.getLastFps();
+        if (Double.compare(fps, 0) == 0 && isPreviewStated && Thread.currentThread() != cameraThread) {
+            // frames are delivered on camera thread, so waiting is possible only from the other one;
+            // returns as soon as estimate is stable instead of fixed sleep
+            final long startWaitTime = System.currentTimeMillis();
+            final MeasuredFpsFuture future = previewCallback.requestMeasuredFps(MIN_ESTIMATED_FPS_SAMPLES,
+                    MEASURED_FPS_TOLERANCE, MEASURED_FPS_TIMEOUT, null);
+            try {
+                fps = future.get(MEASURED_FPS_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.e("an InterruptedException occurred during get()", e);
+                Thread.currentThread().interrupt();
+                future.cancel(false);
+            } catch (TimeoutException e) {
+                logger.w("fps is not measured: " + e.getMessage());
+                // don't leave pending request in calculator
+                future.cancel(false);
+            }
+            if (Double.compare(fps, 0) == 0) {
+                fps = future.getCurrentFps();
+            }
+            logger.d("measured fps: " + fps + ", confident: " + future.isConfident() + " (" + (System.currentTimeMillis() - startWaitTime) + " ms)");
+        }
+        return fps;
+    }
+
     private boolean prepareMediaRecorder(@NotNull VideoSettings videoSettings, @NotNull VideoRecordLimit recLimit, String saveDirectoryPath, String fileName) {
 
         synchronized (sync) {
@@ -2885,6 +3961,10 @@ public class CameraController {
 
             final boolean wasStarted = isPreviewStated;
 
+            // frames stop coming with preview, so fps is measured before
+            final double measuredFps = profile == null && isMeasuredFrameRateRequired(videoSettings.getVideoFrameRate(), previewFpsRange) ?
+                    getMeasuredPreviewFps() : 0;
+
             stopPreview();
 
             setRecordingHint(true);
@@ -2939,7 +4019,7 @@ public class CameraController {
                 }
             }
 
-            if (!setMediaRecorderParams(profile, videoSettings, previewFpsRange)) {
+            if (!setMediaRecorderParams(profile, videoSettings, previewFpsRange, measuredFps)) {
                 logger.e("setMediaRecorderParams() failed");
 
                 releaseMediaRecorder();
@@ -3122,14 +4202,8 @@ public class CameraController {
 
             releaseMediaRecorder();
 
-            if (makePreviewThreadPoolExecutor != null && lastVideoFile != null) {
-                try {
-                    makePreviewThreadPoolExecutor.execute(new MakePreviewRunnable(new MakePreviewRunnableInfo(videoPreviewIdsHolder.incrementAndGet(), lastVideoFile.getName(), currentVideoSettings, lastVideoFile)));
-                } catch (NullPointerException e) {
-                    logger.e("a NullPointerException occurred during getName(): " + e.getMessage());
-                }
-            } else {
-                logger.e("makePreviewThreadPoolExecutor is null");
+            if (lastVideoFile != null) {
+                makeVideoPreview(lastVideoFile, currentVideoSettings, MakePreviewScheduler.PRIORITY_NORMAL);
             }
 
             currentVideoSettings = null;
@@ -3148,7 +4222,22 @@ public class CameraController {
 
         releaseMakePreviewThreadPoolExecutor();
 
-        makePreviewThreadPoolExecutor = new TaskRunnableExecutor<>(DEFAULT_MAKE_PREVIEW_POOL_SIZE, 1, TaskRunnableExecutor.DEFAULT_KEEP_ALIVE_TIME, TimeUnit.SECONDS, "MakePreviewThread",
+        if (poolSize <= 0) {
+            logger.w("incorrect pool size: " + poolSize + ", using default: " + DEFAULT_MAKE_PREVIEW_POOL_SIZE);
+            poolSize = DEFAULT_MAKE_PREVIEW_POOL_SIZE;
+        }
+
+        final MakePreviewScheduler scheduler = new MakePreviewScheduler(1, poolSize, info -> {
+            final TaskRunnableExecutor<MakePreviewRunnableInfo, Void, Void, MakePreviewRunnable> executor = makePreviewThreadPoolExecutor;
+            if (executor == null) {
+                throw new IllegalStateException("makePreviewThreadPoolExecutor is null");
+            }
+            executor.execute(new MakePreviewRunnable(info));
+        });
+        scheduler.setCancelListener(this::removeFromMakePreviewJournal);
+        makePreviewScheduler = scheduler;
+
+        makePreviewThreadPoolExecutor = new TaskRunnableExecutor<>(poolSize, 1, TaskRunnableExecutor.DEFAULT_KEEP_ALIVE_TIME, TimeUnit.SECONDS, "MakePreviewThread",
                 validator, storage, callbackHandler);
         if (restorer != null) {
             makePreviewThreadPoolExecutor.restoreQueueByRestorer(restorer);
@@ -3163,10 +4252,111 @@ public class CameraController {
 
         logger.d("releaseMakePreviewThreadPoolExecutor()");
 
+        final MakePreviewScheduler scheduler = makePreviewScheduler;
+        if (scheduler != null) {
+            // not cancelled by user, pending tasks stay in journal
+            scheduler.setCancelListener(null);
+            scheduler.clear();
+            makePreviewScheduler = null;
+        }
+
+        final MakePreviewJournal journal = makePreviewJournal;
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.e("an IOException occurred during close(): " + e.getMessage(), e);
+            }
+            makePreviewJournal = null;
+        }
+
         makePreviewThreadPoolExecutor.shutdown();
         makePreviewThreadPoolExecutor = null;
     }
 
+    /**
+     * schedules making preview of given video; pending task for the same file is replaced,
+     * higher priority and then newer videos are processed first
+     *
+     * @param priority {@link MakePreviewScheduler#PRIORITY_NORMAL} for recorded videos
+     * @return false if executor is not initialized
+     */
+    public boolean makeVideoPreview(@NotNull File videoFile, @Nullable VideoSettings videoSettings, int priority) {
+        final MakePreviewScheduler scheduler = makePreviewScheduler;
+        if (scheduler == null) {
+            logger.e("makePreviewThreadPoolExecutor is null");
+            return false;
+        }
+        final MakePreviewRunnableInfo info = new MakePreviewRunnableInfo(videoPreviewIdsHolder.incrementAndGet(), videoFile.getName(), videoSettings, videoFile);
+        final MakePreviewJournal journal = makePreviewJournal;
+        if (journal != null) {
+            // may be called under controller lock, so record is only appended here
+            // and made durable by preview worker, see MakePreviewRunnable
+            try {
+                journal.add(info);
+            } catch (IOException e) {
+                logger.e("an IOException occurred during add(): " + e.getMessage(), e);
+            }
+        }
+        scheduler.schedule(info, priority);
+        return true;
+    }
+
+    private void removeFromMakePreviewJournal(@NotNull MakePreviewRunnableInfo info) {
+        final MakePreviewJournal journal = makePreviewJournal;
+        if (journal != null) {
+            try {
+                journal.remove(info);
+            } catch (IOException e) {
+                logger.e("an IOException occurred during remove(): " + e.getMessage(), e);
+            } catch (IllegalStateException e) {
+                // closed by releaseMakePreviewThreadPoolExecutor() meanwhile, record stays for restore
+                logger.e("an IllegalStateException occurred during remove(): " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * opens journal, schedules tasks restored from it and mirrors next tasks of {@link #makeVideoPreview(File, VideoSettings, int)} to it,
+     * so they survive restart; tasks cancelled in {@link #getMakePreviewScheduler()} are removed from journal;
+     * journal is closed with {@link #releaseMakePreviewThreadPoolExecutor()}
+     *
+     * @return count of restored tasks or -1 if executor is not initialized or journal can't be opened
+     */
+    public int restoreMakePreviewJournal(@NotNull MakePreviewJournal journal) {
+        final MakePreviewScheduler scheduler = makePreviewScheduler;
+        if (scheduler == null) {
+            logger.e("makePreviewThreadPoolExecutor is null");
+            return -1;
+        }
+        final List<MakePreviewRunnableInfo> restored;
+        try {
+            restored = journal.open();
+        } catch (IOException e) {
+            logger.e("an IOException occurred during open(): " + e.getMessage(), e);
+            return -1;
+        }
+        logger.d("make preview journal restored: " + journal.getLastReplayStats());
+        makePreviewJournal = journal;
+        for (MakePreviewRunnableInfo info : restored) {
+            scheduler.schedule(info, MakePreviewScheduler.PRIORITY_NORMAL);
+        }
+        return restored.size();
+    }
+
+    @Nullable
+    public MakePreviewJournal getMakePreviewJournal() {
+        return makePreviewJournal;
+    }
+
+    /**
+     * @return null if executor is not initialized
+     */
+    @Nullable
+    public MakePreviewScheduler getMakePreviewScheduler() {
+        return makePreviewScheduler;
+    }
+
     public void enableFpsLogging(boolean enable) {
         previewCallback.setAllowLogging(enable);
     }
@@ -3382,10 +4572,36 @@ public class CameraController {
 
         @Override
         public Void doWork() {
-            doMakePreview();
+            final long startTime = System.nanoTime();
+            checkpointMakePreviewJournal();
+            try {
+                doMakePreview();
+            } finally {
+                removeFromMakePreviewJournal(rInfo);
+                final MakePreviewScheduler scheduler = makePreviewScheduler;
+                if (scheduler != null) {
+                    scheduler.onFinished(rInfo, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                }
+            }
             return null;
         }
 
+        /**
+         * makes durable this and all tasks added before, off controller lock
+         */
+        private void checkpointMakePreviewJournal() {
+            final MakePreviewJournal journal = makePreviewJournal;
+            if (journal != null) {
+                try {
+                    journal.checkpoint();
+                } catch (IOException e) {
+                    logger.e("an IOException occurred during checkpoint(): " + e.getMessage(), e);
+                } catch (IllegalStateException e) {
+                    logger.e("an IllegalStateException occurred during checkpoint(): " + e.getMessage(), e);
+                }
+            }
+        }
+
         private void doMakePreview() {
             logger.d("doMakePreview()");
 
@@ -3397,30 +4613,66 @@ public class CameraController {
                 return;
             }
 
-            MediaMetadataRetriever retriever = MetadataRetriever.createMediaMetadataRetriever(context, Uri.fromFile(rInfo.videoFile), null);
-            final Bitmap firstFrame = MetadataRetriever.extractFrameAtPosition(retriever, 1, false);
-            final Bitmap lastFrame = MetadataRetriever.extractFrameAtPosition(retriever,
-                    (long) (MetadataRetriever.extractMediaDuration(retriever, false) * 0.95), true);
-
-            if (rInfo.videoSettings == null || !rInfo.videoSettings.isMakePreviewEnabled()) {
+            final boolean makeGrid = rInfo.videoSettings != null && rInfo.videoSettings.isMakePreviewEnabled();
+            if (!makeGrid) {
                 logger.w("making preview is NOT enabled");
+            } else {
+                logger.d("making preview is enabled");
+            }
+
+            final Bitmap firstFrame;
+            final Bitmap lastFrame;
+            final Bitmap previewBitmap;
+            final boolean singlePass = singlePassVideoPreview;
+            if (singlePass) {
+                final VideoPreviewGenerator.Result result = makeGrid ?
+                        videoPreviewGenerator.generate(rInfo.videoFile, rInfo.videoSettings.getPreviewGridSize(), rInfo.videoSettings.getPreviewTileSize()) :
+                        videoPreviewGenerator.generate(rInfo.videoFile, 0);
+                if (result == null) {
+                    videoPreviewListeners.notifyPreviewFailed(rInfo.videoFile);
+                    return;
+                }
+                firstFrame = result.firstFrame;
+                lastFrame = result.lastFrame;
+                previewBitmap = result.grid;
+                lastVideoPreviewTiming = result.timing;
+            } else {
+                final long startTime = System.nanoTime();
+                MediaMetadataRetriever retriever = MetadataRetriever.createMediaMetadataRetriever(context, Uri.fromFile(rInfo.videoFile), null);
+                try {
+                    firstFrame = MetadataRetriever.extractFrameAtPosition(retriever, 1, false);
+                    lastFrame = MetadataRetriever.extractFrameAtPosition(retriever,
+                            (long) (MetadataRetriever.extractMediaDuration(retriever, false) * 0.95), true);
+                } finally {
+                    retriever.release();
+                }
+                previewBitmap = makeGrid ? GraphicUtils.makePreviewFromVideoFile(rInfo.videoFile, rInfo.videoSettings.getPreviewGridSize(), true) : null;
+                final long totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                lastVideoPreviewTiming = new VideoPreviewGenerator.Timing(0, 0, 0, totalTime, 0);
+                logger.d("video preview of " + rInfo.videoFile + " generated by legacy path in " + totalTime + " ms");
+            }
 
+            if (!makeGrid) {
                 lastPreviewFile = null;
 
             } else {
-                logger.d("making preview is enabled");
-
-                Bitmap previewBitmap = GraphicUtils.makePreviewFromVideoFile(rInfo.videoFile, rInfo.videoSettings.getPreviewGridSize(), true);
                 if (!GraphicUtils.isBitmapCorrect(previewBitmap)) {
                     logger.e("incorrect preview bitmap: " + previewBitmap);
+                    if (videoPreviewFramesRecycled) {
+                        recycleVideoPreviewFrames(firstFrame, lastFrame);
+                    }
                     return;
                 }
-                lastPreviewFile = new File(rInfo.videoFile.getParentFile(), rInfo.videoFile.getName() + GraphicUtils.getFileExtByCompressFormat(Bitmap.CompressFormat.PNG));
-                lastPreviewFile = GraphicUtils.compressBitmapToFile(lastPreviewFile, previewBitmap, Bitmap.CompressFormat.PNG, 100);
+                final VideoPreviewEncoder.Result encoded = videoPreviewEncoder.encodeToFile(previewBitmap, rInfo.videoSettings.getPreviewFormat(),
+                        rInfo.videoSettings.getPreviewMaxBytes(), rInfo.videoSettings.getPreviewMaxEncodeTime(), rInfo.videoFile);
+                lastPreviewFile = encoded != null ? encoded.file : null;
+                videoPreviewBitmapPool.release(previewBitmap);
             }
 
             if (lastPreviewFile != null) {
-                videoPreviewListeners.notifyPreviewReady(lastPreviewFile, firstFrame, lastFrame, rInfo.videoFile);
+                videoPreviewListeners.notifyPreviewReady(lastPreviewFile, firstFrame, lastFrame, rInfo.videoFile, videoPreviewFramesRecycled);
+            } else if (videoPreviewFramesRecycled) {
+                recycleVideoPreviewFrames(firstFrame, lastFrame);
             }
         }
     }
@@ -3482,14 +4734,14 @@ public class CameraController {
 
     protected class CustomPreviewCallback extends FrameCalculator implements Camera.PreviewCallback {
 
-        private boolean allowLogging;
+        private volatile boolean allowLogging;
 
         private long recorderInterval = 0;
 
-        private ImageFormat previewFormat;
+        private volatile ImageFormat previewFormat;
 
-        private int previewWidth = -1;
-        private int previewHeight = -1;
+        private volatile int previewWidth = -1;
+        private volatile int previewHeight = -1;
 
         CustomPreviewCallback() {
             super(callbackHandler != null ? callbackHandler.getLooper() : Looper.getMainLooper());
@@ -3550,26 +4802,61 @@ public class CameraController {
                 return;
             }
 
-            synchronized (sync) {
+            // frame path doesn't take controller lock: all fields used here are volatile or thread-safe,
+            // so parameter getters and setters can't stall frame callbacks
 
-                final long frameTime;
+            final long frameTime;
 
-                if (data.length != expectedCallbackBufSize && expectedCallbackBufSize > 0) {
-                    logger.w("frame data size (" + data.length + ") is not equal expected (" + expectedCallbackBufSize + ")");
-                }
+            final int expectedCallbackBufSize = CameraController.this.expectedCallbackBufSize;
 
-                if (allowLogging) {
-                    frameTime = onFrame();
-                } else {
-                    frameTime = System.nanoTime();
-                }
+            if (data.length != expectedCallbackBufSize && expectedCallbackBufSize > 0) {
+                logger.w("frame data size (" + data.length + ") is not equal expected (" + expectedCallbackBufSize + ")");
+            }
+
+            if (allowLogging) {
+                frameTime = onFrame();
+            } else {
+                frameTime = System.nanoTime();
+            }
 
-                if (isCameraLocked() && callbackBufferQueueSize > 0) {
-                    camera.addCallbackBuffer(data);
+            FrameLease lease = null;
+
+            if (isCameraLocked && camera != null && callbackBufferQueueSize > 0) {
+                lease = previewFrameBufferPool.lease(data, frameTime);
+                if (lease != null) {
+                    queuedCallbackBuffers.decrementAndGet();
+                    // keep camera queue full while this buffer is held by listeners
+                    fillCallbackBuffersQueue(camera);
+                } else if (data.length == expectedCallbackBufSize) {
+                    // not pooled buffer (e.g. left from previous configuration): copy and give it back immediately
+                    lease = FrameLease.wrap(data.clone(), frameTime);
+                    try {
+                        camera.addCallbackBuffer(data);
+                    } catch (RuntimeException e) {
+                        logger.e("a RuntimeException occurred during addCallbackBuffer()", e);
+                    }
                 }
+            }
+
+            if (lease == null) {
+                // buffer allocated by camera for this frame only
+                lease = FrameLease.wrap(data, frameTime);
+            }
+
+            final FrameLeaseRing zeroShutterLagRing = CameraController.this.zeroShutterLagRing;
+            if (zeroShutterLagRing != null) {
+                zeroShutterLagRing.add(lease);
+            }
 
-                previewFrameListeners.notifyPreviewFrame(data, frameTime);
+            final ImageFormat previewFormat = this.previewFormat;
+            if (focusPolicy == FocusPolicy.ON_SCENE_CHANGE
+                    && (previewFormat == null || previewFormat == ImageFormat.NV21 || previewFormat == ImageFormat.YV12)) {
+                // Y plane goes first
+                focusTracker.onPreviewFrame(lease.getData(), previewWidth, previewHeight, frameTime);
             }
+
+            previewFrameListeners.notifyPreviewFrame(lease);
+            lease.release();
         }
     }
 
@@ -3752,11 +5039,15 @@ public class CameraController {
             run(run);
         }
 
-        void notifyPhotoFileReady(@NotNull final File photoFile, final long elapsedTime) {
+        void notifyPhotoFileReady(@NotNull final File photoFile, @Nullable final Bitmap thumbnail, final long captureTime, final long persistTime) {
             Runnable run = () -> {
                 synchronized (observers) {
                     for (IPhotoReadyListener l : observers) {
-                        l.onPhotoFileReady(photoFile, elapsedTime);
+                        if (l instanceof IExtendedPhotoReadyListener) {
+                            ((IExtendedPhotoReadyListener) l).onPhotoFileReady(photoFile, thumbnail, captureTime, persistTime);
+                        } else {
+                            l.onPhotoFileReady(photoFile, captureTime + persistTime);
+                        }
                     }
                 }
             };
@@ -3773,6 +5064,71 @@ public class CameraController {
             };
             run(run);
         }
+
+        void notifyPhotoFailed(@Nullable final File photoFile, final long elapsedTime) {
+            Runnable run = () -> {
+                synchronized (observers) {
+                    for (IPhotoReadyListener l : observers) {
+                        if (l instanceof IExtendedPhotoReadyListener) {
+                            ((IExtendedPhotoReadyListener) l).onPhotoFailed(photoFile, elapsedTime);
+                        }
+                    }
+                }
+            };
+            run(run);
+        }
+
+        void notifyPhotoLocationFailed(@NotNull final File photoFile) {
+            Runnable run = () -> {
+                synchronized (observers) {
+                    for (IPhotoReadyListener l : observers) {
+                        if (l instanceof IExtendedPhotoReadyListener) {
+                            ((IExtendedPhotoReadyListener) l).onPhotoLocationFailed(photoFile);
+                        }
+                    }
+                }
+            };
+            run(run);
+        }
+    }
+
+    protected class PhotoBurstObservable extends Observable<IPhotoBurstListener> {
+
+        void notifyBurstShotTaken(@NotNull final PhotoBurst burst, final int index) {
+            Runnable run = () -> {
+                synchronized (observers) {
+                    for (IPhotoBurstListener l : observers) {
+                        l.onBurstShotTaken(burst, index);
+                    }
+                }
+            };
+            run(run);
+        }
+
+        void notifyBurstFinished(@NotNull final PhotoBurst burst) {
+            Runnable run = () -> {
+                synchronized (observers) {
+                    for (IPhotoBurstListener l : observers) {
+                        l.onBurstFinished(burst);
+                    }
+                }
+            };
+            run(run);
+        }
+    }
+
+    protected class PhotoTimelineObservable extends Observable<IPhotoTimelineListener> {
+
+        void notifyPhotoTimeline(@NotNull final PhotoTimeline timeline) {
+            Runnable run = () -> {
+                synchronized (observers) {
+                    for (IPhotoTimelineListener l : observers) {
+                        l.onPhotoTimeline(timeline);
+                    }
+                }
+            };
+            run(run);
+        }
     }
 
     protected class RecordLimitReachedObservable extends Observable<IRecordLimitReachedListener> {
@@ -3803,11 +5159,21 @@ public class CameraController {
             run(run);
         }
 
-        void notifyPreviewReady(@NotNull final File previewFile, @Nullable final Bitmap firstFrame, @Nullable final Bitmap lastFrame, @NotNull final File videoFile) {
+        /**
+         * @param recycleFrames frames are recycled after all listeners were notified
+         */
+        void notifyPreviewReady(@NotNull final File previewFile, @Nullable final Bitmap firstFrame, @Nullable final Bitmap lastFrame, @NotNull final File videoFile,
+                                final boolean recycleFrames) {
             Runnable run = () -> {
-                synchronized (observers) {
-                    for (IVideoPreviewListener l : observers) {
-                        l.onVideoPreviewReady(previewFile, firstFrame, lastFrame, videoFile);
+                try {
+                    synchronized (observers) {
+                        for (IVideoPreviewListener l : observers) {
+                            l.onVideoPreviewReady(previewFile, firstFrame, lastFrame, videoFile);
+                        }
+                    }
+                } finally {
+                    if (recycleFrames) {
+                        recycleVideoPreviewFrames(firstFrame, lastFrame);
                     }
                 }
             };
@@ -3817,7 +5183,65 @@ public class CameraController {
 
     protected class PreviewFrameObservable extends Observable<IPreviewFrameListener> {
 
+        private final Map<IPreviewFrameListener, FrameDispatchLane> lanesMap = new ConcurrentHashMap<>();
+
+        /**
+         * separate list to iterate on each frame without locking
+         */
+        private final List<FrameDispatchLane> lanes = new CopyOnWriteArrayList<>();
+
+        @NotNull
+        FrameDispatchLane registerLane(@NotNull final IPreviewFrameListener listener, @NotNull DeliveryPolicy policy, int capacity) {
+            unregisterLane(listener);
+            final FrameDispatchLane lane = new FrameDispatchLane("PreviewFrameLane-" + listener.getClass().getSimpleName(), policy, capacity,
+                    new FrameDispatchLane.IFrameConsumer() {
+                        @Override
+                        public void onStarted() {
+                            listener.onPreviewStarted();
+                        }
+
+                        @Override
+                        public void onFinished() {
+                            listener.onPreviewFinished();
+                        }
+
+                        @Override
+                        public void onFrame(@NotNull FrameLease lease) {
+                            if (listener instanceof IPreviewFrameLeaseListener) {
+                                ((IPreviewFrameLeaseListener) listener).onPreviewFrame(lease);
+                            } else {
+                                listener.onPreviewFrame(lease.getData(), lease.getTime());
+                            }
+                        }
+                    });
+            lanesMap.put(listener, lane);
+            lanes.add(lane);
+            return lane;
+        }
+
+        void unregisterLane(@NotNull IPreviewFrameListener listener) {
+            final FrameDispatchLane lane = lanesMap.remove(listener);
+            if (lane != null) {
+                lanes.remove(lane);
+                lane.shutdown();
+            }
+        }
+
+        void unregisterAllLanes() {
+            for (IPreviewFrameListener listener : new ArrayList<>(lanesMap.keySet())) {
+                unregisterLane(listener);
+            }
+        }
+
+        @Nullable
+        FrameDispatchLane getLane(@NotNull IPreviewFrameListener listener) {
+            return lanesMap.get(listener);
+        }
+
         void notifyPreviewStarted() {
+            for (FrameDispatchLane lane : lanes) {
+                lane.notifyStarted();
+            }
             Runnable run = () -> {
                 synchronized (observers) {
                     for (IPreviewFrameListener l : observers) {
@@ -3829,6 +5253,9 @@ public class CameraController {
         }
 
         void notifyPreviewFinished() {
+            for (FrameDispatchLane lane : lanes) {
+                lane.notifyFinished();
+            }
             Runnable run = () -> {
                 synchronized (observers) {
                     for (IPreviewFrameListener l : observers) {
@@ -3839,14 +5266,34 @@ public class CameraController {
             run(run);
         }
 
-        void notifyPreviewFrame(@Nullable final byte[] data, final long time) {
+        /**
+         * @param lease will be retained until all listeners have been notified
+         */
+        void notifyPreviewFrame(@NotNull final FrameLease lease) {
+            final byte[] data = lease.getData();
+            if (data.length == 0) {
+                return;
+            }
+            for (FrameDispatchLane lane : lanes) {
+                lane.offer(lease);
+            }
+            if (observers.isEmpty()) {
+                return;
+            }
+            lease.retain();
             Runnable run = () -> {
-                if (data != null && data.length > 0) {
+                try {
                     synchronized (observers) {
                         for (IPreviewFrameListener l : observers) {
-                            l.onPreviewFrame(data, time);
+                            if (l instanceof IPreviewFrameLeaseListener) {
+                                ((IPreviewFrameLeaseListener) l).onPreviewFrame(lease);
+                            } else {
+                                l.onPreviewFrame(data, lease.getTime());
+                            }
                         }
                     }
+                } finally {
+                    lease.release();
                 }
             };
             run(run);
@@ -3872,11 +5319,106 @@ public class CameraController {
 
         void onRawDataReady(@NotNull byte[] rawData);
 
+        /**
+         * photo file has been written and synced to disk;
+         * not called for {@link IExtendedPhotoReadyListener}, which receives detailed callback instead
+         *
+         * @param time time from take photo request to written file, in ms
+         */
         void onPhotoFileReady(@NotNull File photoFile, long time);
 
+        /**
+         * photo was not requested to be written or write has failed
+         *
+         * @param time time from take photo request to picture data, in ms
+         */
         void onPhotoDataReady(@NotNull byte[] photoData, long time);
     }
 
+    /**
+     * {@link IPhotoReadyListener} with write details and failures;
+     * extend {@link PhotoReadyListenerAdapter} to override only needed callbacks
+     */
+    public interface IExtendedPhotoReadyListener extends IPhotoReadyListener {
+
+        /**
+         * photo file has been written and synced to disk
+         *
+         * @param thumbnail   embedded exif thumbnail or sampled down photo, shared with cache and must not be recycled;
+         *                    null if disabled or failed
+         * @param captureTime time from take photo request to picture data, in ms
+         * @param persistTime time spent to write the file, in ms
+         */
+        void onPhotoFileReady(@NotNull File photoFile, @Nullable Bitmap thumbnail, long captureTime, long persistTime);
+
+        /**
+         * photo was accepted but its data can't be produced
+         * (e.g. zero shutter lag frame has been dropped or failed to encode)
+         *
+         * @param photoFile requested target file, null if photo was not requested to be written
+         * @param time      time from take photo request to failure, in ms
+         */
+        void onPhotoFailed(@Nullable File photoFile, long time);
+
+        /**
+         * location was requested but can't be written to exif (e.g. exif segment would exceed 64 KB),
+         * photo file is written without it and {@link #onPhotoFileReady(File, Bitmap, long, long)} follows
+         */
+        void onPhotoLocationFailed(@NotNull File photoFile);
+    }
+
+    public static class PhotoReadyListenerAdapter implements IExtendedPhotoReadyListener {
+
+        @Override
+        public void onRawDataReady(@NotNull byte[] rawData) {
+        }
+
+        @Override
+        public void onPhotoFileReady(@NotNull File photoFile, long time) {
+        }
+
+        /**
+         * delegates to {@link #onPhotoFileReady(File, long)} by default
+         */
+        @Override
+        public void onPhotoFileReady(@NotNull File photoFile, @Nullable Bitmap thumbnail, long captureTime, long persistTime) {
+            onPhotoFileReady(photoFile, captureTime + persistTime);
+        }
+
+        @Override
+        public void onPhotoDataReady(@NotNull byte[] photoData, long time) {
+        }
+
+        @Override
+        public void onPhotoFailed(@Nullable File photoFile, long time) {
+        }
+
+        @Override
+        public void onPhotoLocationFailed(@NotNull File photoFile) {
+        }
+    }
+
+    public interface IPhotoBurstListener {
+
+        /**
+         * picture data of shot with given index has been received, its file may be not written yet
+         */
+        void onBurstShotTaken(@NotNull PhotoBurst burst, int index);
+
+        /**
+         * all shots are taken or burst was cancelled; see {@link PhotoBurst#getShotsPerSecond()}
+         */
+        void onBurstFinished(@NotNull PhotoBurst burst);
+    }
+
+    public interface IPhotoTimelineListener {
+
+        /**
+         * photo has passed all phases (file is written if it was requested)
+         */
+        void onPhotoTimeline(@NotNull PhotoTimeline timeline);
+    }
+
     public interface IRecordLimitReachedListener {
 
         void onRecordLimitReached(@NotNull File videoFile);
@@ -3891,7 +5433,9 @@ public class CameraController {
         void onVideoPreviewFailed(@NotNull File videoFile);
 
         /**
-         * preview for its video file is ready; invokes from the other thread
+         * preview for its video file is ready; invokes from the other thread;
+         * if {@link CameraController#isVideoPreviewFramesRecycled()}, frames are valid only during this call
+         * and must be copied to be kept
          */
         void onVideoPreviewReady(@NotNull File previewFile, @Nullable Bitmap firstFrame, @Nullable Bitmap lastFrame, @NotNull File videoFile);
     }
@@ -3903,8 +5447,21 @@ public class CameraController {
         void onPreviewFinished();
 
         /**
+         * @param data valid only during this call: buffer returns to camera after all listeners were notified
          * @param time frame time in ns
          */
         void onPreviewFrame(@NotNull byte[] data, long time);
     }
+
+    /**
+     * listener which may hold frame buffer after callback returns
+     */
+    public interface IPreviewFrameLeaseListener extends IPreviewFrameListener {
+
+        /**
+         * invoked instead of {@link #onPreviewFrame(byte[], long)};
+         * call {@link FrameLease#retain()} to keep the buffer and {@link FrameLease#release()} when done
+         */
+        void onPreviewFrame(@NotNull FrameLease lease);
+    }
 }
\ No newline at end of file
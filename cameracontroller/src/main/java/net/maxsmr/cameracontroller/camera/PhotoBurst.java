@@ -0,0 +1,150 @@
+package net.maxsmr.cameracontroller.camera;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+
+/**
+ * State and results of one burst capture started by {@link CameraController#takePhotoBurst(String, String, int, long, boolean)}
+ */
+public final class PhotoBurst {
+
+    /**
+     * requested shots count
+     */
+    public final int count;
+
+    /**
+     * target interval between shots, in ms
+     */
+    public final long interval;
+
+    /**
+     * file name without extension for shots, null if photos are not written
+     */
+    @Nullable
+    private final File baseFile;
+
+    private int startedCount;
+
+    private int takenCount;
+
+    private long startTime;
+
+    private long finishTime;
+
+    private long lastShotStartTime;
+
+    private boolean isCancelled;
+
+    private boolean isFinished;
+
+    PhotoBurst(int count, long interval, @Nullable File baseFile) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("incorrect burst count: " + count);
+        }
+        if (interval < 0) {
+            throw new IllegalArgumentException("incorrect burst interval: " + interval);
+        }
+        this.count = count;
+        this.interval = interval;
+        this.baseFile = baseFile;
+    }
+
+    public synchronized int getTakenCount() {
+        return takenCount;
+    }
+
+    public synchronized boolean isCancelled() {
+        return isCancelled;
+    }
+
+    public synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * @return time of first shot start, in ms
+     */
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return duration from first shot start till last picture data (or till now if not finished), in ms
+     */
+    public synchronized long getDuration() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (isFinished ? finishTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return achieved shots per second
+     */
+    public synchronized double getShotsPerSecond() {
+        final long duration = getDuration();
+        return duration > 0 ? takenCount * 1000d / duration : 0;
+    }
+
+    synchronized boolean hasNextShot() {
+        return !isCancelled && !isFinished && startedCount < count;
+    }
+
+    /**
+     * @return delay before next shot to keep target interval, in ms
+     */
+    synchronized long getNextShotDelay() {
+        if (lastShotStartTime == 0) {
+            return 0;
+        }
+        return Math.max(0, interval - (System.currentTimeMillis() - lastShotStartTime));
+    }
+
+    /**
+     * @return file for the shot being started, null if photos are not written
+     */
+    @Nullable
+    synchronized File onShotStarted(long time) {
+        if (startTime == 0) {
+            startTime = time;
+        }
+        lastShotStartTime = time;
+        final int index = startedCount++;
+        if (baseFile == null) {
+            return null;
+        }
+        return new File(baseFile.getParentFile(), baseFile.getName() + "_" + index + ".jpg");
+    }
+
+    synchronized void onShotTaken() {
+        takenCount++;
+    }
+
+    synchronized void cancel() {
+        isCancelled = true;
+    }
+
+    synchronized void finish(long time) {
+        if (!isFinished) {
+            isFinished = true;
+            finishTime = time;
+        }
+    }
+
+    @NotNull
+    @Override
+    public synchronized String toString() {
+        return "PhotoBurst{" +
+                "count=" + count +
+                ", interval=" + interval +
+                ", takenCount=" + takenCount +
+                ", duration=" + getDuration() +
+                ", shotsPerSecond=" + getShotsPerSecond() +
+                ", isCancelled=" + isCancelled +
+                ", isFinished=" + isFinished +
+                '}';
+    }
+}
@@ -0,0 +1,23 @@
+package net.maxsmr.cameracontroller.camera.focus;
+
+/**
+ * When auto focus should be performed before taking photo
+ */
+public enum FocusPolicy {
+
+    /**
+     * focus before each photo
+     */
+    ALWAYS,
+
+    /**
+     * skip focus if last successful one is not older than {@link FocusTracker#getMaxFocusAge()}
+     */
+    REUSE_RECENT,
+
+    /**
+     * skip focus until preview scene has changed since last successful one
+     * (see {@link FocusTracker#getSceneChangeThreshold()})
+     */
+    ON_SCENE_CHANGE
+}
@@ -0,0 +1,230 @@
+package net.maxsmr.cameracontroller.camera.focus;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks result of last auto focus and how much preview scene has changed since then;
+ * scene is described by average luma of GRID_SIZE x GRID_SIZE blocks of Y plane (NV21, YV12)
+ */
+public class FocusTracker {
+
+    public static final long DEFAULT_MAX_FOCUS_AGE = TimeUnit.SECONDS.toMillis(5);
+
+    public static final double DEFAULT_SCENE_CHANGE_THRESHOLD = 0.08;
+
+    /**
+     * min interval between scene signature updates, in ns
+     */
+    public static final long SIGNATURE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int GRID_SIZE = 8;
+
+    /**
+     * sampled pixels per block side
+     */
+    private static final int BLOCK_SAMPLES = 8;
+
+    private final Object lock = new Object();
+
+    private final double[] currentSignature = new double[GRID_SIZE * GRID_SIZE];
+
+    private final double[] focusSignature = new double[GRID_SIZE * GRID_SIZE];
+
+    private boolean hasCurrentSignature = false;
+
+    private boolean hasFocusSignature = false;
+
+    private long maxFocusAge = DEFAULT_MAX_FOCUS_AGE;
+
+    private double sceneChangeThreshold = DEFAULT_SCENE_CHANGE_THRESHOLD;
+
+    /**
+     * in ms, 0 if there was no successful focus
+     */
+    private long lastFocusSuccessTime = 0;
+
+    /**
+     * in ns
+     */
+    private volatile long lastSignatureTime = 0;
+
+    private long focusCount;
+
+    private long skippedFocusCount;
+
+    public long getMaxFocusAge() {
+        synchronized (lock) {
+            return maxFocusAge;
+        }
+    }
+
+    /**
+     * @param maxFocusAge in ms
+     */
+    public void setMaxFocusAge(long maxFocusAge) {
+        if (maxFocusAge < 0) {
+            throw new IllegalArgumentException("incorrect max focus age: " + maxFocusAge);
+        }
+        synchronized (lock) {
+            this.maxFocusAge = maxFocusAge;
+        }
+    }
+
+    public double getSceneChangeThreshold() {
+        synchronized (lock) {
+            return sceneChangeThreshold;
+        }
+    }
+
+    /**
+     * @param sceneChangeThreshold mean relative luma difference in range 0..1
+     */
+    public void setSceneChangeThreshold(double sceneChangeThreshold) {
+        if (sceneChangeThreshold < 0 || sceneChangeThreshold > 1) {
+            throw new IllegalArgumentException("incorrect scene change threshold: " + sceneChangeThreshold);
+        }
+        synchronized (lock) {
+            this.sceneChangeThreshold = sceneChangeThreshold;
+        }
+    }
+
+    /**
+     * @return time of last successful focus in ms, 0 if none
+     */
+    public long getLastFocusSuccessTime() {
+        synchronized (lock) {
+            return lastFocusSuccessTime;
+        }
+    }
+
+    public long getFocusCount() {
+        synchronized (lock) {
+            return focusCount;
+        }
+    }
+
+    public long getSkippedFocusCount() {
+        synchronized (lock) {
+            return skippedFocusCount;
+        }
+    }
+
+    /**
+     * @return mean relative luma difference between current scene and scene at last successful focus,
+     * 1 if any of them is unknown
+     */
+    public double getSceneChangeScore() {
+        synchronized (lock) {
+            return getSceneChangeScoreLocked();
+        }
+    }
+
+    /**
+     * Updates scene signature, throttled by {@link #SIGNATURE_INTERVAL}
+     *
+     * @param data frame with full-resolution Y plane first
+     * @param time frame time in ns
+     */
+    public void onPreviewFrame(@NotNull byte[] data, int width, int height, long time) {
+        if (width <= 0 || height <= 0 || data.length < width * height || time - lastSignatureTime < SIGNATURE_INTERVAL) {
+            return;
+        }
+        lastSignatureTime = time;
+        final int blockWidth = width / GRID_SIZE;
+        final int blockHeight = height / GRID_SIZE;
+        if (blockWidth == 0 || blockHeight == 0) {
+            return;
+        }
+        final int stepX = Math.max(1, blockWidth / BLOCK_SAMPLES);
+        final int stepY = Math.max(1, blockHeight / BLOCK_SAMPLES);
+        synchronized (lock) {
+            for (int by = 0; by < GRID_SIZE; by++) {
+                for (int bx = 0; bx < GRID_SIZE; bx++) {
+                    long sum = 0;
+                    int count = 0;
+                    for (int y = by * blockHeight; y < (by + 1) * blockHeight; y += stepY) {
+                        final int row = y * width;
+                        for (int x = bx * blockWidth; x < (bx + 1) * blockWidth; x += stepX) {
+                            sum += data[row + x] & 0xFF;
+                            count++;
+                        }
+                    }
+                    currentSignature[by * GRID_SIZE + bx] = (double) sum / count;
+                }
+            }
+            hasCurrentSignature = true;
+        }
+    }
+
+    public void onFocusStarted() {
+        synchronized (lock) {
+            focusCount++;
+        }
+    }
+
+    /**
+     * Remembers current scene as focused one if success
+     */
+    public void onFocusResult(boolean success) {
+        synchronized (lock) {
+            if (success) {
+                lastFocusSuccessTime = System.currentTimeMillis();
+                hasFocusSignature = hasCurrentSignature;
+                if (hasCurrentSignature) {
+                    System.arraycopy(currentSignature, 0, focusSignature, 0, currentSignature.length);
+                }
+            } else {
+                invalidateLocked();
+            }
+        }
+    }
+
+    /**
+     * Forgets last focus, e.g. when camera, zoom or focus mode has changed
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            invalidateLocked();
+            hasCurrentSignature = false;
+        }
+    }
+
+    /**
+     * @return true if focus should be performed according to given policy; counts skipped focuses otherwise
+     */
+    public boolean shouldRefocus(@NotNull FocusPolicy policy) {
+        synchronized (lock) {
+            final boolean refocus;
+            if (policy == FocusPolicy.ALWAYS || lastFocusSuccessTime == 0) {
+                refocus = true;
+            } else if (policy == FocusPolicy.ON_SCENE_CHANGE && hasFocusSignature && hasCurrentSignature) {
+                refocus = getSceneChangeScoreLocked() > sceneChangeThreshold;
+            } else {
+                // REUSE_RECENT or no scene information
+                refocus = System.currentTimeMillis() - lastFocusSuccessTime > maxFocusAge;
+            }
+            if (!refocus) {
+                skippedFocusCount++;
+            }
+            return refocus;
+        }
+    }
+
+    private double getSceneChangeScoreLocked() {
+        if (!hasFocusSignature || !hasCurrentSignature) {
+            return 1;
+        }
+        double diff = 0;
+        for (int i = 0; i < currentSignature.length; i++) {
+            diff += Math.abs(currentSignature[i] - focusSignature[i]);
+        }
+        return diff / currentSignature.length / 255;
+    }
+
+    private void invalidateLocked() {
+        lastFocusSuccessTime = 0;
+        hasFocusSignature = false;
+    }
+}
@@ -0,0 +1,648 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Inserts or replaces GPS block of APP1/EXIF segment in JPEG data without touching image data:
+ * original TIFF block is kept as is, copy of IFD0 pointing to new GPS IFD is appended to it
+ * (or replaces the copy appended by previous edit), so existing offsets stay valid; result is streamed as slices of source array plus new segment.
+ * Also locates embedded thumbnail (IFD1) without decoding anything.
+ * Plain java, no android dependencies
+ */
+public final class JpegExifEditor {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+
+    private static final int TAG_GPS_IFD_POINTER = 0x8825;
+
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private static final int TAG_GPS_VERSION_ID = 0x0000;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+    private static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+    private static final int TAG_GPS_ALTITUDE = 0x0006;
+    private static final int TAG_GPS_TIMESTAMP = 0x0007;
+    private static final int TAG_GPS_DATESTAMP = 0x001D;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private static final int TIFF_HEADER_SIZE = 8;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private JpegExifEditor() {
+        throw new AssertionError("no instances.");
+    }
+
+    /**
+     * Parses jpeg and builds new APP1 segment; nothing is written yet
+     *
+     * @throws IOException if data is not jpeg or its exif is malformed or too large
+     */
+    @NotNull
+    public static Edit prepareGpsEdit(@NotNull byte[] jpeg, @NotNull GpsInfo gps) throws IOException {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != MARKER_PREFIX || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            throw new IOException("not a jpeg data");
+        }
+        int insertOffset = 2;
+        int offset = 2;
+        boolean first = true;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xFF) != MARKER_PREFIX) {
+                throw new IOException("invalid marker at " + offset);
+            }
+            final int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == MARKER_PREFIX) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            final int length = readUnsignedShort(jpeg, offset + 2, ByteOrder.BIG_ENDIAN);
+            final int end = offset + 2 + length;
+            if (length < 2 || end > jpeg.length) {
+                throw new IOException("invalid segment length " + length + " at " + offset);
+            }
+            if (marker == MARKER_APP1 && isExifSegment(jpeg, offset + 4, end)) {
+                final byte[] segment = rebuildExifSegment(jpeg, offset + 4 + EXIF_HEADER.length, end, gps);
+                return new Edit(jpeg, offset, end, segment);
+            }
+            if (first && marker == MARKER_APP0) {
+                // keep JFIF header first
+                insertOffset = end;
+            }
+            first = false;
+            offset = end;
+        }
+        return new Edit(jpeg, insertOffset, insertOffset, createExifSegment(gps));
+    }
+
+    /**
+     * @return new jpeg data, allocates full-size copy; prefer {@link Edit#writeTo(OutputStream)}
+     */
+    @NotNull
+    public static byte[] setGps(@NotNull byte[] jpeg, @NotNull GpsInfo gps) throws IOException {
+        final Edit edit = prepareGpsEdit(jpeg, gps);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) edit.getLength());
+        edit.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param length count of valid bytes in jpeg, may be less than array length (e.g. only file header was read)
+     * @return {offset, length} of embedded jpeg thumbnail inside given array or null if there is no one
+     * or exif is malformed
+     */
+    @Nullable
+    public static int[] findThumbnail(@NotNull byte[] jpeg, int length) {
+        length = Math.min(length, jpeg.length);
+        if (length < 4 || (jpeg[0] & 0xFF) != MARKER_PREFIX || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            return null;
+        }
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if ((jpeg[offset] & 0xFF) != MARKER_PREFIX) {
+                return null;
+            }
+            final int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == MARKER_PREFIX) {
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return null;
+            }
+            final int segmentLength = readUnsignedShort(jpeg, offset + 2, ByteOrder.BIG_ENDIAN);
+            final int end = offset + 2 + segmentLength;
+            if (segmentLength < 2 || end > length) {
+                return null;
+            }
+            if (marker == MARKER_APP1 && isExifSegment(jpeg, offset + 4, end)) {
+                return findThumbnailInTiff(jpeg, offset + 4 + EXIF_HEADER.length, end);
+            }
+            offset = end;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static int[] findThumbnailInTiff(@NotNull byte[] jpeg, int tiffStart, int tiffEnd) {
+        final int tiffLength = tiffEnd - tiffStart;
+        if (tiffLength < TIFF_HEADER_SIZE) {
+            return null;
+        }
+        final ByteOrder order;
+        if (jpeg[tiffStart] == 'I' && jpeg[tiffStart + 1] == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (jpeg[tiffStart] == 'M' && jpeg[tiffStart + 1] == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        final long ifd0Offset = readUnsignedInt(jpeg, tiffStart + 4, order);
+        if (ifd0Offset < TIFF_HEADER_SIZE || ifd0Offset + 2 > tiffLength) {
+            return null;
+        }
+        final int ifd0Count = readUnsignedShort(jpeg, tiffStart + (int) ifd0Offset, order);
+        final long linkOffset = ifd0Offset + 2 + (long) ifd0Count * IFD_ENTRY_SIZE;
+        if (linkOffset + 4 > tiffLength) {
+            return null;
+        }
+        final long ifd1Offset = readUnsignedInt(jpeg, tiffStart + (int) linkOffset, order);
+        if (ifd1Offset < TIFF_HEADER_SIZE || ifd1Offset + 2 > tiffLength) {
+            return null;
+        }
+        final int entriesStart = tiffStart + (int) ifd1Offset + 2;
+        final int entriesCount = readUnsignedShort(jpeg, tiffStart + (int) ifd1Offset, order);
+        if (entriesStart + entriesCount * IFD_ENTRY_SIZE > tiffEnd) {
+            return null;
+        }
+        long thumbnailOffset = -1;
+        long thumbnailLength = -1;
+        for (int i = 0; i < entriesCount; i++) {
+            final int entry = entriesStart + i * IFD_ENTRY_SIZE;
+            final int tag = readUnsignedShort(jpeg, entry, order);
+            if (tag == TAG_JPEG_INTERCHANGE_FORMAT) {
+                thumbnailOffset = readUnsignedInt(jpeg, entry + 8, order);
+            } else if (tag == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                thumbnailLength = readUnsignedInt(jpeg, entry + 8, order);
+            }
+        }
+        if (thumbnailOffset <= 0 || thumbnailLength <= 0 || thumbnailOffset + thumbnailLength > tiffLength) {
+            return null;
+        }
+        return new int[]{tiffStart + (int) thumbnailOffset, (int) thumbnailLength};
+    }
+
+    private static boolean isExifSegment(@NotNull byte[] jpeg, int from, int end) {
+        if (end - from < EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (jpeg[from + i] != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NotNull
+    private static byte[] createExifSegment(@NotNull GpsInfo gps) throws IOException {
+        final ByteOrder order = ByteOrder.BIG_ENDIAN;
+        final IfdWriter ifd0 = new IfdWriter(order);
+        ifd0.addLong(TAG_GPS_IFD_POINTER, 0);
+        final int ifd0Offset = TIFF_HEADER_SIZE;
+        final int gpsOffset = ifd0Offset + ifd0.getSize(ifd0Offset);
+        ifd0.setLong(TAG_GPS_IFD_POINTER, gpsOffset);
+        final IfdWriter gpsIfd = createGpsIfd(gps, order);
+
+        final ByteBuffer tiff = ByteBuffer.allocate(gpsOffset + gpsIfd.getSize(gpsOffset)).order(order);
+        writeTiffHeader(tiff, ifd0Offset);
+        ifd0.write(tiff, ifd0Offset, 0);
+        gpsIfd.write(tiff, gpsOffset, 0);
+        return wrapSegment(tiff.array());
+    }
+
+    /**
+     * @param tiffStart start of TIFF header inside jpeg
+     * @param tiffEnd   end of APP1 segment
+     */
+    @NotNull
+    private static byte[] rebuildExifSegment(@NotNull byte[] jpeg, int tiffStart, int tiffEnd, @NotNull GpsInfo gps) throws IOException {
+        final int tiffLength = tiffEnd - tiffStart;
+        if (tiffLength < TIFF_HEADER_SIZE) {
+            throw new IOException("exif is too short");
+        }
+        final ByteOrder order;
+        if (jpeg[tiffStart] == 'I' && jpeg[tiffStart + 1] == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (jpeg[tiffStart] == 'M' && jpeg[tiffStart + 1] == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("invalid tiff byte order");
+        }
+        if (readUnsignedShort(jpeg, tiffStart + 2, order) != 42) {
+            throw new IOException("invalid tiff header");
+        }
+        final long oldIfd0Offset = readUnsignedInt(jpeg, tiffStart + 4, order);
+        if (oldIfd0Offset < TIFF_HEADER_SIZE || oldIfd0Offset + 2 > tiffLength) {
+            throw new IOException("invalid ifd0 offset " + oldIfd0Offset);
+        }
+        final int entriesStart = tiffStart + (int) oldIfd0Offset + 2;
+        final int entriesCount = readUnsignedShort(jpeg, tiffStart + (int) oldIfd0Offset, order);
+        if (entriesStart + entriesCount * IFD_ENTRY_SIZE + 4 > tiffEnd) {
+            throw new IOException("ifd0 is out of exif bounds");
+        }
+
+        // copy of IFD0: entries with values <= 4 bytes are inline, others point to unchanged old data
+        final IfdWriter ifd0 = new IfdWriter(order);
+        long oldGpsOffset = -1;
+        // other data referenced from IFD0 ends before it: true for IFD0 appended by previous edit
+        boolean referencesBeforeIfd0 = true;
+        for (int i = 0; i < entriesCount; i++) {
+            final int entry = entriesStart + i * IFD_ENTRY_SIZE;
+            final int tag = readUnsignedShort(jpeg, entry, order);
+            if (tag != TAG_GPS_IFD_POINTER) {
+                final byte[] raw = new byte[IFD_ENTRY_SIZE];
+                System.arraycopy(jpeg, entry, raw, 0, IFD_ENTRY_SIZE);
+                ifd0.addRaw(tag, raw);
+                final long valueEnd = getReferencedDataEnd(jpeg, entry, order);
+                if (valueEnd < 0 || valueEnd > oldIfd0Offset) {
+                    referencesBeforeIfd0 = false;
+                }
+            } else {
+                oldGpsOffset = readUnsignedInt(jpeg, entry + 8, order);
+            }
+        }
+        ifd0.addLong(TAG_GPS_IFD_POINTER, 0);
+        final long nextIfdOffset = readUnsignedInt(jpeg, entriesStart + entriesCount * IFD_ENTRY_SIZE, order);
+        if (nextIfdOffset > oldIfd0Offset) {
+            referencesBeforeIfd0 = false;
+        }
+
+        // IFD0 and GPS IFD appended by previous edit are replaced instead of appending one more copy,
+        // so that repeated edits don't grow the segment
+        final boolean replacePrevious = referencesBeforeIfd0 && oldIfd0Offset > TIFF_HEADER_SIZE
+                && oldGpsOffset == oldIfd0Offset + align(2 + entriesCount * IFD_ENTRY_SIZE + 4);
+        final int keptLength = replacePrevious ? (int) oldIfd0Offset : tiffLength;
+
+        // appended after old TIFF data, word aligned
+        final int ifd0Offset = align(keptLength);
+        final int gpsOffset = ifd0Offset + ifd0.getSize(ifd0Offset);
+        ifd0.setLong(TAG_GPS_IFD_POINTER, gpsOffset);
+        final IfdWriter gpsIfd = createGpsIfd(gps, order);
+
+        final ByteBuffer tail = ByteBuffer.allocate(gpsOffset + gpsIfd.getSize(gpsOffset) - keptLength).order(order);
+        ifd0.write(tail, ifd0Offset, keptLength);
+        gpsIfd.write(tail, gpsOffset, keptLength);
+
+        final byte[] header = new byte[TIFF_HEADER_SIZE];
+        System.arraycopy(jpeg, tiffStart, header, 0, 4);
+        ByteBuffer.wrap(header).order(order).putInt(4, ifd0Offset);
+        // keep link to IFD1 (thumbnail)
+        ByteBuffer.wrap(tail.array()).order(order).putInt(ifd0Offset - keptLength + ifd0.getEntriesSize(), (int) nextIfdOffset);
+
+        final byte[] tiff = new byte[keptLength + tail.capacity()];
+        System.arraycopy(header, 0, tiff, 0, TIFF_HEADER_SIZE);
+        System.arraycopy(jpeg, tiffStart + TIFF_HEADER_SIZE, tiff, TIFF_HEADER_SIZE, keptLength - TIFF_HEADER_SIZE);
+        System.arraycopy(tail.array(), 0, tiff, keptLength, tail.capacity());
+        return wrapSegment(tiff);
+    }
+
+    /**
+     * @param entry start of IFD entry
+     * @return TIFF offset where data referenced by entry ends (value or sub IFD start),
+     * 0 if value is inline, -1 if type is unknown
+     */
+    private static long getReferencedDataEnd(@NotNull byte[] jpeg, int entry, @NotNull ByteOrder order) {
+        final int tag = readUnsignedShort(jpeg, entry, order);
+        final int type = readUnsignedShort(jpeg, entry + 2, order);
+        if (type <= 0 || type >= TYPE_SIZES.length) {
+            return -1;
+        }
+        final long size = TYPE_SIZES[type] * readUnsignedInt(jpeg, entry + 4, order);
+        if (tag == TAG_EXIF_IFD_POINTER) {
+            // sub IFD itself must be before
+            return readUnsignedInt(jpeg, entry + 8, order) + 1;
+        }
+        return size <= 4 ? 0 : readUnsignedInt(jpeg, entry + 8, order) + size;
+    }
+
+    @NotNull
+    private static IfdWriter createGpsIfd(@NotNull GpsInfo gps, @NotNull ByteOrder order) {
+        final IfdWriter ifd = new IfdWriter(order);
+        ifd.addBytes(TAG_GPS_VERSION_ID, TYPE_BYTE, new byte[]{2, 2, 0, 0});
+        ifd.addAscii(TAG_GPS_LATITUDE_REF, gps.latitude >= 0 ? "N" : "S");
+        ifd.addRationals(TAG_GPS_LATITUDE, toDegreesMinutesSeconds(Math.abs(gps.latitude)));
+        ifd.addAscii(TAG_GPS_LONGITUDE_REF, gps.longitude >= 0 ? "E" : "W");
+        ifd.addRationals(TAG_GPS_LONGITUDE, toDegreesMinutesSeconds(Math.abs(gps.longitude)));
+        if (gps.hasAltitude) {
+            ifd.addBytes(TAG_GPS_ALTITUDE_REF, TYPE_BYTE, new byte[]{(byte) (gps.altitude >= 0 ? 0 : 1)});
+            ifd.addRationals(TAG_GPS_ALTITUDE, new long[]{Math.round(Math.abs(gps.altitude) * 1000), 1000});
+        }
+        if (gps.time > 0) {
+            final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+            calendar.setTimeInMillis(gps.time);
+            ifd.addRationals(TAG_GPS_TIMESTAMP, new long[]{
+                    calendar.get(Calendar.HOUR_OF_DAY), 1,
+                    calendar.get(Calendar.MINUTE), 1,
+                    calendar.get(Calendar.SECOND), 1});
+            ifd.addAscii(TAG_GPS_DATESTAMP, String.format(Locale.US, "%04d:%02d:%02d",
+                    calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH)));
+        }
+        return ifd;
+    }
+
+    /**
+     * @return numerator/denominator pairs
+     */
+    @NotNull
+    private static long[] toDegreesMinutesSeconds(double value) {
+        final long degrees = (long) value;
+        value = (value - degrees) * 60;
+        final long minutes = (long) value;
+        value = (value - minutes) * 60;
+        return new long[]{degrees, 1, minutes, 1, Math.round(value * 10000), 10000};
+    }
+
+    @NotNull
+    private static byte[] wrapSegment(@NotNull byte[] tiff) throws IOException {
+        final int length = 2 + EXIF_HEADER.length + tiff.length;
+        if (length > MAX_SEGMENT_LENGTH) {
+            throw new IOException("exif segment is too large: " + length);
+        }
+        final byte[] segment = new byte[2 + length];
+        segment[0] = (byte) MARKER_PREFIX;
+        segment[1] = (byte) MARKER_APP1;
+        segment[2] = (byte) (length >> 8);
+        segment[3] = (byte) length;
+        System.arraycopy(EXIF_HEADER, 0, segment, 4, EXIF_HEADER.length);
+        System.arraycopy(tiff, 0, segment, 4 + EXIF_HEADER.length, tiff.length);
+        return segment;
+    }
+
+    private static void writeTiffHeader(@NotNull ByteBuffer buffer, int ifd0Offset) {
+        final boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        buffer.put(0, (byte) (littleEndian ? 'I' : 'M'));
+        buffer.put(1, (byte) (littleEndian ? 'I' : 'M'));
+        buffer.putShort(2, (short) 42);
+        buffer.putInt(4, ifd0Offset);
+    }
+
+    private static int align(int offset) {
+        return (offset + 1) & ~1;
+    }
+
+    private static int readUnsignedShort(@NotNull byte[] data, int offset, @NotNull ByteOrder order) {
+        return ByteBuffer.wrap(data, offset, 2).order(order).getShort() & 0xFFFF;
+    }
+
+    private static long readUnsignedInt(@NotNull byte[] data, int offset, @NotNull ByteOrder order) {
+        return ByteBuffer.wrap(data, offset, 4).order(order).getInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Result of {@link #prepareGpsEdit(byte[], GpsInfo)}: source jpeg with range [replaceStart, replaceEnd)
+     * replaced by new segment
+     */
+    public static final class Edit {
+
+        @NotNull
+        private final byte[] source;
+
+        private final int replaceStart;
+
+        private final int replaceEnd;
+
+        @NotNull
+        private final byte[] segment;
+
+        Edit(@NotNull byte[] source, int replaceStart, int replaceEnd, @NotNull byte[] segment) {
+            this.source = source;
+            this.replaceStart = replaceStart;
+            this.replaceEnd = replaceEnd;
+            this.segment = segment;
+        }
+
+        public long getLength() {
+            return (long) source.length - (replaceEnd - replaceStart) + segment.length;
+        }
+
+        public void writeTo(@NotNull OutputStream out) throws IOException {
+            out.write(source, 0, replaceStart);
+            out.write(segment);
+            out.write(source, replaceEnd, source.length - replaceEnd);
+        }
+    }
+
+    public static final class GpsInfo {
+
+        /**
+         * in degrees
+         */
+        public final double latitude;
+
+        /**
+         * in degrees
+         */
+        public final double longitude;
+
+        public final boolean hasAltitude;
+
+        /**
+         * in meters
+         */
+        public final double altitude;
+
+        /**
+         * UTC time in ms, 0 if unknown
+         */
+        public final long time;
+
+        public GpsInfo(double latitude, double longitude, boolean hasAltitude, double altitude, long time) {
+            if (Double.isNaN(latitude) || Math.abs(latitude) > 90) {
+                throw new IllegalArgumentException("incorrect latitude: " + latitude);
+            }
+            if (Double.isNaN(longitude) || Math.abs(longitude) > 180) {
+                throw new IllegalArgumentException("incorrect longitude: " + longitude);
+            }
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.hasAltitude = hasAltitude && !Double.isNaN(altitude);
+            this.altitude = altitude;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            return "GpsInfo{" +
+                    "latitude=" + latitude +
+                    ", longitude=" + longitude +
+                    ", hasAltitude=" + hasAltitude +
+                    ", altitude=" + altitude +
+                    ", time=" + time +
+                    '}';
+        }
+    }
+
+    /**
+     * Collects IFD entries sorted by tag; values longer than 4 bytes go after entries
+     */
+    private static final class IfdWriter {
+
+        @NotNull
+        private final ByteOrder order;
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        IfdWriter(@NotNull ByteOrder order) {
+            this.order = order;
+        }
+
+        void addRaw(int tag, @NotNull byte[] raw) {
+            add(new Entry(tag, raw, null));
+        }
+
+        void addLong(int tag, long value) {
+            final byte[] raw = newEntry(tag, TYPE_LONG, 1);
+            ByteBuffer.wrap(raw).order(order).putInt(8, (int) value);
+            add(new Entry(tag, raw, null));
+        }
+
+        void setLong(int tag, long value) {
+            for (Entry entry : entries) {
+                if (entry.tag == tag) {
+                    ByteBuffer.wrap(entry.raw).order(order).putInt(8, (int) value);
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("no entry with tag " + tag);
+        }
+
+        void addBytes(int tag, int type, @NotNull byte[] value) {
+            addValue(tag, type, value.length / TYPE_SIZES[type], value);
+        }
+
+        void addAscii(int tag, @NotNull String value) {
+            final byte[] chars = value.getBytes(ASCII);
+            final byte[] bytes = new byte[chars.length + 1];
+            System.arraycopy(chars, 0, bytes, 0, chars.length);
+            addValue(tag, TYPE_ASCII, bytes.length, bytes);
+        }
+
+        void addRationals(int tag, @NotNull long[] values) {
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(order);
+            for (long value : values) {
+                buffer.putInt((int) value);
+            }
+            addValue(tag, TYPE_RATIONAL, values.length / 2, buffer.array());
+        }
+
+        private void addValue(int tag, int type, int count, @NotNull byte[] value) {
+            final byte[] raw = newEntry(tag, type, count);
+            if (value.length <= 4) {
+                System.arraycopy(value, 0, raw, 8, value.length);
+                add(new Entry(tag, raw, null));
+            } else {
+                add(new Entry(tag, raw, value));
+            }
+        }
+
+        @NotNull
+        private byte[] newEntry(int tag, int type, int count) {
+            final byte[] raw = new byte[IFD_ENTRY_SIZE];
+            ByteBuffer.wrap(raw).order(order)
+                    .putShort(0, (short) tag)
+                    .putShort(2, (short) type)
+                    .putInt(4, count);
+            return raw;
+        }
+
+        private void add(@NotNull Entry entry) {
+            int index = entries.size();
+            while (index > 0 && entries.get(index - 1).tag > entry.tag) {
+                index--;
+            }
+            entries.add(index, entry);
+        }
+
+        /**
+         * @return size of count, entries and next ifd offset
+         */
+        int getEntriesSize() {
+            return 2 + entries.size() * IFD_ENTRY_SIZE;
+        }
+
+        int getSize(int offset) {
+            int size = getEntriesSize() + 4;
+            for (Entry entry : entries) {
+                if (entry.value != null) {
+                    size = align(offset + size) - offset + entry.value.length;
+                }
+            }
+            return align(offset + size) - offset;
+        }
+
+        /**
+         * @param offset     ifd offset within TIFF
+         * @param baseOffset TIFF offset of buffer start
+         */
+        void write(@NotNull ByteBuffer buffer, int offset, int baseOffset) {
+            final int start = offset - baseOffset;
+            buffer.order(order);
+            buffer.putShort(start, (short) entries.size());
+            int valueOffset = offset + getEntriesSize() + 4;
+            for (int i = 0; i < entries.size(); i++) {
+                final Entry entry = entries.get(i);
+                final int entryStart = start + 2 + i * IFD_ENTRY_SIZE;
+                for (int j = 0; j < IFD_ENTRY_SIZE; j++) {
+                    buffer.put(entryStart + j, entry.raw[j]);
+                }
+                if (entry.value != null) {
+                    valueOffset = align(valueOffset);
+                    buffer.putInt(entryStart + 8, valueOffset);
+                    for (int j = 0; j < entry.value.length; j++) {
+                        buffer.put(valueOffset - baseOffset + j, entry.value[j]);
+                    }
+                    valueOffset += entry.value.length;
+                }
+            }
+            // next ifd offset
+            buffer.putInt(start + getEntriesSize(), 0);
+        }
+
+        private static final class Entry {
+
+            final int tag;
+
+            @NotNull
+            final byte[] raw;
+
+            @Nullable
+            final byte[] value;
+
+            Entry(int tag, @NotNull byte[] raw, @Nullable byte[] value) {
+                this.tag = tag;
+                this.raw = raw;
+                this.value = value;
+            }
+        }
+    }
+}
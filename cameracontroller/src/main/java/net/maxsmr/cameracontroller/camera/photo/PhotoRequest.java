@@ -0,0 +1,109 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Photo capture request to be queued in {@link PhotoRequestQueue}
+ */
+public final class PhotoRequest {
+
+    public static final int PRIORITY_NORMAL = 0;
+
+    @Nullable
+    public final String directoryPath;
+
+    @Nullable
+    public final String fileName;
+
+    public final boolean writeToFile;
+
+    /**
+     * greater is served first
+     */
+    public final int priority;
+
+    /**
+     * requests with same key within coalesce window are merged into one, null - never merged
+     */
+    @Nullable
+    public final String coalesceKey;
+
+    /**
+     * in ms
+     */
+    private volatile long enqueueTime;
+
+    /**
+     * in ms
+     */
+    private volatile long startTime;
+
+    /**
+     * number of requests merged into this one
+     */
+    private volatile int mergedCount;
+
+    public PhotoRequest(@Nullable String directoryPath, @Nullable String fileName, boolean writeToFile) {
+        this(directoryPath, fileName, writeToFile, PRIORITY_NORMAL, null);
+    }
+
+    public PhotoRequest(@Nullable String directoryPath, @Nullable String fileName, boolean writeToFile, int priority, @Nullable String coalesceKey) {
+        this.directoryPath = directoryPath;
+        this.fileName = fileName;
+        this.writeToFile = writeToFile;
+        this.priority = priority;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    /**
+     * @return time when capture was started, 0 if it's still waiting
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return time spent in queue in ms (till now if not started yet)
+     */
+    public long getWaitTime() {
+        if (enqueueTime == 0) {
+            return 0;
+        }
+        return (startTime != 0 ? startTime : System.currentTimeMillis()) - enqueueTime;
+    }
+
+    public int getMergedCount() {
+        return mergedCount;
+    }
+
+    void onEnqueued(long time) {
+        enqueueTime = time;
+    }
+
+    void onStarted(long time) {
+        startTime = time;
+    }
+
+    void onMerged() {
+        mergedCount++;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "PhotoRequest{" +
+                "directoryPath='" + directoryPath + '\'' +
+                ", fileName='" + fileName + '\'' +
+                ", writeToFile=" + writeToFile +
+                ", priority=" + priority +
+                ", coalesceKey='" + coalesceKey + '\'' +
+                ", waitTime=" + getWaitTime() +
+                ", mergedCount=" + mergedCount +
+                '}';
+    }
+}
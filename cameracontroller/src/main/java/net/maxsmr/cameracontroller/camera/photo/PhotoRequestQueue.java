@@ -0,0 +1,235 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded queue of photo requests ordered by priority, then by enqueue time;
+ * duplicate triggers (same coalesce key) within window are merged into the earlier request
+ */
+public class PhotoRequestQueue {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    public static final long DEFAULT_COALESCE_WINDOW = 500;
+
+    public enum OfferResult {
+        QUEUED,
+        /**
+         * merged into pending or recently started request with same key
+         */
+        COALESCED,
+        /**
+         * queue is full with requests of same or higher priority
+         */
+        REJECTED
+    }
+
+    private final Object lock = new Object();
+
+    /**
+     * sorted: higher priority first, FIFO within priority
+     */
+    private final List<PhotoRequest> requests = new ArrayList<>();
+
+    /**
+     * coalesce key -> last accepted request
+     */
+    private final Map<String, PhotoRequest> lastRequests = new HashMap<>();
+
+    private final int capacity;
+
+    /**
+     * in ms
+     */
+    private long coalesceWindow = DEFAULT_COALESCE_WINDOW;
+
+    private long queuedCount;
+
+    private long coalescedCount;
+
+    private long rejectedCount;
+
+    private long evictedCount;
+
+    private long startedCount;
+
+    private long totalWaitTime;
+
+    private long maxWaitTime;
+
+    public PhotoRequestQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PhotoRequestQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getCoalesceWindow() {
+        synchronized (lock) {
+            return coalesceWindow;
+        }
+    }
+
+    /**
+     * @param coalesceWindow in ms, 0 - don't merge
+     */
+    public void setCoalesceWindow(long coalesceWindow) {
+        if (coalesceWindow < 0) {
+            throw new IllegalArgumentException("incorrect coalesce window: " + coalesceWindow);
+        }
+        synchronized (lock) {
+            this.coalesceWindow = coalesceWindow;
+        }
+    }
+
+    @NotNull
+    public OfferResult offer(@NotNull PhotoRequest request) {
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            pruneLastRequestsLocked(now);
+            if (request.coalesceKey != null && coalesceWindow > 0) {
+                final PhotoRequest last = lastRequests.get(request.coalesceKey);
+                if (last != null && now - last.getEnqueueTime() <= coalesceWindow) {
+                    last.onMerged();
+                    coalescedCount++;
+                    return OfferResult.COALESCED;
+                }
+            }
+            if (requests.size() >= capacity) {
+                final PhotoRequest lowest = requests.get(requests.size() - 1);
+                if (lowest.priority >= request.priority) {
+                    rejectedCount++;
+                    return OfferResult.REJECTED;
+                }
+                requests.remove(requests.size() - 1);
+                // later triggers must not be merged into dropped request
+                if (lowest.coalesceKey != null && lastRequests.get(lowest.coalesceKey) == lowest) {
+                    lastRequests.remove(lowest.coalesceKey);
+                }
+                evictedCount++;
+            }
+            request.onEnqueued(now);
+            int index = requests.size();
+            while (index > 0 && requests.get(index - 1).priority < request.priority) {
+                index--;
+            }
+            requests.add(index, request);
+            if (request.coalesceKey != null) {
+                lastRequests.put(request.coalesceKey, request);
+            }
+            queuedCount++;
+            return OfferResult.QUEUED;
+        }
+    }
+
+    /**
+     * Removes requests which can't be merged into anymore, so map doesn't grow with distinct keys
+     */
+    private void pruneLastRequestsLocked(long now) {
+        final Iterator<PhotoRequest> it = lastRequests.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getEnqueueTime() > coalesceWindow) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Takes next request and marks it started
+     */
+    @Nullable
+    public PhotoRequest poll() {
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            if (requests.isEmpty()) {
+                return null;
+            }
+            final PhotoRequest request = requests.remove(0);
+            request.onStarted(now);
+            final long waitTime = request.getWaitTime();
+            startedCount++;
+            totalWaitTime += waitTime;
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+            return request;
+        }
+    }
+
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return requests.isEmpty();
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return requests.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            requests.clear();
+            lastRequests.clear();
+        }
+    }
+
+    public long getQueuedCount() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalescedCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * @return lower priority requests removed in favour of higher priority ones
+     */
+    public long getEvictedCount() {
+        synchronized (lock) {
+            return evictedCount;
+        }
+    }
+
+    /**
+     * @return average time from enqueue to start in ms
+     */
+    public double getAverageWaitTime() {
+        synchronized (lock) {
+            return startedCount > 0 ? (double) totalWaitTime / startedCount : 0;
+        }
+    }
+
+    /**
+     * @return max time from enqueue to start in ms
+     */
+    public long getMaxWaitTime() {
+        synchronized (lock) {
+            return maxWaitTime;
+        }
+    }
+}
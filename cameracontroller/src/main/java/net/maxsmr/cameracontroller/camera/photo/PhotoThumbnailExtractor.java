@@ -0,0 +1,183 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Makes small previews of taken photos without full decode:
+ * embedded exif thumbnail is used if present, otherwise image is decoded with reduced sample size;
+ * results are cached by file
+ */
+public class PhotoThumbnailExtractor {
+
+    public static final int DEFAULT_TARGET_SIZE = 320;
+
+    public static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * APP1 segment can't be larger, so exif thumbnail always fits in this header
+     */
+    private static final int MAX_HEADER_LENGTH = 0x10000 + 0x100;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(PhotoThumbnailExtractor.class);
+
+    private final int targetSize;
+
+    @NotNull
+    private final LruCache<String, Bitmap> cache;
+
+    public PhotoThumbnailExtractor() {
+        this(DEFAULT_TARGET_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param targetSize min size of smaller side for sampled decode, in px
+     * @param cacheSize  max total size of cached bitmaps, in bytes
+     */
+    public PhotoThumbnailExtractor(int targetSize, int cacheSize) {
+        if (targetSize <= 0) {
+            throw new IllegalArgumentException("incorrect target size: " + targetSize);
+        }
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("incorrect cache size: " + cacheSize);
+        }
+        this.targetSize = targetSize;
+        this.cache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * @return cached thumbnail or null
+     */
+    @Nullable
+    public Bitmap getCached(@NotNull File photoFile) {
+        return cache.get(photoFile.getAbsolutePath());
+    }
+
+    /**
+     * @param photoFile file where this data is (or will be) stored, used as cache key; null - don't cache
+     */
+    @Nullable
+    public Bitmap getThumbnail(@NotNull byte[] jpeg, @Nullable File photoFile) {
+        if (photoFile != null) {
+            final Bitmap cached = getCached(photoFile);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Bitmap thumbnail = decodeExifThumbnail(jpeg, jpeg.length);
+        if (thumbnail == null) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight);
+                thumbnail = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+            }
+        }
+        if (thumbnail != null && photoFile != null) {
+            cache.put(photoFile.getAbsolutePath(), thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * reads only file header if exif thumbnail is present
+     */
+    @Nullable
+    public Bitmap getThumbnail(@NotNull File photoFile) {
+        final Bitmap cached = getCached(photoFile);
+        if (cached != null) {
+            return cached;
+        }
+        if (!photoFile.isFile()) {
+            return null;
+        }
+        Bitmap thumbnail = null;
+        try {
+            final byte[] header = new byte[(int) Math.min(MAX_HEADER_LENGTH, photoFile.length())];
+            final int length = readFully(photoFile, header);
+            thumbnail = decodeExifThumbnail(header, length);
+        } catch (IOException e) {
+            logger.e("an IOException occurred during read(): " + e.getMessage(), e);
+        }
+        if (thumbnail == null) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(photoFile.getAbsolutePath(), options);
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight);
+                thumbnail = BitmapFactory.decodeFile(photoFile.getAbsolutePath(), options);
+            }
+        }
+        if (thumbnail != null) {
+            cache.put(photoFile.getAbsolutePath(), thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * should be called when photo file was deleted or overwritten
+     */
+    public void invalidate(@NotNull File photoFile) {
+        cache.remove(photoFile.getAbsolutePath());
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Nullable
+    private static Bitmap decodeExifThumbnail(@NotNull byte[] jpeg, int length) {
+        final int[] range = JpegExifEditor.findThumbnail(jpeg, length);
+        if (range == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(jpeg, range[0], range[1]);
+    }
+
+    /**
+     * @return max power of 2, which keeps smaller side not less than target size
+     */
+    private int calculateSampleSize(int width, int height) {
+        final int minSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (minSide / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int readFully(@NotNull File file, @NotNull byte[] buffer) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            int total = 0;
+            int read;
+            while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+                total += read;
+            }
+            return total;
+        }
+    }
+}
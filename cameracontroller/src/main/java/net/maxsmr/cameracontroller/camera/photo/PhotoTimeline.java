@@ -0,0 +1,128 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic timestamps of one photo passing through capture and persist phases;
+ * phases may be marked from different threads, unreached phases have zero time
+ */
+public final class PhotoTimeline {
+
+    /**
+     * in order of passing; writer phases go after {@link #JPEG_CALLBACK} on writer thread
+     * in parallel with {@link #PREVIEW_RESTARTED}
+     */
+    public enum Phase {
+        REQUESTED(false),
+        PARAMETERS_READ(false),
+        AUTO_FOCUS_STARTED(false),
+        AUTO_FOCUS_FINISHED(false),
+        TAKE_PICTURE_SUBMITTED(false),
+        SHUTTER(false),
+        RAW_CALLBACK(false),
+        JPEG_CALLBACK(false),
+        PREVIEW_RESTARTED(false),
+        WRITE_DEQUEUED(true),
+        EXIF_PREPARED(true),
+        FILE_WRITTEN(true),
+        COMPLETED(false);
+
+        public final boolean isWriterPhase;
+
+        Phase(boolean isWriterPhase) {
+            this.isWriterPhase = isWriterPhase;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * in ns, {@link System#nanoTime()}
+     */
+    private final AtomicLongArray times = new AtomicLongArray(PHASES.length);
+
+    public PhotoTimeline() {
+        mark(Phase.REQUESTED);
+    }
+
+    /**
+     * Marks phase with current time; repeated marks are ignored
+     */
+    public void mark(@NotNull Phase phase) {
+        times.compareAndSet(phase.ordinal(), 0, System.nanoTime());
+    }
+
+    public boolean isReached(@NotNull Phase phase) {
+        return times.get(phase.ordinal()) != 0;
+    }
+
+    public boolean isCompleted() {
+        return isReached(Phase.COMPLETED);
+    }
+
+    /**
+     * @return time in ns or 0 if phase was not reached
+     */
+    public long getTime(@NotNull Phase phase) {
+        return times.get(phase.ordinal());
+    }
+
+    /**
+     * Writer phases are measured from previous reached writer phase or {@link Phase#JPEG_CALLBACK},
+     * other phases - from previous reached one on capture thread, {@link Phase#COMPLETED} - from the latest reached phase
+     *
+     * @return time from previous phase to given one in ns, 0 if given phase was not reached
+     */
+    public long getPhaseDuration(@NotNull Phase phase) {
+        final long time = getTime(phase);
+        if (time == 0) {
+            return 0;
+        }
+        if (phase == Phase.COMPLETED) {
+            long latestTime = 0;
+            for (int i = 0; i < phase.ordinal(); i++) {
+                latestTime = Math.max(latestTime, times.get(i));
+            }
+            return latestTime != 0 ? Math.max(0, time - latestTime) : 0;
+        }
+        for (int i = phase.ordinal() - 1; i >= 0; i--) {
+            final Phase previous = PHASES[i];
+            if (previous.isWriterPhase != phase.isWriterPhase && previous != Phase.JPEG_CALLBACK) {
+                continue;
+            }
+            final long previousTime = times.get(i);
+            if (previousTime != 0) {
+                return Math.max(0, time - previousTime);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return time from request to given phase in ns, 0 if given phase was not reached
+     */
+    public long getElapsed(@NotNull Phase phase) {
+        final long time = getTime(phase);
+        return time != 0 ? Math.max(0, time - getTime(Phase.REQUESTED)) : 0;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PhotoTimeline{");
+        boolean first = true;
+        for (Phase phase : PHASES) {
+            if (phase != Phase.REQUESTED && isReached(phase)) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                sb.append(phase).append("=+").append(TimeUnit.NANOSECONDS.toMillis(getPhaseDuration(phase))).append("ms");
+                first = false;
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,143 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Rolling percentiles of phase durations over last N completed {@link PhotoTimeline}s
+ */
+public class PhotoTimelineStats {
+
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+
+    private static final PhotoTimeline.Phase[] PHASES = PhotoTimeline.Phase.values();
+
+    private final Object lock = new Object();
+
+    private final int windowSize;
+
+    /**
+     * phase -> ring of last durations in ns
+     */
+    private final long[][] durations;
+
+    private final int[] heads;
+
+    private final int[] counts;
+
+    /**
+     * ring of total durations from request to completion in ns
+     */
+    private final long[] totals;
+
+    private int totalsHead;
+
+    private int totalsCount;
+
+    public PhotoTimelineStats() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public PhotoTimelineStats(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("incorrect window size: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        durations = new long[PHASES.length][windowSize];
+        heads = new int[PHASES.length];
+        counts = new int[PHASES.length];
+        totals = new long[windowSize];
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void record(@NotNull PhotoTimeline timeline) {
+        synchronized (lock) {
+            for (PhotoTimeline.Phase phase : PHASES) {
+                if (phase == PhotoTimeline.Phase.REQUESTED || !timeline.isReached(phase)) {
+                    continue;
+                }
+                final int i = phase.ordinal();
+                durations[i][heads[i]] = timeline.getPhaseDuration(phase);
+                heads[i] = (heads[i] + 1) % windowSize;
+                if (counts[i] < windowSize) {
+                    counts[i]++;
+                }
+            }
+            if (timeline.isCompleted()) {
+                totals[totalsHead] = timeline.getElapsed(PhotoTimeline.Phase.COMPLETED);
+                totalsHead = (totalsHead + 1) % windowSize;
+                if (totalsCount < windowSize) {
+                    totalsCount++;
+                }
+            }
+        }
+    }
+
+    public void reset() {
+        synchronized (lock) {
+            Arrays.fill(heads, 0);
+            Arrays.fill(counts, 0);
+            totalsHead = 0;
+            totalsCount = 0;
+        }
+    }
+
+    public int getSamplesCount(@NotNull PhotoTimeline.Phase phase) {
+        synchronized (lock) {
+            return counts[phase.ordinal()];
+        }
+    }
+
+    /**
+     * @param percentile in range 0..100
+     * @return duration of phase (see {@link PhotoTimeline#getPhaseDuration(PhotoTimeline.Phase)}) in ms, 0 if there are no samples
+     */
+    public double getPercentile(@NotNull PhotoTimeline.Phase phase, double percentile) {
+        synchronized (lock) {
+            return percentile(durations[phase.ordinal()], counts[phase.ordinal()], percentile);
+        }
+    }
+
+    /**
+     * @return duration from request to completion in ms, 0 if there are no samples
+     */
+    public double getTotalPercentile(double percentile) {
+        synchronized (lock) {
+            return percentile(totals, totalsCount, percentile);
+        }
+    }
+
+    private static double percentile(@NotNull long[] values, int count, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("incorrect percentile: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PhotoTimelineStats{");
+        synchronized (lock) {
+            for (PhotoTimeline.Phase phase : PHASES) {
+                final int count = counts[phase.ordinal()];
+                if (count > 0) {
+                    sb.append(phase).append(": p50=").append(getPercentile(phase, 50))
+                            .append(" p95=").append(getPercentile(phase, 95)).append(" ms, ");
+                }
+            }
+            sb.append("total: p50=").append(getTotalPercentile(50)).append(" p95=").append(getTotalPercentile(95)).append(" ms");
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,485 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import android.location.Location;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded single-thread pipeline persisting taken photos:
+ * data (with location injected into exif in memory) is written once to temp file, synced to disk and renamed to target,
+ * so target file appears only when it is complete and durable;
+ * pending photos are limited by count and by total bytes, and free space above reserved threshold is required
+ */
+public class PhotoWriter {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 48 * 1024 * 1024;
+
+    public static final long DEFAULT_RESERVED_SPACE = 50 * 1024 * 1024;
+
+    public static final long DEFAULT_BLOCK_TIMEOUT = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * part of max queued bytes after which pressure is signalled
+     */
+    public static final double PRESSURE_THRESHOLD = 0.5;
+
+    /**
+     * weight of last write in bandwidth average
+     */
+    private static final double BANDWIDTH_ALPHA = 0.2;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(PhotoWriter.class);
+
+    /**
+     * What happens when photo doesn't fit in the queue
+     */
+    public enum BackpressurePolicy {
+        /**
+         * submit fails immediately
+         */
+        REJECT,
+        /**
+         * submitting thread waits for space up to block timeout
+         */
+        BLOCK,
+        /**
+         * as {@link #REJECT}, but pressure is signalled earlier, so producer may lower JPEG quality
+         */
+        DEGRADE
+    }
+
+    public enum SubmitResult {
+        ACCEPTED,
+        QUEUE_FULL,
+        NO_SPACE,
+        SHUT_DOWN;
+
+        public boolean isAccepted() {
+            return this == ACCEPTED;
+        }
+    }
+
+    private final Object lock = new Object();
+
+    @NotNull
+    private final ThreadPoolExecutor executor;
+
+    @NotNull
+    private final IPhotoWriteCallback callback;
+
+    private final int queueCapacity;
+
+    @NotNull
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.REJECT;
+
+    private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+    private long reservedSpace = DEFAULT_RESERVED_SPACE;
+
+    /**
+     * in ms
+     */
+    private long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+
+    private int queuedCount;
+
+    private long queuedBytes;
+
+    private boolean isUnderPressure;
+
+    private long writtenCount;
+
+    private long writtenBytes;
+
+    private long failedCount;
+
+    private long rejectedCount;
+
+    /**
+     * in ms
+     */
+    private volatile long lastPersistTime;
+
+    /**
+     * in bytes per second
+     */
+    private double writeBandwidth;
+
+    public PhotoWriter(@NotNull IPhotoWriteCallback callback) {
+        this(DEFAULT_QUEUE_CAPACITY, callback);
+    }
+
+    /**
+     * @param queueCapacity max number of photos waiting for write (including one being written)
+     */
+    public PhotoWriter(int queueCapacity, @NotNull IPhotoWriteCallback callback) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("incorrect queue capacity: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        this.callback = callback;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, PhotoWriter.class.getSimpleName()));
+    }
+
+    @NotNull
+    public BackpressurePolicy getBackpressurePolicy() {
+        synchronized (lock) {
+            return backpressurePolicy;
+        }
+    }
+
+    public void setBackpressurePolicy(@NotNull BackpressurePolicy backpressurePolicy) {
+        synchronized (lock) {
+            this.backpressurePolicy = backpressurePolicy;
+            updatePressureLocked();
+        }
+    }
+
+    public long getMaxQueuedBytes() {
+        synchronized (lock) {
+            return maxQueuedBytes;
+        }
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        if (maxQueuedBytes <= 0) {
+            throw new IllegalArgumentException("incorrect max queued bytes: " + maxQueuedBytes);
+        }
+        synchronized (lock) {
+            this.maxQueuedBytes = maxQueuedBytes;
+            updatePressureLocked();
+            lock.notifyAll();
+        }
+    }
+
+    public long getReservedSpace() {
+        synchronized (lock) {
+            return reservedSpace;
+        }
+    }
+
+    /**
+     * @param reservedSpace free space in bytes which must remain on target storage after write
+     */
+    public void setReservedSpace(long reservedSpace) {
+        if (reservedSpace < 0) {
+            throw new IllegalArgumentException("incorrect reserved space: " + reservedSpace);
+        }
+        synchronized (lock) {
+            this.reservedSpace = reservedSpace;
+        }
+    }
+
+    public long getBlockTimeout() {
+        synchronized (lock) {
+            return blockTimeout;
+        }
+    }
+
+    /**
+     * @param blockTimeout in ms, for {@link BackpressurePolicy#BLOCK}
+     */
+    public void setBlockTimeout(long blockTimeout) {
+        if (blockTimeout < 0) {
+            throw new IllegalArgumentException("incorrect block timeout: " + blockTimeout);
+        }
+        synchronized (lock) {
+            this.blockTimeout = blockTimeout;
+        }
+    }
+
+    /**
+     * @return photos waiting for write including one being written
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    public long getPendingBytes() {
+        synchronized (lock) {
+            return queuedBytes;
+        }
+    }
+
+    public boolean isUnderPressure() {
+        synchronized (lock) {
+            return isUnderPressure;
+        }
+    }
+
+    public long getWrittenCount() {
+        synchronized (lock) {
+            return writtenCount;
+        }
+    }
+
+    public long getWrittenBytes() {
+        synchronized (lock) {
+            return writtenBytes;
+        }
+    }
+
+    public long getFailedCount() {
+        synchronized (lock) {
+            return failedCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * @return duration of last successful write in ms
+     */
+    public long getLastPersistTime() {
+        return lastPersistTime;
+    }
+
+    /**
+     * @return recent write speed in bytes per second, 0 if nothing was written
+     */
+    public double getWriteBandwidth() {
+        synchronized (lock) {
+            return writeBandwidth;
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * With {@link BackpressurePolicy#BLOCK} calling thread may wait up to {@link #getBlockTimeout()}
+     *
+     * @param captureTime time spent to take the photo, in ms; passed to callback as is
+     * @param timeline    if specified, exif and write phases are marked
+     */
+    @NotNull
+    public SubmitResult submit(@NotNull byte[] data, @NotNull File targetFile, @Nullable Location location, long captureTime, @Nullable PhotoTimeline timeline) {
+        synchronized (lock) {
+            if (executor.isShutdown()) {
+                rejectedCount++;
+                return SubmitResult.SHUT_DOWN;
+            }
+            if (!hasFreeSpaceLocked(targetFile, queuedBytes + data.length)) {
+                rejectedCount++;
+                logger.e("can't submit photo write for " + targetFile + ": not enough free space");
+                return SubmitResult.NO_SPACE;
+            }
+            if (!fitsLocked(data.length) && backpressurePolicy == BackpressurePolicy.BLOCK) {
+                final long deadline = System.currentTimeMillis() + blockTimeout;
+                long remaining = blockTimeout;
+                while (!fitsLocked(data.length) && remaining > 0 && !executor.isShutdown()) {
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+            if (!fitsLocked(data.length)) {
+                rejectedCount++;
+                logger.e("can't submit photo write for " + targetFile + ": queue is full (" + queuedCount + " photos, " + queuedBytes + " bytes)");
+                return SubmitResult.QUEUE_FULL;
+            }
+            try {
+                executor.execute(() -> write(data, targetFile, location, captureTime, timeline));
+            } catch (RejectedExecutionException e) {
+                rejectedCount++;
+                return SubmitResult.SHUT_DOWN;
+            }
+            queuedCount++;
+            queuedBytes += data.length;
+            updatePressureLocked();
+            return SubmitResult.ACCEPTED;
+        }
+    }
+
+    /**
+     * Already submitted photos are still written
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            executor.shutdown();
+            lock.notifyAll();
+        }
+    }
+
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean fitsLocked(int length) {
+        // single photo larger than cap is still accepted into empty queue
+        return queuedCount < queueCapacity && (queuedCount == 0 || queuedBytes + length <= maxQueuedBytes);
+    }
+
+    private boolean hasFreeSpaceLocked(@NotNull File targetFile, long requiredBytes) {
+        File dir = targetFile.getParentFile();
+        while (dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
+            return true;
+        }
+        final long usableSpace = dir.getUsableSpace();
+        // 0 may also mean that space can't be determined
+        return usableSpace == 0 || usableSpace - requiredBytes >= reservedSpace;
+    }
+
+    private void updatePressureLocked() {
+        final double threshold = backpressurePolicy == BackpressurePolicy.DEGRADE ? PRESSURE_THRESHOLD : 1;
+        final boolean underPressure = queuedCount >= queueCapacity || queuedBytes >= maxQueuedBytes * threshold;
+        if (underPressure != isUnderPressure) {
+            isUnderPressure = underPressure;
+            logger.d("write pressure: " + underPressure + ", pending " + queuedCount + " photos, " + queuedBytes + " bytes");
+            callback.onPressureChanged(underPressure);
+        }
+    }
+
+    private void write(@NotNull byte[] data, @NotNull File targetFile, @Nullable Location location, long captureTime, @Nullable PhotoTimeline timeline) {
+        final long startTime = System.currentTimeMillis();
+        if (timeline != null) {
+            timeline.mark(PhotoTimeline.Phase.WRITE_DEQUEUED);
+        }
+        final File tempFile = new File(targetFile.getPath() + TEMP_FILE_SUFFIX);
+        boolean success = false;
+        long writtenLength = 0;
+        try {
+            final File parent = targetFile.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("can't create directory " + parent);
+            }
+            final JpegExifEditor.Edit edit = location != null ? prepareLocationEdit(data, targetFile, location) : null;
+            if (edit != null && timeline != null) {
+                timeline.mark(PhotoTimeline.Phase.EXIF_PREPARED);
+            }
+            writtenLength = edit != null ? edit.getLength() : data.length;
+            synchronized (lock) {
+                if (!hasFreeSpaceLocked(targetFile, writtenLength)) {
+                    throw new IOException("not enough free space for " + writtenLength + " bytes");
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                if (edit != null) {
+                    edit.writeTo(out);
+                } else {
+                    out.write(data);
+                }
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(targetFile)) {
+                throw new IOException("can't rename " + tempFile + " to " + targetFile);
+            }
+            success = true;
+            if (timeline != null) {
+                timeline.mark(PhotoTimeline.Phase.FILE_WRITTEN);
+            }
+        } catch (IOException e) {
+            logger.e("an IOException occurred during write()", e);
+        } catch (RuntimeException e) {
+            logger.e("a RuntimeException occurred during write()", e);
+        } finally {
+            if (!success && tempFile.exists() && !tempFile.delete()) {
+                logger.e("can't delete " + tempFile);
+            }
+            // queue capacity must be given back and caller notified on any outcome
+            onWriteFinished(data, targetFile, captureTime, timeline, success, writtenLength, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void onWriteFinished(@NotNull byte[] data, @NotNull File targetFile, long captureTime, @Nullable PhotoTimeline timeline,
+                                 boolean success, long writtenLength, long persistTime) {
+        synchronized (lock) {
+            queuedCount--;
+            queuedBytes -= data.length;
+            if (success) {
+                writtenCount++;
+                writtenBytes += writtenLength;
+                if (persistTime > 0) {
+                    final double bandwidth = writtenLength * 1000d / persistTime;
+                    writeBandwidth = writeBandwidth == 0 ? bandwidth : writeBandwidth + BANDWIDTH_ALPHA * (bandwidth - writeBandwidth);
+                }
+            } else {
+                failedCount++;
+            }
+            updatePressureLocked();
+            lock.notifyAll();
+        }
+        if (success) {
+            lastPersistTime = persistTime;
+            logger.d("photo " + targetFile + " persisted in " + persistTime + " ms");
+            callback.onPhotoWritten(targetFile, data, captureTime, persistTime, timeline);
+        } else {
+            callback.onPhotoWriteFailed(targetFile, data, captureTime, timeline);
+        }
+    }
+
+    /**
+     * @return null if location can't be injected, photo is written without it then
+     */
+    @Nullable
+    private JpegExifEditor.Edit prepareLocationEdit(@NotNull byte[] data, @NotNull File targetFile, @NotNull Location location) {
+        try {
+            return JpegExifEditor.prepareGpsEdit(data, new JpegExifEditor.GpsInfo(location.getLatitude(), location.getLongitude(),
+                    location.hasAltitude(), location.getAltitude(), location.getTime()));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.e("can't write location to exif", e);
+            callback.onLocationWriteFailed(targetFile, location, e);
+            return null;
+        }
+    }
+
+    public interface IPhotoWriteCallback {
+
+        /**
+         * invokes from writer thread
+         *
+         * @param captureTime in ms
+         * @param persistTime in ms
+         */
+        void onPhotoWritten(@NotNull File photoFile, @NotNull byte[] data, long captureTime, long persistTime, @Nullable PhotoTimeline timeline);
+
+        /**
+         * invokes from writer thread
+         *
+         * @param captureTime in ms
+         */
+        void onPhotoWriteFailed(@NotNull File photoFile, @NotNull byte[] data, long captureTime, @Nullable PhotoTimeline timeline);
+
+        /**
+         * invokes from writer thread before the photo is written without location
+         * (e.g. exif segment with it would exceed 64 KB or exif is malformed)
+         */
+        void onLocationWriteFailed(@NotNull File photoFile, @NotNull Location location, @NotNull Exception e);
+
+        /**
+         * queue has become (or stopped being) close to its limits; invokes under writer lock from submitting or writer thread
+         */
+        void onPressureChanged(boolean underPressure);
+    }
+}
@@ -0,0 +1,222 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps keyed by width, height and config, limited by total byte size;
+ * least recently released bitmaps are recycled first when limit is exceeded
+ */
+public class BitmapPool {
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private final Object lock = new Object();
+
+    private final long maxSize;
+
+    private final Map<Key, ArrayDeque<Bitmap>> pools = new HashMap<>();
+
+    /**
+     * all pooled bitmaps in order of release
+     */
+    private final ArrayDeque<Bitmap> releaseOrder = new ArrayDeque<>();
+
+    private long currentSize = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    public BitmapPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize max total size of pooled bitmaps, in bytes
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("incorrect max size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return cleared pooled bitmap of given size or null
+     */
+    @Nullable
+    public Bitmap get(int width, int height, @NotNull Bitmap.Config config) {
+        Bitmap bitmap = null;
+        synchronized (lock) {
+            final ArrayDeque<Bitmap> pool = pools.get(new Key(width, height, config));
+            if (pool != null) {
+                bitmap = pool.pollLast();
+                if (pool.isEmpty()) {
+                    pools.remove(new Key(width, height, config));
+                }
+            }
+            if (bitmap != null) {
+                releaseOrder.remove(bitmap);
+                currentSize -= bitmap.getByteCount();
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return pooled bitmap or new one
+     */
+    @NotNull
+    public Bitmap obtain(int width, int height, @NotNull Bitmap.Config config) {
+        final Bitmap bitmap = get(width, height, config);
+        return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * returns bitmap to pool, immutable or too large bitmap is recycled;
+     * caller must not use bitmap after that
+     */
+    public void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        final Bitmap.Config config = bitmap.getConfig();
+        if (!bitmap.isMutable() || config == null || bitmap.getByteCount() > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (lock) {
+            final Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), config);
+            ArrayDeque<Bitmap> pool = pools.get(key);
+            if (pool == null) {
+                pool = new ArrayDeque<>();
+                pools.put(key, pool);
+            } else if (pool.contains(bitmap)) {
+                return;
+            }
+            pool.addLast(bitmap);
+            releaseOrder.addLast(bitmap);
+            currentSize += bitmap.getByteCount();
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * recycles all pooled bitmaps
+     */
+    public void clear() {
+        synchronized (lock) {
+            trimToSize(0);
+        }
+    }
+
+    public long getCurrentSize() {
+        synchronized (lock) {
+            return currentSize;
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (lock) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (lock) {
+            return missCount;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (lock) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * @return part of requests served from pool, 0 if there were no requests
+     */
+    public double getHitRate() {
+        synchronized (lock) {
+            final long total = hitCount + missCount;
+            return total > 0 ? (double) hitCount / total : 0;
+        }
+    }
+
+    private void trimToSize(long size) {
+        while (currentSize > size && !releaseOrder.isEmpty()) {
+            final Bitmap eldest = releaseOrder.pollFirst();
+            final Key key = new Key(eldest.getWidth(), eldest.getHeight(), eldest.getConfig());
+            final ArrayDeque<Bitmap> pool = pools.get(key);
+            if (pool != null) {
+                final Iterator<Bitmap> it = pool.iterator();
+                while (it.hasNext()) {
+                    if (it.next() == eldest) {
+                        it.remove();
+                        break;
+                    }
+                }
+                if (pool.isEmpty()) {
+                    pools.remove(key);
+                }
+            }
+            currentSize -= eldest.getByteCount();
+            evictionCount++;
+            eldest.recycle();
+        }
+    }
+
+    private static final class Key {
+
+        final int width;
+
+        final int height;
+
+        @NotNull
+        final Bitmap.Config config;
+
+        Key(int width, int height, @NotNull Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return width == key.width && height == key.height && config == key.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + config.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import net.maxsmr.cameracontroller.camera.MakePreviewRunnableInfo;
+import net.maxsmr.cameracontroller.camera.settings.video.record.VideoSettings;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of pending make-preview tasks, keyed by video file:
+ * each add or remove is one checksummed record, so restore is single sequential read without java serialization;
+ * {@link #checkpoint()} syncs journal to disk, torn tail after last valid record is truncated on replay;
+ * journal is rewritten with live tasks only when removed records prevail
+ */
+public class MakePreviewJournal implements Closeable {
+
+    /**
+     * "MPJ1"
+     */
+    private static final int MAGIC = 0x4D504A31;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 2;
+
+    private static final byte RECORD_ADD = 1;
+
+    private static final byte RECORD_REMOVE = 2;
+
+    private static final byte RECORD_CHECKPOINT = 3;
+
+    /**
+     * type, length, crc
+     */
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    private static final int MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+    public static final int DEFAULT_MIN_DEAD_RECORDS_TO_COMPACT = 64;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(MakePreviewJournal.class);
+
+    @NotNull
+    private final File file;
+
+    private final int minDeadRecordsToCompact;
+
+    private final Map<String, MakePreviewRunnableInfo> live = new LinkedHashMap<>();
+
+    private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream(256);
+
+    private final DataOutputStream payloadOut = new DataOutputStream(payloadBuffer);
+
+    private final CRC32 crc = new CRC32();
+
+    @Nullable
+    private FileOutputStream fileOut;
+
+    @Nullable
+    private DataOutputStream out;
+
+    /**
+     * records which don't describe live tasks anymore
+     */
+    private int deadRecords = 0;
+
+    private int compactionsCount = 0;
+
+    @Nullable
+    private ReplayStats lastReplayStats;
+
+    public MakePreviewJournal(@NotNull File file) {
+        this(file, DEFAULT_MIN_DEAD_RECORDS_TO_COMPACT);
+    }
+
+    public MakePreviewJournal(@NotNull File file, int minDeadRecordsToCompact) {
+        if (minDeadRecordsToCompact <= 0) {
+            throw new IllegalArgumentException("incorrect min dead records count: " + minDeadRecordsToCompact);
+        }
+        this.file = file;
+        this.minDeadRecordsToCompact = minDeadRecordsToCompact;
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * replays journal (if exists) and opens it for appending
+     *
+     * @return restored pending tasks in order they were added
+     */
+    @NotNull
+    public synchronized List<MakePreviewRunnableInfo> open() throws IOException {
+        if (out != null) {
+            throw new IllegalStateException("journal is already opened");
+        }
+        live.clear();
+        deadRecords = 0;
+        if (file.isFile() && file.length() >= HEADER_SIZE) {
+            replay();
+        } else {
+            lastReplayStats = new ReplayStats(0, 0, 0, 0, 0);
+            writeNewJournal(file);
+        }
+        openForAppend();
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * replaces pending task for the same video file
+     */
+    public synchronized void add(@NotNull MakePreviewRunnableInfo info) throws IOException {
+        checkOpened();
+        payloadBuffer.reset();
+        writeInfo(payloadOut, info);
+        appendRecord(RECORD_ADD);
+        if (live.put(keyOf(info), info) != null) {
+            deadRecords++;
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * removes record of finished task; if task for the same video file was added after it,
+     * that pending one is kept
+     *
+     * @return false if there was no pending task with id of given one for this file
+     */
+    public synchronized boolean remove(@NotNull MakePreviewRunnableInfo info) throws IOException {
+        checkOpened();
+        final String key = keyOf(info);
+        final MakePreviewRunnableInfo current = live.get(key);
+        if (current == null || current.id != info.id) {
+            return false;
+        }
+        live.remove(key);
+        payloadBuffer.reset();
+        payloadOut.writeUTF(key);
+        appendRecord(RECORD_REMOVE);
+        // add record and this one
+        deadRecords += 2;
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * makes all previous records durable
+     */
+    public synchronized void checkpoint() throws IOException {
+        checkOpened();
+        payloadBuffer.reset();
+        payloadOut.writeInt(live.size());
+        payloadOut.writeLong(System.currentTimeMillis());
+        appendRecord(RECORD_CHECKPOINT);
+        deadRecords++;
+        sync();
+    }
+
+    /**
+     * rewrites journal with live tasks only
+     */
+    public synchronized void compact() throws IOException {
+        checkOpened();
+        final File tempFile = new File(file.getParentFile(), file.getName() + TEMP_FILE_SUFFIX);
+        writeNewJournal(tempFile);
+        closeStreams();
+        // some file systems don't replace on rename
+        if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+            logger.e("can't rename " + tempFile + " to " + file + ", rewriting in place");
+            writeNewJournal(file);
+            if (!tempFile.delete()) {
+                logger.e("can't delete " + tempFile);
+            }
+        }
+        deadRecords = 0;
+        compactionsCount++;
+        openForAppend();
+    }
+
+    @NotNull
+    public synchronized List<MakePreviewRunnableInfo> getPending() {
+        return new ArrayList<>(live.values());
+    }
+
+    public synchronized int getPendingCount() {
+        return live.size();
+    }
+
+    public synchronized int getDeadRecordsCount() {
+        return deadRecords;
+    }
+
+    public synchronized int getCompactionsCount() {
+        return compactionsCount;
+    }
+
+    /**
+     * @return stats of {@link #open()} or null if it wasn't called
+     */
+    @Nullable
+    public synchronized ReplayStats getLastReplayStats() {
+        return lastReplayStats;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            sync();
+            closeStreams();
+        }
+    }
+
+    private void replay() throws IOException {
+        final long startTime = System.nanoTime();
+        int recordsCount = 0;
+        long validLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a make preview journal: " + file);
+            }
+            final int version = in.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("unsupported journal version: " + version);
+            }
+            validLength = HEADER_SIZE;
+            byte[] payload = new byte[256];
+            while (true) {
+                final byte type;
+                final int length;
+                try {
+                    type = in.readByte();
+                    length = in.readInt();
+                    if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+                        logger.e("invalid record length " + length + " at " + validLength);
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                    final int checksum = in.readInt();
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        logger.e("invalid record checksum at " + validLength);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                applyRecord(type, new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                validLength += RECORD_OVERHEAD + length;
+                recordsCount++;
+            }
+        }
+        final long truncatedBytes = file.length() - validLength;
+        if (truncatedBytes > 0) {
+            logger.w("truncating " + truncatedBytes + " bytes of incomplete journal tail");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        lastReplayStats = new ReplayStats(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime),
+                recordsCount, live.size(), validLength, truncatedBytes);
+        logger.d("journal " + file + " replayed: " + lastReplayStats);
+    }
+
+    private void applyRecord(byte type, @NotNull DataInputStream payload) throws IOException {
+        switch (type) {
+            case RECORD_ADD:
+                final MakePreviewRunnableInfo info = readInfo(payload);
+                if (live.put(keyOf(info), info) != null) {
+                    deadRecords++;
+                }
+                break;
+            case RECORD_REMOVE:
+                if (live.remove(payload.readUTF()) != null) {
+                    deadRecords++;
+                }
+                deadRecords++;
+                break;
+            case RECORD_CHECKPOINT:
+                final int count = payload.readInt();
+                if (count != live.size()) {
+                    logger.w("checkpoint count " + count + " differs from replayed " + live.size());
+                }
+                deadRecords++;
+                break;
+            default:
+                throw new IOException("unknown record type: " + type);
+        }
+    }
+
+    private void writeNewJournal(@NotNull File target) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(target)) {
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            dos.writeInt(MAGIC);
+            dos.writeShort(VERSION);
+            for (MakePreviewRunnableInfo info : live.values()) {
+                payloadBuffer.reset();
+                writeInfo(payloadOut, info);
+                writeRecord(dos, RECORD_ADD);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 8 * 1024));
+    }
+
+    private void appendRecord(byte type) throws IOException {
+        final DataOutputStream out = this.out;
+        if (out == null) {
+            throw new IllegalStateException("journal is not opened");
+        }
+        writeRecord(out, type);
+        // in OS buffers, durable after checkpoint
+        out.flush();
+    }
+
+    private void writeRecord(@NotNull DataOutputStream target, byte type) throws IOException {
+        final int length = payloadBuffer.size();
+        crc.reset();
+        crc.update(type);
+        payloadBuffer.writeTo(new CrcOutputStream(crc));
+        target.writeByte(type);
+        target.writeInt(length);
+        payloadBuffer.writeTo(target);
+        target.writeInt((int) crc.getValue());
+    }
+
+    private void sync() throws IOException {
+        if (out != null && fileOut != null) {
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (deadRecords >= minDeadRecordsToCompact && deadRecords > live.size()) {
+            compact();
+        }
+    }
+
+    private void closeStreams() throws IOException {
+        final DataOutputStream out = this.out;
+        this.out = null;
+        this.fileOut = null;
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private void checkOpened() {
+        if (out == null) {
+            throw new IllegalStateException("journal is not opened");
+        }
+    }
+
+    @NotNull
+    private static String keyOf(@NotNull MakePreviewRunnableInfo info) {
+        return info.videoFile.getAbsolutePath();
+    }
+
+    private static void writeInfo(@NotNull DataOutputStream out, @NotNull MakePreviewRunnableInfo info) throws IOException {
+        out.writeInt(info.id);
+        out.writeBoolean(info.name != null);
+        if (info.name != null) {
+            out.writeUTF(info.name);
+        }
+        out.writeUTF(info.videoFile.getAbsolutePath());
+        out.writeBoolean(info.videoSettings != null);
+        if (info.videoSettings != null) {
+            info.videoSettings.writeTo(out);
+        }
+    }
+
+    @NotNull
+    private static MakePreviewRunnableInfo readInfo(@NotNull DataInputStream in) throws IOException {
+        final int id = in.readInt();
+        final String name = in.readBoolean() ? in.readUTF() : null;
+        final File videoFile = new File(in.readUTF());
+        final VideoSettings settings = in.readBoolean() ? VideoSettings.readFrom(in) : null;
+        return new MakePreviewRunnableInfo(id, name, settings, videoFile);
+    }
+
+    private static final class CrcOutputStream extends OutputStream {
+
+        @NotNull
+        private final CRC32 crc;
+
+        CrcOutputStream(@NotNull CRC32 crc) {
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) {
+            crc.update(b);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            crc.update(b, off, len);
+        }
+    }
+
+    public static final class ReplayStats {
+
+        /**
+         * in us
+         */
+        public final long replayTime;
+
+        public final int recordsCount;
+
+        public final int pendingCount;
+
+        public final long journalLength;
+
+        /**
+         * length of incomplete or corrupted tail, which was dropped
+         */
+        public final long truncatedBytes;
+
+        ReplayStats(long replayTime, int recordsCount, int pendingCount, long journalLength, long truncatedBytes) {
+            this.replayTime = replayTime;
+            this.recordsCount = recordsCount;
+            this.pendingCount = pendingCount;
+            this.journalLength = journalLength;
+            this.truncatedBytes = truncatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "ReplayStats{" +
+                    "replayTime=" + replayTime +
+                    ", recordsCount=" + recordsCount +
+                    ", pendingCount=" + pendingCount +
+                    ", journalLength=" + journalLength +
+                    ", truncatedBytes=" + truncatedBytes +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import net.maxsmr.cameracontroller.camera.MakePreviewRunnableInfo;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Holds make-preview tasks before they reach executor:
+ * tasks for the same video file are merged, higher priority and then newer tasks go first,
+ * count of dispatched tasks is limited by concurrency adapted to backlog and measured task time
+ */
+public class MakePreviewScheduler {
+
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * backlog is expected to be drained within this time, in ms
+     */
+    public static final long DEFAULT_TARGET_DRAIN_TIME = 2000;
+
+    /**
+     * weight of last task in average task time
+     */
+    private static final double TASK_TIME_ALPHA = 0.3;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(MakePreviewScheduler.class);
+
+    private final Object lock = new Object();
+
+    private final int minConcurrency;
+
+    private final int maxConcurrency;
+
+    private final long targetDrainTime;
+
+    @NotNull
+    private final IDispatcher dispatcher;
+
+    @Nullable
+    private volatile ICancelListener cancelListener;
+
+    private final TreeSet<Entry> pending = new TreeSet<>();
+
+    private final Map<String, Entry> pendingByFile = new HashMap<>();
+
+    private final Set<String> runningFiles = new HashSet<>();
+
+    private long sequence = 0;
+
+    private int concurrency;
+
+    private double averageTaskTime = 0;
+
+    private int mergedCount = 0;
+
+    private int completedCount = 0;
+
+    /**
+     * @param maxConcurrency upper bound, also limited by count of cpu cores
+     */
+    public MakePreviewScheduler(int minConcurrency, int maxConcurrency, @NotNull IDispatcher dispatcher) {
+        this(minConcurrency, maxConcurrency, DEFAULT_TARGET_DRAIN_TIME, dispatcher);
+    }
+
+    public MakePreviewScheduler(int minConcurrency, int maxConcurrency, long targetDrainTime, @NotNull IDispatcher dispatcher) {
+        if (minConcurrency <= 0 || maxConcurrency < minConcurrency) {
+            throw new IllegalArgumentException("incorrect concurrency bounds: " + minConcurrency + ".." + maxConcurrency);
+        }
+        if (targetDrainTime <= 0) {
+            throw new IllegalArgumentException("incorrect target drain time: " + targetDrainTime);
+        }
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.targetDrainTime = targetDrainTime;
+        this.dispatcher = dispatcher;
+        this.concurrency = minConcurrency;
+    }
+
+    /**
+     * @param cancelListener notified about pending tasks dropped by {@link #cancel(MakePreviewRunnableInfo)} or {@link #clear()}
+     */
+    public void setCancelListener(@Nullable ICancelListener cancelListener) {
+        this.cancelListener = cancelListener;
+    }
+
+    /**
+     * if task for the same video file is pending, it's replaced by given one
+     *
+     * @param priority greater goes first, among equal ones the latest scheduled goes first
+     */
+    public void schedule(@NotNull MakePreviewRunnableInfo info, int priority) {
+        final String key = info.videoFile.getAbsolutePath();
+        synchronized (lock) {
+            final Entry previous = pendingByFile.remove(key);
+            if (previous != null) {
+                pending.remove(previous);
+                priority = Math.max(priority, previous.priority);
+                mergedCount++;
+                logger.d("make preview task for " + key + " is merged with pending one");
+            }
+            final Entry entry = new Entry(info, key, priority, ++sequence);
+            pending.add(entry);
+            pendingByFile.put(key, entry);
+        }
+        dispatchNext();
+    }
+
+    /**
+     * must be called by each dispatched task when it's done
+     *
+     * @param taskTime time of task execution, in ms
+     */
+    public void onFinished(@NotNull MakePreviewRunnableInfo info, long taskTime) {
+        synchronized (lock) {
+            if (!runningFiles.remove(info.videoFile.getAbsolutePath())) {
+                // not dispatched by this scheduler, e.g. restored
+                return;
+            }
+            completedCount++;
+            averageTaskTime = averageTaskTime == 0 ? taskTime : averageTaskTime + TASK_TIME_ALPHA * (taskTime - averageTaskTime);
+        }
+        dispatchNext();
+    }
+
+    /**
+     * @return true if pending task was removed
+     */
+    public boolean cancel(@NotNull MakePreviewRunnableInfo info) {
+        final Entry entry;
+        synchronized (lock) {
+            entry = pendingByFile.remove(info.videoFile.getAbsolutePath());
+            if (entry == null || !pending.remove(entry)) {
+                return false;
+            }
+        }
+        notifyCancelled(entry.info);
+        return true;
+    }
+
+    public void clear() {
+        final List<MakePreviewRunnableInfo> cancelled;
+        synchronized (lock) {
+            cancelled = new ArrayList<>(pending.size());
+            for (Entry entry : pending) {
+                cancelled.add(entry.info);
+            }
+            pending.clear();
+            pendingByFile.clear();
+        }
+        for (MakePreviewRunnableInfo info : cancelled) {
+            notifyCancelled(info);
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public int getRunningCount() {
+        synchronized (lock) {
+            return runningFiles.size();
+        }
+    }
+
+    /**
+     * @return current limit of dispatched tasks
+     */
+    public int getConcurrency() {
+        synchronized (lock) {
+            return concurrency;
+        }
+    }
+
+    /**
+     * @return average task execution time, in ms
+     */
+    public long getAverageTaskTime() {
+        synchronized (lock) {
+            return Math.round(averageTaskTime);
+        }
+    }
+
+    public int getMergedCount() {
+        synchronized (lock) {
+            return mergedCount;
+        }
+    }
+
+    public int getCompletedCount() {
+        synchronized (lock) {
+            return completedCount;
+        }
+    }
+
+    private void notifyCancelled(@NotNull MakePreviewRunnableInfo info) {
+        final ICancelListener cancelListener = this.cancelListener;
+        if (cancelListener != null) {
+            cancelListener.onCancelled(info);
+        }
+    }
+
+    private void dispatchNext() {
+        while (true) {
+            final Entry next;
+            synchronized (lock) {
+                concurrency = calculateConcurrency();
+                if (runningFiles.size() >= concurrency) {
+                    return;
+                }
+                next = pollFirstIdle();
+                if (next == null) {
+                    return;
+                }
+                runningFiles.add(next.key);
+            }
+            try {
+                dispatcher.dispatch(next.info);
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during dispatch(): " + e.getMessage(), e);
+                synchronized (lock) {
+                    runningFiles.remove(next.key);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * task for file which is processed at the moment waits
+     */
+    private Entry pollFirstIdle() {
+        final Iterator<Entry> it = pending.iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (!runningFiles.contains(entry.key)) {
+                it.remove();
+                pendingByFile.remove(entry.key);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * enough workers to drain backlog within target time, until task time is not measured - min concurrency
+     */
+    private int calculateConcurrency() {
+        final int upperBound = Math.max(minConcurrency, Math.min(maxConcurrency, Runtime.getRuntime().availableProcessors()));
+        if (averageTaskTime == 0) {
+            return minConcurrency;
+        }
+        final int backlog = pending.size() + runningFiles.size();
+        final int required = (int) Math.ceil(backlog * averageTaskTime / targetDrainTime);
+        return Math.max(minConcurrency, Math.min(upperBound, required));
+    }
+
+    public interface IDispatcher {
+
+        /**
+         * submit task to execution
+         */
+        void dispatch(@NotNull MakePreviewRunnableInfo info);
+    }
+
+    public interface ICancelListener {
+
+        /**
+         * pending task was dropped without execution
+         */
+        void onCancelled(@NotNull MakePreviewRunnableInfo info);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        @NotNull
+        final MakePreviewRunnableInfo info;
+
+        @NotNull
+        final String key;
+
+        final int priority;
+
+        final long sequence;
+
+        Entry(@NotNull MakePreviewRunnableInfo info, @NotNull String key, int priority, long sequence) {
+            this.info = info;
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NotNull Entry o) {
+            if (priority != o.priority) {
+                return priority > o.priority ? -1 : 1;
+            }
+            return Long.compare(o.sequence, sequence);
+        }
+    }
+}
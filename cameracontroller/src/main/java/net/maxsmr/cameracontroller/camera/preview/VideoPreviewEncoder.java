@@ -0,0 +1,148 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import android.graphics.Bitmap;
+
+import net.maxsmr.cameracontroller.camera.settings.video.PreviewFormat;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes video preview grid with optional size and time budget:
+ * lossy formats are re-encoded with decreasing quality until result fits size budget
+ * or next attempt would exceed time budget
+ */
+public class VideoPreviewEncoder {
+
+    public static final int MIN_QUALITY = 40;
+
+    public static final int QUALITY_STEP = 10;
+
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(VideoPreviewEncoder.class);
+
+    /**
+     * encode buffer reused by each worker thread
+     */
+    private final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * @param maxBytes   0 - no size limit
+     * @param maxTime    time budget for all attempts, in ms; 0 - no limit
+     * @param targetFile name without extension, extension of resulting format is appended
+     * @return null if encode or write failed
+     */
+    @Nullable
+    public Result encodeToFile(@NotNull Bitmap bitmap, @NotNull PreviewFormat format, long maxBytes, long maxTime, @NotNull File targetFile) {
+        final long startTime = System.nanoTime();
+        final ByteArrayOutputStream buffer = buffers.get();
+
+        int quality = format.getDefaultQuality();
+        int attempts = 0;
+        boolean done = false;
+        if (format.isLossless()) {
+            buffer.reset();
+            if (!bitmap.compress(format.getCompressFormat(), quality, buffer)) {
+                logger.e("can't compress bitmap to " + format);
+                return null;
+            }
+            attempts++;
+            if (maxBytes <= 0 || buffer.size() <= maxBytes) {
+                done = true;
+            } else {
+                logger.w(format + " preview size " + buffer.size() + " exceeds budget " + maxBytes + ", switching to " + PreviewFormat.JPEG);
+                format = PreviewFormat.JPEG;
+                quality = format.getDefaultQuality();
+            }
+        }
+        while (!done) {
+            final long attemptStart = System.nanoTime();
+            buffer.reset();
+            if (!bitmap.compress(format.getCompressFormat(), quality, buffer)) {
+                logger.e("can't compress bitmap to " + format);
+                return null;
+            }
+            attempts++;
+            if (maxBytes <= 0 || buffer.size() <= maxBytes || quality <= MIN_QUALITY) {
+                break;
+            }
+            final long now = System.nanoTime();
+            // assume next attempt takes as long as the last one
+            if (maxTime > 0 && TimeUnit.NANOSECONDS.toMillis(2 * now - attemptStart - startTime) > maxTime) {
+                logger.w("preview encode time budget " + maxTime + " ms exceeded, size " + buffer.size() + " is kept");
+                break;
+            }
+            quality = Math.max(MIN_QUALITY, quality - QUALITY_STEP);
+        }
+
+        final File file = new File(targetFile.getParentFile(), targetFile.getName() + format.getExtension());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            buffer.writeTo(out);
+        } catch (IOException e) {
+            logger.e("an IOException occurred during writeTo(): " + e.getMessage(), e);
+            return null;
+        }
+        final Result result = new Result(file, format, quality, buffer.size(), attempts,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        logger.d("video preview encoded: " + result);
+        return result;
+    }
+
+    public static final class Result {
+
+        @NotNull
+        public final File file;
+
+        /**
+         * may differ from requested one if lossless result didn't fit size budget
+         */
+        @NotNull
+        public final PreviewFormat format;
+
+        public final int quality;
+
+        public final long size;
+
+        public final int attempts;
+
+        /**
+         * in ms, including file write
+         */
+        public final long encodeTime;
+
+        Result(@NotNull File file, @NotNull PreviewFormat format, int quality, long size, int attempts, long encodeTime) {
+            this.file = file;
+            this.format = format;
+            this.quality = quality;
+            this.size = size;
+            this.attempts = attempts;
+            this.encodeTime = encodeTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "file=" + file +
+                    ", format=" + format +
+                    ", quality=" + quality +
+                    ", size=" + size +
+                    ", attempts=" + attempts +
+                    ", encodeTime=" + encodeTime +
+                    '}';
+        }
+    }
+}
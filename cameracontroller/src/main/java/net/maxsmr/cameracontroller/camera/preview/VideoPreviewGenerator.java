@@ -0,0 +1,300 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes first frame, last frame and grid of evenly spaced frames of video file
+ * with single retriever and single pass of ascending seeks;
+ * grid tiles are decoded downscaled; grid is taken from {@link BitmapPool},
+ * tiles - only before API 27: since then retriever decodes each tile into new bitmap
+ * and it can't reuse pooled one, so such tiles are recycled after drawing
+ */
+public class VideoPreviewGenerator {
+
+    public static final int DEFAULT_MAX_TILE_SIZE = 320;
+
+    /**
+     * position of first frame, in ms
+     */
+    public static final long FIRST_FRAME_POSITION = 1;
+
+    /**
+     * position of last frame, part of duration
+     */
+    public static final double LAST_FRAME_POSITION = 0.95;
+
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(VideoPreviewGenerator.class);
+
+    private final int maxTileSize;
+
+    @NotNull
+    private final BitmapPool bitmapPool;
+
+    public VideoPreviewGenerator() {
+        this(DEFAULT_MAX_TILE_SIZE, new BitmapPool());
+    }
+
+    /**
+     * @param maxTileSize default max size of larger side of grid tile, in px
+     */
+    public VideoPreviewGenerator(int maxTileSize, @NotNull BitmapPool bitmapPool) {
+        if (maxTileSize <= 0) {
+            throw new IllegalArgumentException("incorrect max tile size: " + maxTileSize);
+        }
+        this.maxTileSize = maxTileSize;
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * @return pool where {@link Result#grid} and frames should be released
+     */
+    @NotNull
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public int getMaxTileSize() {
+        return maxTileSize;
+    }
+
+    @Nullable
+    public Result generate(@NotNull File videoFile, int gridSize) {
+        return generate(videoFile, gridSize, maxTileSize);
+    }
+
+    /**
+     * @param gridSize    count of rows and columns, 0 - don't make grid
+     * @param maxTileSize max size of larger side of grid tile, in px
+     * @return null if video can't be opened or has no frames
+     */
+    @Nullable
+    public Result generate(@NotNull File videoFile, int gridSize, int maxTileSize) {
+        if (gridSize < 0) {
+            throw new IllegalArgumentException("incorrect grid size: " + gridSize);
+        }
+        if (maxTileSize <= 0) {
+            throw new IllegalArgumentException("incorrect max tile size: " + maxTileSize);
+        }
+        final long startTime = System.nanoTime();
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(videoFile.getAbsolutePath());
+            final long duration = parseDuration(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            final long openTime = System.nanoTime();
+
+            final int tilesCount = gridSize * gridSize;
+            // positions in us: first frame, grid tiles, last frame - ascending
+            final long[] positions = new long[tilesCount + 2];
+            positions[0] = TimeUnit.MILLISECONDS.toMicros(FIRST_FRAME_POSITION);
+            for (int i = 0; i < tilesCount; i++) {
+                positions[i + 1] = TimeUnit.MILLISECONDS.toMicros((long) (duration * (i + 0.5) / tilesCount));
+            }
+            positions[positions.length - 1] = TimeUnit.MILLISECONDS.toMicros((long) (duration * LAST_FRAME_POSITION));
+            final Integer[] order = new Integer[positions.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> Long.compare(positions[i1], positions[i2]));
+
+            final Bitmap[] frames = new Bitmap[positions.length];
+            int tileWidth = 0;
+            int tileHeight = 0;
+            int extractedCount = 0;
+            for (int index : order) {
+                final boolean isTile = index > 0 && index < positions.length - 1;
+                final Bitmap frame;
+                if (isTile && tileWidth > 0) {
+                    frame = extractScaledFrame(retriever, positions[index], tileWidth, tileHeight, bitmapPool);
+                } else {
+                    frame = retriever.getFrameAtTime(positions[index], MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                }
+                if (frame != null) {
+                    extractedCount++;
+                    if (tileWidth == 0) {
+                        final float scale = Math.min(1f, (float) maxTileSize / Math.max(frame.getWidth(), frame.getHeight()));
+                        tileWidth = Math.max(1, Math.round(frame.getWidth() * scale));
+                        tileHeight = Math.max(1, Math.round(frame.getHeight() * scale));
+                    }
+                }
+                frames[index] = frame;
+            }
+            final long extractTime = System.nanoTime();
+
+            if (extractedCount == 0) {
+                logger.e("no frames were extracted from video file " + videoFile);
+                return null;
+            }
+
+            Bitmap grid = null;
+            if (tilesCount > 0) {
+                final boolean isPooledTiles = !isScaledFrameSupported();
+                grid = bitmapPool.obtain(tileWidth * gridSize, tileHeight * gridSize, Bitmap.Config.ARGB_8888);
+                final Canvas canvas = new Canvas(grid);
+                final Rect dst = new Rect();
+                for (int i = 0; i < tilesCount; i++) {
+                    final Bitmap tile = frames[i + 1];
+                    if (tile != null) {
+                        final int left = (i % gridSize) * tileWidth;
+                        final int top = (i / gridSize) * tileHeight;
+                        dst.set(left, top, left + tileWidth, top + tileHeight);
+                        canvas.drawBitmap(tile, null, dst, SCALE_PAINT);
+                        if (isPooledTiles) {
+                            bitmapPool.release(tile);
+                        } else {
+                            tile.recycle();
+                        }
+                    }
+                }
+            }
+            final long endTime = System.nanoTime();
+
+            final Timing timing = new Timing(
+                    TimeUnit.NANOSECONDS.toMillis(openTime - startTime),
+                    TimeUnit.NANOSECONDS.toMillis(extractTime - openTime),
+                    TimeUnit.NANOSECONDS.toMillis(endTime - extractTime),
+                    TimeUnit.NANOSECONDS.toMillis(endTime - startTime),
+                    extractedCount);
+            logger.d("video preview of " + videoFile + " generated: " + timing);
+            return new Result(frames[0], frames[frames.length - 1], grid, duration, timing);
+
+        } catch (RuntimeException e) {
+            logger.e("a RuntimeException occurred during generate(): " + e.getMessage(), e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during release(): " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * decoder scales frame since API 27, returned bitmap is newly allocated and not from pool
+     */
+    private static boolean isScaledFrameSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1;
+    }
+
+    /**
+     * on older versions full frame is drawn into pooled tile and recycled immediately
+     */
+    @Nullable
+    private static Bitmap extractScaledFrame(@NotNull MediaMetadataRetriever retriever, long position, int width, int height, @NotNull BitmapPool pool) {
+        if (isScaledFrameSupported()) {
+            // decoder scales, full frame is not allocated
+            return retriever.getScaledFrameAtTime(position, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+        }
+        final Bitmap frame = retriever.getFrameAtTime(position, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null || frame.getWidth() == width && frame.getHeight() == height) {
+            return frame;
+        }
+        final Bitmap scaled = pool.obtain(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(scaled).drawBitmap(frame, null, new Rect(0, 0, width, height), SCALE_PAINT);
+        frame.recycle();
+        return scaled;
+    }
+
+    private static long parseDuration(@Nullable String duration) {
+        if (duration != null) {
+            try {
+                return Math.max(0, Long.parseLong(duration));
+            } catch (NumberFormatException e) {
+                logger.e("a NumberFormatException occurred during parseLong(): " + e.getMessage(), e);
+            }
+        }
+        return 0;
+    }
+
+    public static final class Result {
+
+        @Nullable
+        public final Bitmap firstFrame;
+
+        @Nullable
+        public final Bitmap lastFrame;
+
+        /**
+         * null if grid was not requested; should be released to {@link #getBitmapPool()} after use
+         */
+        @Nullable
+        public final Bitmap grid;
+
+        /**
+         * in ms
+         */
+        public final long duration;
+
+        @NotNull
+        public final Timing timing;
+
+        Result(@Nullable Bitmap firstFrame, @Nullable Bitmap lastFrame, @Nullable Bitmap grid, long duration, @NotNull Timing timing) {
+            this.firstFrame = firstFrame;
+            this.lastFrame = lastFrame;
+            this.grid = grid;
+            this.duration = duration;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * Durations of generation steps, in ms
+     */
+    public static final class Timing {
+
+        /**
+         * set data source and read metadata
+         */
+        public final long openTime;
+
+        /**
+         * all seeks and frame decodes
+         */
+        public final long extractTime;
+
+        /**
+         * drawing of grid
+         */
+        public final long composeTime;
+
+        public final long totalTime;
+
+        public final int framesCount;
+
+        public Timing(long openTime, long extractTime, long composeTime, long totalTime, int framesCount) {
+            this.openTime = openTime;
+            this.extractTime = extractTime;
+            this.composeTime = composeTime;
+            this.totalTime = totalTime;
+            this.framesCount = framesCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Timing{" +
+                    "openTime=" + openTime +
+                    ", extractTime=" + extractTime +
+                    ", composeTime=" + composeTime +
+                    ", totalTime=" + totalTime +
+                    ", framesCount=" + framesCount +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.maxsmr.cameracontroller.camera.settings.video;
+
+import android.graphics.Bitmap;
+
+/**
+ * Output format of video preview grid
+ */
+public enum PreviewFormat {
+
+    JPEG(Bitmap.CompressFormat.JPEG, 85, ".jpg"),
+
+    WEBP(Bitmap.CompressFormat.WEBP, 80, ".webp"),
+
+    /**
+     * lossless, quality is ignored
+     */
+    PNG(Bitmap.CompressFormat.PNG, 100, ".png");
+
+    public static final PreviewFormat DEFAULT = JPEG;
+
+    private final Bitmap.CompressFormat compressFormat;
+
+    private final int defaultQuality;
+
+    private final String extension;
+
+    PreviewFormat(Bitmap.CompressFormat compressFormat, int defaultQuality, String extension) {
+        this.compressFormat = compressFormat;
+        this.defaultQuality = defaultQuality;
+        this.extension = extension;
+    }
+
+    public Bitmap.CompressFormat getCompressFormat() {
+        return compressFormat;
+    }
+
+    public int getDefaultQuality() {
+        return defaultQuality;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public boolean isLossless() {
+        return this == PNG;
+    }
+}
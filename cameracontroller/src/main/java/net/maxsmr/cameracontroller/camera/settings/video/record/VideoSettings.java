@@ -6,12 +6,16 @@ import android.media.CamcorderProfile;
 import com.google.gson.annotations.Expose;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 import net.maxsmr.cameracontroller.camera.settings.ColorEffect;
 import net.maxsmr.cameracontroller.camera.settings.FlashMode;
 import net.maxsmr.cameracontroller.camera.settings.FocusMode;
 import net.maxsmr.cameracontroller.camera.settings.video.AudioEncoder;
+import net.maxsmr.cameracontroller.camera.settings.video.PreviewFormat;
 import net.maxsmr.cameracontroller.camera.settings.video.VideoEncoder;
 import net.maxsmr.cameracontroller.camera.settings.video.VideoQuality;
 import net.maxsmr.commonutils.logger.BaseLogger;
@@ -33,10 +37,25 @@ public class VideoSettings implements Serializable {
 
     public static final int DEFAULT_PREVIEW_GRID_SIZE = 3;
 
+    /**
+     * larger side of preview grid tile, in px
+     */
+    public static final int DEFAULT_PREVIEW_TILE_SIZE = 320;
+
+    /**
+     * no limit for preview size or encode time
+     */
+    public static final long PREVIEW_BUDGET_UNLIMITED = 0;
+
     public static final boolean DEFAULT_ENABLE_MAKE_PREVIEW = true;
 
     public static final boolean DEFAULT_DISABLE_AUDIO = false;
 
+    /**
+     * version of {@link #writeTo(DataOutput)} format
+     */
+    private static final int BINARY_VERSION = 1;
+
     private VideoQuality quality = VideoQuality.DEFAULT;
 
     private VideoEncoder videoEncoder = VideoEncoder.DEFAULT;
@@ -55,6 +74,14 @@ public class VideoSettings implements Serializable {
 
     private int previewGridSize = DEFAULT_PREVIEW_GRID_SIZE;
 
+    private PreviewFormat previewFormat = PreviewFormat.DEFAULT;
+
+    private int previewTileSize = DEFAULT_PREVIEW_TILE_SIZE;
+
+    private long previewMaxBytes = PREVIEW_BUDGET_UNLIMITED;
+
+    private long previewMaxEncodeTime = PREVIEW_BUDGET_UNLIMITED;
+
     /** default */
     public VideoSettings() {
     }
@@ -193,4 +220,116 @@ public class VideoSettings implements Serializable {
         this.previewGridSize = previewGridSize;
         return true;
     }
+
+    public PreviewFormat getPreviewFormat() {
+        // may be absent in settings serialized by older versions
+        return previewFormat != null ? previewFormat : PreviewFormat.DEFAULT;
+    }
+
+    public void setPreviewFormat(PreviewFormat previewFormat) {
+        if (previewFormat != null)
+            this.previewFormat = previewFormat;
+    }
+
+    public int getPreviewTileSize() {
+        return previewTileSize > 0 ? previewTileSize : DEFAULT_PREVIEW_TILE_SIZE;
+    }
+
+    /**
+     * @param previewTileSize larger side of each grid tile, frames are decoded at this size
+     */
+    public boolean setPreviewTileSize(int previewTileSize) {
+        if (previewTileSize <= 0) {
+            return false;
+        }
+        this.previewTileSize = previewTileSize;
+        return true;
+    }
+
+    public long getPreviewMaxBytes() {
+        return previewMaxBytes;
+    }
+
+    /**
+     * @param previewMaxBytes lossy formats are re-encoded with lower quality to fit,
+     *                        lossless one is replaced with {@link PreviewFormat#JPEG};
+     *                        {@link #PREVIEW_BUDGET_UNLIMITED} - no limit
+     */
+    public boolean setPreviewMaxBytes(long previewMaxBytes) {
+        if (previewMaxBytes < 0) {
+            return false;
+        }
+        this.previewMaxBytes = previewMaxBytes;
+        return true;
+    }
+
+    public long getPreviewMaxEncodeTime() {
+        return previewMaxEncodeTime;
+    }
+
+    /**
+     * @param previewMaxEncodeTime time in ms after which no more re-encode attempts are made to fit size budget;
+     *                             {@link #PREVIEW_BUDGET_UNLIMITED} - no limit
+     */
+    public boolean setPreviewMaxEncodeTime(long previewMaxEncodeTime) {
+        if (previewMaxEncodeTime < 0) {
+            return false;
+        }
+        this.previewMaxEncodeTime = previewMaxEncodeTime;
+        return true;
+    }
+
+    /**
+     * writes compact binary form, enums are stored by name
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(BINARY_VERSION);
+        out.writeUTF(quality.name());
+        out.writeUTF(videoEncoder.name());
+        out.writeUTF(audioEncoder.name());
+        out.writeBoolean(disableAudio);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(frameRate);
+        out.writeBoolean(enableMakePreview);
+        out.writeInt(previewGridSize);
+        out.writeUTF(getPreviewFormat().name());
+        out.writeInt(getPreviewTileSize());
+        out.writeLong(previewMaxBytes);
+        out.writeLong(previewMaxEncodeTime);
+    }
+
+    /**
+     * reads settings written by {@link #writeTo(DataOutput)}; quality is restored without profile check
+     */
+    public static VideoSettings readFrom(DataInput in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("unsupported video settings version: " + version);
+        }
+        final VideoSettings settings = new VideoSettings();
+        settings.quality = valueOf(VideoQuality.class, in.readUTF(), VideoQuality.DEFAULT);
+        settings.videoEncoder = valueOf(VideoEncoder.class, in.readUTF(), VideoEncoder.DEFAULT);
+        settings.audioEncoder = valueOf(AudioEncoder.class, in.readUTF(), AudioEncoder.DEFAULT);
+        settings.disableAudio = in.readBoolean();
+        settings.width = in.readInt();
+        settings.height = in.readInt();
+        settings.frameRate = in.readInt();
+        settings.enableMakePreview = in.readBoolean();
+        settings.previewGridSize = in.readInt();
+        settings.previewFormat = valueOf(PreviewFormat.class, in.readUTF(), PreviewFormat.DEFAULT);
+        settings.previewTileSize = in.readInt();
+        settings.previewMaxBytes = in.readLong();
+        settings.previewMaxEncodeTime = in.readLong();
+        return settings;
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> enumClass, String name, E defaultValue) {
+        try {
+            return Enum.valueOf(enumClass, name);
+        } catch (IllegalArgumentException e) {
+            logger.e("unknown " + enumClass.getSimpleName() + " value: " + name);
+            return defaultValue;
+        }
+    }
 }
@@ -5,18 +5,22 @@ import android.os.Looper;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import net.maxsmr.cameracontroller.frame.estimator.IFpsEstimator;
+import net.maxsmr.cameracontroller.frame.estimator.SlidingWindowFpsEstimator;
+import net.maxsmr.cameracontroller.frame.stats.FrameIntervalHistogram;
 import net.maxsmr.cameracontroller.frame.stats.FrameStats;
+import net.maxsmr.cameracontroller.frame.stats.FrameStatsHistory;
 import net.maxsmr.cameracontroller.frame.stats.IFrameStatsListener;
 import net.maxsmr.commonutils.data.Observable;
-import net.maxsmr.commonutils.data.number.MathUtils;
 import net.maxsmr.commonutils.logger.BaseLogger;
 import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class FrameCalculator implements IFrameCallback {
 
@@ -24,15 +28,33 @@ public class FrameCalculator implements IFrameCallback {
 
     public static final long DEFAULT_NOTIFY_INTERVAL = DEFAULT_CALCULATE_INTERVAL;
 
+    /**
+     * gap longer than nominal frame interval multiplied by this value is considered as drop
+     */
+    public static final double DEFAULT_DROP_THRESHOLD = 1.5;
+
+    /**
+     * frame times buffered for {@link CalculationMode#SHARED_THREAD}, must be power of two
+     */
+    private static final int PENDING_FRAMES_CAPACITY = 256;
+
     private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(FrameCalculator.class);
 
     private final Object sync = new Object();
 
     private final FrameStatsObservable frameStatsObservable = new FrameStatsObservable();
 
+    /**
+     * reused for each notification, so that steady state doesn't allocate
+     */
+    private final NotifyRunnable notifyRunnable = new NotifyRunnable();
+
     private Handler notifyHandler;
 
-    private ExecutorService calcExecutor;
+    private volatile ExecutorService calcExecutor;
+
+    @NotNull
+    private volatile CalculationMode calculationMode = CalculationMode.EXECUTOR;
 
     /**
      * in ms
@@ -45,9 +67,15 @@ public class FrameCalculator implements IFrameCallback {
     private long notifyInterval = DEFAULT_NOTIFY_INTERVAL;
 
     @Nullable
-    private FrameStats lastStats;
+    private volatile FrameStats lastStats;
+
+    private volatile boolean isStreamStarted;
 
-    private boolean isStreamStarted;
+    /**
+     * set by {@link #notifySteamStarted()}, counters are reset by the thread accounting frames,
+     * so they are never written concurrently with {@link #handleFrame(long)}
+     */
+    private volatile boolean resetRequested;
 
     /**
      * in ms
@@ -60,7 +88,7 @@ public class FrameCalculator implements IFrameCallback {
     private long startIntervalTime;
 
     /**
-     * in ms
+     * in ns
      */
     private long lastNotifyTime;
 
@@ -70,19 +98,79 @@ public class FrameCalculator implements IFrameCallback {
     private long lastFrameTime;
 
     private int intervalFrames;
-    private double lastFps;
+    private volatile double lastFps;
 
+    /**
+     * sum of frame times during current interval, in ns
+     */
+    private long intervalFrameTimesSum;
+    private int intervalFrameTimesCount;
     /**
      * in ns
      */
-    private final List<Long> frameTimesDuringInterval = new ArrayList<>();
+    private volatile double lastAverageFrameTimeDuringInterval;
+
+    /**
+     * frame intervals during current calculate interval
+     */
+    private final FrameIntervalHistogram intervalHistogram = new FrameIntervalHistogram();
+
+    /**
+     * frame intervals since stream start
+     */
+    private final FrameIntervalHistogram sessionHistogram = new FrameIntervalHistogram();
+
+    /**
+     * expected fps range, 0 if unknown
+     */
+    private volatile int expectedMinFps = 0;
+    private volatile int expectedMaxFps = 0;
+
+    private double dropThreshold = DEFAULT_DROP_THRESHOLD;
+
+    /**
+     * in ns, 0 if not measured yet
+     */
+    private long nominalFrameInterval;
+
+    private long intervalDroppedFrames;
+    private volatile long totalDroppedFrames;
+
     /**
      * in ns
      */
-    private double lastAverageFrameTimeDuringInterval;
+    private volatile long longestStall;
+
+    /**
+     * updated on every frame, unlike fixed interval {@link #lastFps}
+     */
+    @NotNull
+    private volatile IFpsEstimator fpsEstimator = new SlidingWindowFpsEstimator();
+
+    private volatile double estimatedFps;
+
+    private volatile int estimatedFpsSamples;
+
+    private final List<MeasuredFpsFuture> measuredFpsFutures = new CopyOnWriteArrayList<>();
+
+    /**
+     * single producer / single consumer ring of frame times in ns for {@link CalculationMode#SHARED_THREAD}
+     */
+    private final long[] pendingFrameTimes = new long[PENDING_FRAMES_CAPACITY];
+
+    private final AtomicLong pendingHead = new AtomicLong();
+
+    private final AtomicLong pendingTail = new AtomicLong();
+
+    private volatile long overflowedFrames;
 
     private long lastNotifyFramesCount;
 
+    /**
+     * per-interval samples, survives stream restarts
+     */
+    private final FrameStatsHistory statsHistory = new FrameStatsHistory();
+
     private long totalFrames;
     private long totalFpsSum;
     private int totalFpsCount = 0;
@@ -97,6 +185,131 @@ public class FrameCalculator implements IFrameCallback {
         notifyHandler = new Handler(notifyLooper);
     }
 
+    public int getExpectedMinFps() {
+        return expectedMinFps;
+    }
+
+    public int getExpectedMaxFps() {
+        return expectedMaxFps;
+    }
+
+    /**
+     * Sets configured or negotiated fps range used for dropped frames inference:
+     * nominal frame interval is measured median clamped to this range,
+     * so drops are counted from the second calculate interval; 0 - unknown, drops are not counted
+     */
+    public void setExpectedFpsRange(int minFps, int maxFps) {
+        if (minFps < 0 || maxFps < 0 || (maxFps > 0 && minFps > maxFps)) {
+            throw new IllegalArgumentException("incorrect fps range: " + minFps + ".." + maxFps);
+        }
+        synchronized (sync) {
+            expectedMinFps = minFps > 0 ? minFps : maxFps;
+            expectedMaxFps = maxFps;
+            nominalFrameInterval = 0;
+        }
+    }
+
+    public double getDropThreshold() {
+        return dropThreshold;
+    }
+
+    public void setDropThreshold(double dropThreshold) {
+        if (dropThreshold <= 1) {
+            throw new IllegalArgumentException("incorrect drop threshold: " + dropThreshold);
+        }
+        this.dropThreshold = dropThreshold;
+    }
+
+    public long getTotalDroppedFrames() {
+        return totalDroppedFrames;
+    }
+
+    /**
+     * @return longest gap between frames since stream start, in ms
+     */
+    public double getLongestStall() {
+        return longestStall / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @NotNull
+    public IFpsEstimator getFpsEstimator() {
+        return fpsEstimator;
+    }
+
+    /**
+     * @param fpsEstimator will be reset and fed on calculation thread from next frame
+     */
+    public void setFpsEstimator(@NotNull IFpsEstimator fpsEstimator) {
+        synchronized (sync) {
+            fpsEstimator.reset();
+            this.fpsEstimator = fpsEstimator;
+            estimatedFps = 0;
+            estimatedFpsSamples = 0;
+        }
+    }
+
+    /**
+     * @return fps from {@link #getFpsEstimator()}, updated on every frame; 0 if not enough frames yet
+     */
+    public double getEstimatedFps() {
+        return estimatedFps;
+    }
+
+    /**
+     * @return number of frames {@link #getEstimatedFps()} is based on
+     */
+    public int getEstimatedFpsSamplesCount() {
+        return estimatedFpsSamples;
+    }
+
+    /**
+     * Non-blocking way to wait for usable fps estimate
+     *
+     * @param minSamples min frames estimate should be based on
+     * @param tolerance  max relative change of estimate during last minSamples / 2 frames
+     * @param timeout    in ms, after that future completes with the best available estimate (not confident)
+     */
+    @NotNull
+    public MeasuredFpsFuture requestMeasuredFps(int minSamples, double tolerance, long timeout, @Nullable MeasuredFpsFuture.IMeasuredFpsListener listener) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("incorrect timeout: " + timeout);
+        }
+        final MeasuredFpsFuture future = new MeasuredFpsFuture(minSamples, tolerance, listener);
+        measuredFpsFutures.add(future);
+        notifyHandler.postDelayed(() -> {
+            measuredFpsFutures.remove(future);
+            future.onTimeout();
+        }, timeout);
+        return future;
+    }
+
+    @NotNull
+    public CalculationMode getCalculationMode() {
+        return calculationMode;
+    }
+
+    /**
+     * Applied at once: if stream is started, frames are accounted on thread of new mode from next frame
+     * and counters are reset
+     */
+    public void setCalculationMode(@NotNull CalculationMode calculationMode) {
+        synchronized (sync) {
+            if (this.calculationMode == calculationMode) {
+                return;
+            }
+            this.calculationMode = calculationMode;
+            if (isStreamStarted) {
+                // previous writer may still hold old counters
+                resetRequested = true;
+                if (calculationMode == CalculationMode.EXECUTOR) {
+                    startExec();
+                } else {
+                    stopExec();
+                }
+            }
+        }
+    }
+
     @NotNull
     public Observable<IFrameStatsListener> getFrameStatsObservable() {
         return frameStatsObservable;
@@ -132,7 +345,7 @@ public class FrameCalculator implements IFrameCallback {
 
     public void setNotifyHandler(Handler notifyHandler) {
         if (notifyHandler == null) {
-            this.notifyHandler = new Handler(Looper.getMainLooper());
+            notifyHandler = new Handler(Looper.getMainLooper());
         }
         this.notifyHandler = notifyHandler;
     }
@@ -142,14 +355,28 @@ public class FrameCalculator implements IFrameCallback {
         return lastStats;
     }
 
+    @NotNull
+    public FrameStatsHistory getStatsHistory() {
+        return statsHistory;
+    }
+
     public boolean isStreamStarted() {
         return isStreamStarted;
     }
 
     public void notifySteamStarted() {
         synchronized (sync) {
-            resetAllCounters();
-            startExec();
+            resetRequested = true;
+            // published values of previous stream must not be seen until first frame
+            lastStats = null;
+            lastFps = 0;
+            estimatedFps = 0;
+            estimatedFpsSamples = 0;
+            if (calculationMode == CalculationMode.EXECUTOR) {
+                startExec();
+            } else {
+                stopExec();
+            }
             startStreamTime = System.currentTimeMillis();
             isStreamStarted = true;
         }
@@ -191,17 +418,79 @@ public class FrameCalculator implements IFrameCallback {
 
     public double getAverageFpsMethod2() {
         long currentTime = System.currentTimeMillis();
-        long measureTime = startStreamTime > 0 ? (currentTime - startStreamTime) / 1000 : 0;
-        return measureTime > 0 ? (double) totalFrames / measureTime : lastFps;
+        long measureTime = startStreamTime > 0 ? currentTime - startStreamTime : 0;
+        return measureTime > 0 ? (double) (totalFrames + intervalFrames) * TimeUnit.SECONDS.toMillis(1) / measureTime : lastFps;
+    }
+
+    /**
+     * @return frames not accounted in {@link CalculationMode#SHARED_THREAD} because ring was full
+     */
+    public long getOverflowedFrames() {
+        return overflowedFrames;
+    }
+
+    /**
+     * Accounts frames buffered since previous call;
+     * for {@link CalculationMode#SHARED_THREAD} only, must be called from single thread
+     *
+     * @return number of handled frames
+     */
+    public int drainPendingFrames() {
+        if (calculationMode != CalculationMode.SHARED_THREAD) {
+            // switched by setCalculationMode(), frames are accounted by other thread now
+            return 0;
+        }
+        applyResetRequest();
+        final long tail = pendingTail.get();
+        long head = pendingHead.get();
+        int count = 0;
+        while (head < tail) {
+            final long time = pendingFrameTimes[(int) (head & (PENDING_FRAMES_CAPACITY - 1))];
+            head++;
+            pendingHead.lazySet(head);
+            if (isStreamStarted) {
+                if (startIntervalTime == 0) {
+                    startIntervalTime = time;
+                }
+                handleFrame(time);
+            }
+            count++;
+        }
+        return count;
     }
 
     @Override
     public long onFrame() {
         long time = 0;
-        synchronized (sync) {
-            if (isStreamStarted()) {
+        final CalculationMode calculationMode = this.calculationMode;
+        if (calculationMode == CalculationMode.SHARED_THREAD && calcExecutor == null) {
+            if (isStreamStarted) {
+                time = System.nanoTime();
+                final long tail = pendingTail.get();
+                if (tail - pendingHead.get() < PENDING_FRAMES_CAPACITY) {
+                    pendingFrameTimes[(int) (tail & (PENDING_FRAMES_CAPACITY - 1))] = time;
+                    // publishes frame time to draining thread
+                    pendingTail.lazySet(tail + 1);
+                } else {
+                    overflowedFrames++;
+                }
+            }
+        } else if (calculationMode == CalculationMode.SINGLE_WRITER && calcExecutor == null) {
+            // caller thread is the only writer: no lock, no allocations
+            if (isStreamStarted) {
                 time = System.nanoTime();
-                calcExecutor.execute(new FrameLogRunnable(time));
+                applyResetRequest();
+                if (startIntervalTime == 0) {
+                    startIntervalTime = time;
+                }
+                handleFrame(time);
+            }
+        } else {
+            synchronized (sync) {
+                if (isStreamStarted() && calcExecutor != null) {
+                    time = System.nanoTime();
+                    calcExecutor.execute(new FrameLogRunnable(calcExecutor, time));
+                }
             }
         }
         return time;
@@ -223,101 +512,259 @@ public class FrameCalculator implements IFrameCallback {
         }
     }
 
+    /**
+     * must be called by the thread accounting frames
+     */
+    private void applyResetRequest() {
+        if (resetRequested) {
+            resetRequested = false;
+            resetAllCounters();
+        }
+    }
+
     private void resetAllCounters() {
-        synchronized (sync) {
+        lastStats = null;
+
+        totalFrames = 0;
+
+        lastFrameTime = 0;
+        lastAverageFrameTimeDuringInterval = 0;
+        intervalFrameTimesSum = 0;
+        intervalFrameTimesCount = 0;
+        intervalHistogram.reset();
+        sessionHistogram.reset();
+        nominalFrameInterval = 0;
+        fpsEstimator.reset();
+        estimatedFps = 0;
+        estimatedFpsSamples = 0;
+        intervalDroppedFrames = 0;
+        totalDroppedFrames = 0;
+        longestStall = 0;
+        totalFrameTimeSum = 0;
+        totalFrameTimesCount = 0;
+
+        intervalFrames = 0;
+        startIntervalTime = 0;
+        lastFps = 0;
+        totalFpsSum = 0;
+        totalFpsCount = 0;
+
+        lastNotifyFramesCount = 0;
+        lastNotifyTime = 0;
+
+        pendingHead.set(pendingTail.get());
+        overflowedFrames = 0;
+    }
 
-            lastStats = null;
+    /**
+     * Accounts frame, must be called by single thread at a time
+     *
+     * @param eventTime in ns
+     */
+    private void handleFrame(long eventTime) {
 
-            startStreamTime = 0;
-            totalFrames = 0;
+        if (eventTime < startIntervalTime) {
+            logger.e("event time (" + eventTime + ") < start interval time (" + startIntervalTime + ")");
+            return;
+        }
+
+        if (lastFrameTime != 0 && lastFrameTime < eventTime) {
+            final long frameInterval = eventTime - lastFrameTime;
+            intervalFrameTimesSum += frameInterval;
+            intervalFrameTimesCount++;
+            intervalHistogram.record(frameInterval);
+            sessionHistogram.record(frameInterval);
+            accountDrops(frameInterval);
+        }
+        lastFrameTime = eventTime;
+
+        final IFpsEstimator fpsEstimator = this.fpsEstimator;
+        fpsEstimator.onFrame(eventTime);
+        estimatedFps = fpsEstimator.getFps();
+        estimatedFpsSamples = fpsEstimator.getSamplesCount();
+        notifyMeasuredFpsFutures();
+
+        intervalFrames++;
+        if (eventTime - startIntervalTime >= TimeUnit.MILLISECONDS.toNanos(calculateInterval)) {
 
-            lastFrameTime = 0;
-            lastAverageFrameTimeDuringInterval = 0;
-            frameTimesDuringInterval.clear();
-            totalFrameTimeSum = 0;
-            totalFrameTimesCount = 0;
+            double scale = TimeUnit.SECONDS.toMillis(1) / (double) calculateInterval;
 
+            lastAverageFrameTimeDuringInterval = intervalFrameTimesCount > 0 ? (double) intervalFrameTimesSum / intervalFrameTimesCount : 0;
+            totalFrameTimeSum += lastAverageFrameTimeDuringInterval;
+            totalFrameTimesCount++;
+            intervalFrameTimesSum = 0;
+            intervalFrameTimesCount = 0;
+
+            totalFrames += intervalFrames;
+            lastFps = intervalFrames * scale;
+            totalFpsSum += lastFps;
+            totalFpsCount++;
             intervalFrames = 0;
+
             startIntervalTime = 0;
-            lastFps = 0;
-            totalFpsSum = 0;
-            totalFpsCount = 0;
 
-            lastNotifyFramesCount = 0;
+            updateNominalFrameInterval();
+
+            final FrameStats lastStats = new FrameStats(startStreamTime, lastFps, TimeUnit.NANOSECONDS.toMillis((long) lastAverageFrameTimeDuringInterval), getAverageFpsMethod1(), getAverageFrameTime(),
+                    intervalHistogram.toStats(), sessionHistogram.toStats(),
+                    intervalDroppedFrames, totalDroppedFrames, getLongestStall());
+            intervalHistogram.reset();
+            intervalDroppedFrames = 0;
+            this.lastStats = lastStats;
+            // monotonic clock: wall-clock time may go backwards
+            statsHistory.record(TimeUnit.NANOSECONDS.toMillis(eventTime), lastStats);
+            logger.d("current frame time: " + lastStats.lastAverageFrameTime +
+                    " ms / overall average frame time: " + lastStats.overallAverageFrameTime + " ms");
+            logger.d("current fps: " + lastStats.lastFps + " / overall average fps: " + lastStats.overallAverageFps);
+            logger.d("current frame intervals: " + lastStats.lastIntervalStats);
+            if (lastStats.lastDroppedFrames > 0) {
+                logger.w("dropped frames: " + lastStats.lastDroppedFrames + " / overall: " + lastStats.overallDroppedFrames
+                        + ", longest stall: " + lastStats.longestStall + " ms");
+            }
         }
+
+        final FrameStats lastStats = this.lastStats;
+        if (lastStats != null) {
+            if (notifyInterval == 0 || (lastNotifyTime <= 0 || (eventTime - lastNotifyTime) >= TimeUnit.MILLISECONDS.toNanos(notifyInterval))) {
+                notifyRunnable.update(lastStats, totalFrames - lastNotifyFramesCount);
+                notifyHandler.removeCallbacks(notifyRunnable);
+                notifyHandler.post(notifyRunnable);
+                lastNotifyTime = eventTime;
+                lastNotifyFramesCount = totalFrames;
+            }
+        }
+    }
+
+    private void notifyMeasuredFpsFutures() {
+        // indexed loop: no iterator allocation on each frame
+        for (int i = measuredFpsFutures.size() - 1; i >= 0; i--) {
+            final MeasuredFpsFuture future;
+            try {
+                future = measuredFpsFutures.get(i);
+            } catch (IndexOutOfBoundsException e) {
+                // removed concurrently by timeout
+                continue;
+            }
+            if (future.onEstimate(estimatedFps, estimatedFpsSamples)) {
+                measuredFpsFutures.remove(future);
+            }
+        }
+    }
+
+    /**
+     * @param frameInterval in ns
+     */
+    private void accountDrops(long frameInterval) {
+        if (frameInterval > longestStall) {
+            longestStall = frameInterval;
+        }
+        if (nominalFrameInterval == 0) {
+            // not measured yet: 1 / maxFps would count every frame of variable rate stream running at min fps as drop
+            return;
+        }
+        if (frameInterval > nominalFrameInterval * dropThreshold) {
+            final long dropped = Math.round((double) frameInterval / nominalFrameInterval) - 1;
+            if (dropped > 0) {
+                intervalDroppedFrames += dropped;
+                totalDroppedFrames += dropped;
+            }
+        }
+    }
+
+    /**
+     * nominal interval follows measured median, but stays within expected fps range,
+     * so that variable frame rate (e.g. in low light) isn't counted as drops
+     */
+    private void updateNominalFrameInterval() {
+        final int minFps = expectedMinFps;
+        final int maxFps = expectedMaxFps;
+        if (maxFps <= 0 || intervalHistogram.getTotalCount() == 0) {
+            return;
+        }
+        final long minInterval = TimeUnit.SECONDS.toNanos(1) / maxFps;
+        final long maxInterval = TimeUnit.SECONDS.toNanos(1) / minFps;
+        final long median = intervalHistogram.getPercentile(50);
+        nominalFrameInterval = Math.max(minInterval, Math.min(maxInterval, median));
     }
 
     protected class FrameLogRunnable implements Runnable {
 
+        @NotNull
+        private final ExecutorService executor;
+
         /**
          * in ns
          */
         private final long eventTime;
 
         /**
+         * @param executor  executor this runnable is submitted to
          * @param eventTime in ns
          */
-        FrameLogRunnable(long eventTime) {
+        FrameLogRunnable(@NotNull ExecutorService executor, long eventTime) {
+            this.executor = executor;
             this.eventTime = eventTime;
-            if (startIntervalTime == 0) {
-                startIntervalTime = eventTime;
-            }
         }
 
         @Override
         public void run() {
-
-            if (eventTime < startIntervalTime) {
-                logger.e("event time (" + eventTime + ") < start interval time (" + startIntervalTime + ")");
+            if (executor != calcExecutor) {
+                // left in executor which was stopped by mode change or restart
                 return;
             }
-
-            if (lastFrameTime != 0 && lastFrameTime < eventTime) {
-                frameTimesDuringInterval.add(eventTime - lastFrameTime);
+            applyResetRequest();
+            if (startIntervalTime == 0) {
+                startIntervalTime = eventTime;
             }
-            lastFrameTime = eventTime;
-
-            intervalFrames++;
-            if (eventTime - startIntervalTime >= TimeUnit.MILLISECONDS.toNanos(calculateInterval)) {
-
-                double scale = TimeUnit.SECONDS.toMillis(1) / (double) calculateInterval;
+            handleFrame(eventTime);
+        }
+    }
 
-                lastAverageFrameTimeDuringInterval = MathUtils.avg(frameTimesDuringInterval);
-                totalFrameTimeSum += lastAverageFrameTimeDuringInterval;
-                totalFrameTimesCount++;
-                frameTimesDuringInterval.clear();
+    /**
+     * Delivers the most recent stats; fields are replaced by calc thread before each post
+     */
+    private class NotifyRunnable implements Runnable {
 
-                totalFrames += intervalFrames;
-                lastFps = intervalFrames * scale;
-                totalFpsSum += lastFps;
-                totalFpsCount++;
-                intervalFrames = 0;
+        @Nullable
+        private volatile FrameStats stats;
 
-                startIntervalTime = 0;
+        private volatile long framesSinceLastNotify;
 
-                lastStats = new FrameStats(startStreamTime, lastFps, TimeUnit.NANOSECONDS.toMillis((int) lastAverageFrameTimeDuringInterval), getAverageFpsMethod1(), getAverageFrameTime());
-                logger.d("current frame time: " + lastStats.lastAverageFrameTime +
-                        " ms / overall average frame time: " + lastStats.overallAverageFrameTime + " ms");
-                logger.d("current fps: " + lastStats.lastFps + " / overall average fps: " + lastStats.overallAverageFps);
-            }
+        void update(@NotNull FrameStats stats, long framesSinceLastNotify) {
+            this.stats = stats;
+            this.framesSinceLastNotify = framesSinceLastNotify;
+        }
 
-            if (lastStats != null) {
-                if (notifyInterval == 0 || (lastNotifyTime <= 0 || (eventTime - lastNotifyTime) >= notifyInterval)) {
-                    final FrameStats lastStats = FrameCalculator.this.lastStats;
-                    final long framesSinseLastNotify = totalFrames - lastNotifyFramesCount;
-                    notifyHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            frameStatsObservable.notifyStatsUpdated(lastStats, framesSinseLastNotify);
-                        }
-                    });
-                    lastNotifyTime = eventTime;
-                }
-                lastNotifyFramesCount = totalFrames;
+        @Override
+        public void run() {
+            final FrameStats stats = this.stats;
+            if (stats != null) {
+                frameStatsObservable.notifyStatsUpdated(stats, framesSinceLastNotify);
             }
         }
     }
 
+    public enum CalculationMode {
+
+        /**
+         * each frame is posted to separate calculation thread
+         */
+        EXECUTOR,
+
+        /**
+         * frame is accounted right on the thread calling {@link #onFrame()} using primitive counters only;
+         * onFrame() must not be called from several threads at once
+         */
+        SINGLE_WRITER,
+
+        /**
+         * frame time is put into primitive ring and accounted later by {@link #drainPendingFrames()}
+         * on a thread shared by several calculators (see {@link FrameStatsRegistry});
+         * onFrame() must not be called from several threads at once
+         */
+        SHARED_THREAD
+    }
+
     private static class FrameStatsObservable extends Observable<IFrameStatsListener> {
 
         void notifyStatsUpdated(@NotNull FrameStats frameStats, long framesSinceLastNotify) {
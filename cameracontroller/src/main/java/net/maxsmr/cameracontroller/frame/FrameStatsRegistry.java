@@ -0,0 +1,260 @@
+package net.maxsmr.cameracontroller.frame;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import net.maxsmr.cameracontroller.frame.stats.FrameStats;
+import net.maxsmr.cameracontroller.frame.stats.FrameStatsSnapshot;
+import net.maxsmr.cameracontroller.frame.stats.IFrameStatsSnapshotListener;
+import net.maxsmr.commonutils.data.Observable;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates many named frame streams (cameras, fake producers):
+ * each stream is {@link FrameCalculator} in {@link FrameCalculator.CalculationMode#SHARED_THREAD} mode,
+ * so producer only puts frame time into primitive ring and all streams are calculated on one thread;
+ * combined {@link FrameStatsSnapshot} is published at fixed rate
+ */
+public class FrameStatsRegistry {
+
+    public static final long DEFAULT_PUBLISH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    public static final long DEFAULT_DRAIN_INTERVAL = 20;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(FrameStatsRegistry.class);
+
+    private final Object sync = new Object();
+
+    private final Map<String, FrameCalculator> streamsMap = new ConcurrentHashMap<>();
+
+    /**
+     * names in registration order
+     */
+    private final List<String> streamNames = new CopyOnWriteArrayList<>();
+
+    /**
+     * modes of calculators registered from outside, restored on unregister
+     */
+    private final Map<String, FrameCalculator.CalculationMode> previousModes = new HashMap<>();
+
+    private final SnapshotObservable snapshotObservable = new SnapshotObservable();
+
+    @NotNull
+    private final Handler notifyHandler;
+
+    /**
+     * in ms
+     */
+    private final long publishInterval;
+
+    /**
+     * in ms
+     */
+    private final long drainInterval;
+
+    @Nullable
+    private HandlerThread calcThread;
+
+    @Nullable
+    private Handler calcHandler;
+
+    @Nullable
+    private volatile FrameStatsSnapshot lastSnapshot;
+
+    private long lastPublishTime;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drainAll();
+            final long now = System.currentTimeMillis();
+            if (now - lastPublishTime >= publishInterval) {
+                lastPublishTime = now;
+                publish(now);
+            }
+            final Handler calcHandler = FrameStatsRegistry.this.calcHandler;
+            if (calcHandler != null) {
+                calcHandler.postDelayed(this, drainInterval);
+            }
+        }
+    };
+
+    public FrameStatsRegistry() {
+        this(Looper.getMainLooper(), DEFAULT_PUBLISH_INTERVAL, DEFAULT_DRAIN_INTERVAL);
+    }
+
+    /**
+     * @param publishInterval in ms
+     * @param drainInterval   in ms, how often buffered frames are calculated
+     */
+    public FrameStatsRegistry(@NotNull Looper notifyLooper, long publishInterval, long drainInterval) {
+        if (publishInterval <= 0) {
+            throw new IllegalArgumentException("incorrect publish interval: " + publishInterval);
+        }
+        if (drainInterval <= 0 || drainInterval > publishInterval) {
+            throw new IllegalArgumentException("incorrect drain interval: " + drainInterval);
+        }
+        this.notifyHandler = new Handler(notifyLooper);
+        this.publishInterval = publishInterval;
+        this.drainInterval = drainInterval;
+    }
+
+    @NotNull
+    public Observable<IFrameStatsSnapshotListener> getSnapshotObservable() {
+        return snapshotObservable;
+    }
+
+    @Nullable
+    public FrameStatsSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    public boolean isRunning() {
+        synchronized (sync) {
+            return calcThread != null;
+        }
+    }
+
+    public void start() {
+        synchronized (sync) {
+            if (calcThread != null) {
+                return;
+            }
+            calcThread = new HandlerThread(FrameStatsRegistry.class.getSimpleName());
+            calcThread.start();
+            calcHandler = new Handler(calcThread.getLooper());
+            lastPublishTime = System.currentTimeMillis();
+            calcHandler.postDelayed(drainRunnable, drainInterval);
+        }
+    }
+
+    public void stop() {
+        synchronized (sync) {
+            if (calcThread == null) {
+                return;
+            }
+            if (calcHandler != null) {
+                calcHandler.removeCallbacks(drainRunnable);
+                calcHandler = null;
+            }
+            calcThread.quit();
+            calcThread = null;
+        }
+    }
+
+    /**
+     * @return calculator to be used as {@link IFrameCallback} by stream producer;
+     * existing one if name is already registered
+     */
+    @NotNull
+    public FrameCalculator registerStream(@NotNull String name) {
+        synchronized (sync) {
+            FrameCalculator calculator = streamsMap.get(name);
+            if (calculator == null) {
+                logger.d("registering stream " + name);
+                calculator = new FrameCalculator(notifyHandler.getLooper());
+                calculator.setCalculationMode(FrameCalculator.CalculationMode.SHARED_THREAD);
+                streamsMap.put(name, calculator);
+                streamNames.add(name);
+            }
+            return calculator;
+        }
+    }
+
+    /**
+     * Registers existing calculator (e.g. of camera preview) under given name, replacing previously registered one;
+     * calculator is switched to {@link FrameCalculator.CalculationMode#SHARED_THREAD}, so it's drained by registry thread,
+     * its previous mode is restored by {@link #unregisterStream(String)}
+     */
+    public void registerStream(@NotNull String name, @NotNull FrameCalculator calculator) {
+        synchronized (sync) {
+            final FrameCalculator previous = streamsMap.get(name);
+            if (previous == calculator) {
+                return;
+            }
+            logger.d("registering stream " + name + " with calculator " + calculator);
+            if (previous != null) {
+                restoreMode(name, previous);
+            } else {
+                streamNames.add(name);
+            }
+            previousModes.put(name, calculator.getCalculationMode());
+            calculator.setCalculationMode(FrameCalculator.CalculationMode.SHARED_THREAD);
+            streamsMap.put(name, calculator);
+        }
+    }
+
+    public void unregisterStream(@NotNull String name) {
+        synchronized (sync) {
+            final FrameCalculator calculator = streamsMap.remove(name);
+            if (calculator != null) {
+                logger.d("unregistering stream " + name);
+                streamNames.remove(name);
+                restoreMode(name, calculator);
+            }
+        }
+    }
+
+    @Nullable
+    public FrameCalculator getStream(@NotNull String name) {
+        return streamsMap.get(name);
+    }
+
+    private void restoreMode(@NotNull String name, @NotNull FrameCalculator calculator) {
+        final FrameCalculator.CalculationMode mode = previousModes.remove(name);
+        if (mode != null) {
+            calculator.setCalculationMode(mode);
+        }
+    }
+
+    private void drainAll() {
+        for (String name : streamNames) {
+            final FrameCalculator calculator = streamsMap.get(name);
+            if (calculator != null) {
+                calculator.drainPendingFrames();
+            }
+        }
+    }
+
+    private void publish(long time) {
+        final Map<String, FrameStats> stats = new LinkedHashMap<>();
+        int count = 0;
+        for (String name : streamNames) {
+            final FrameCalculator calculator = streamsMap.get(name);
+            if (calculator != null) {
+                count++;
+                final FrameStats lastStats = calculator.getLastStats();
+                if (lastStats != null && calculator.isStreamStarted()) {
+                    stats.put(name, lastStats);
+                }
+            }
+        }
+        final FrameStatsSnapshot snapshot = new FrameStatsSnapshot(time, stats, count);
+        lastSnapshot = snapshot;
+        notifyHandler.post(() -> snapshotObservable.notifySnapshot(snapshot));
+    }
+
+    private static class SnapshotObservable extends Observable<IFrameStatsSnapshotListener> {
+
+        void notifySnapshot(@NotNull FrameStatsSnapshot snapshot) {
+            synchronized (observers) {
+                for (IFrameStatsSnapshotListener l : observers) {
+                    l.onFrameStatsSnapshot(snapshot);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package net.maxsmr.cameracontroller.frame;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Completes as soon as fps estimate of {@link FrameCalculator} is stable:
+ * it's based on enough frames and didn't change more than tolerance during last frames;
+ * on timeout completes with the best estimate available, marked as not confident
+ */
+public class MeasuredFpsFuture implements Future<Double> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final int minSamples;
+
+    private final double tolerance;
+
+    @Nullable
+    private final IMeasuredFpsListener listener;
+
+    /**
+     * estimate that following ones are compared with
+     */
+    private double anchorFps;
+
+    private int stableFrames;
+
+    private volatile double fps;
+
+    private volatile boolean isConfident;
+
+    private volatile boolean isCancelled;
+
+    MeasuredFpsFuture(int minSamples, double tolerance, @Nullable IMeasuredFpsListener listener) {
+        if (minSamples < 2) {
+            throw new IllegalArgumentException("incorrect min samples: " + minSamples);
+        }
+        if (tolerance <= 0) {
+            throw new IllegalArgumentException("incorrect tolerance: " + tolerance);
+        }
+        this.minSamples = minSamples;
+        this.tolerance = tolerance;
+        this.listener = listener;
+    }
+
+    /**
+     * @return true if completed by stable estimate, false - by timeout or not completed yet
+     */
+    public boolean isConfident() {
+        return isConfident;
+    }
+
+    /**
+     * @return last known estimate, even if not completed yet
+     */
+    public double getCurrentFps() {
+        return fps;
+    }
+
+    /**
+     * called on calculation thread on every frame
+     *
+     * @return true if completed
+     */
+    boolean onEstimate(double estimatedFps, int samplesCount) {
+        if (isDone()) {
+            return true;
+        }
+        if (estimatedFps <= 0) {
+            return false;
+        }
+        fps = estimatedFps;
+        if (anchorFps > 0 && Math.abs(estimatedFps - anchorFps) / anchorFps <= tolerance) {
+            stableFrames++;
+        } else {
+            anchorFps = estimatedFps;
+            stableFrames = 0;
+        }
+        if (samplesCount >= minSamples && stableFrames >= minSamples / 2) {
+            complete(true);
+            return true;
+        }
+        return false;
+    }
+
+    void onTimeout() {
+        if (!isDone()) {
+            complete(false);
+        }
+    }
+
+    private void complete(boolean confident) {
+        synchronized (latch) {
+            if (latch.getCount() == 0) {
+                return;
+            }
+            isConfident = confident;
+            latch.countDown();
+        }
+        if (listener != null && !isCancelled) {
+            listener.onMeasuredFpsReady(fps, confident);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (latch) {
+            if (latch.getCount() == 0) {
+                return false;
+            }
+            isCancelled = true;
+            latch.countDown();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * @return fps, 0 if there was no estimate at all
+     * @throws CancellationException if was cancelled, last estimate is still available by {@link #getCurrentFps()}
+     */
+    @NotNull
+    @Override
+    public Double get() throws InterruptedException {
+        latch.await();
+        checkNotCancelled();
+        return fps;
+    }
+
+    @NotNull
+    @Override
+    public Double get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("fps is not measured in " + unit.toMillis(timeout) + " ms");
+        }
+        checkNotCancelled();
+        return fps;
+    }
+
+    private void checkNotCancelled() {
+        if (isCancelled) {
+            throw new CancellationException("measuring fps was cancelled");
+        }
+    }
+
+    public interface IMeasuredFpsListener {
+
+        /**
+         * invoked on calculation thread, or on notify handler in case of timeout
+         *
+         * @param confident false if estimate was not stable before timeout
+         */
+        void onMeasuredFpsReady(double fps, boolean confident);
+    }
+}
@@ -0,0 +1,241 @@
+package net.maxsmr.cameracontroller.frame.buffer;
+
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pool of equally sized frame buffers; each buffer is handed out as {@link FrameLease}
+ * and comes back only after the last holder released it.
+ * Pool grows on demand while total allocated size fits in {@link #getMaxBytes()}
+ * and shrinks idle buffers down to {@link #getMaxIdleBuffers()}
+ */
+public class FrameBufferPool {
+
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_IDLE_BUFFERS = 2;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(FrameBufferPool.class);
+
+    private final Object lock = new Object();
+
+    /**
+     * all buffers of current size owned by this pool
+     */
+    private final Map<byte[], FrameLease> leases = new IdentityHashMap<>();
+
+    private final ArrayDeque<FrameLease> freeLeases = new ArrayDeque<>();
+
+    @Nullable
+    private IBufferRecycler recycler;
+
+    private long maxBytes;
+
+    private int maxIdleBuffers = DEFAULT_MAX_IDLE_BUFFERS;
+
+    private int bufferSize = 0;
+
+    private long allocationsCount = 0;
+
+    public FrameBufferPool() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public FrameBufferPool(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    public void setRecycler(@Nullable IBufferRecycler recycler) {
+        this.recycler = recycler;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("incorrect max bytes: " + maxBytes);
+        }
+        synchronized (lock) {
+            this.maxBytes = maxBytes;
+            trimLocked();
+        }
+    }
+
+    public int getMaxIdleBuffers() {
+        return maxIdleBuffers;
+    }
+
+    public void setMaxIdleBuffers(int maxIdleBuffers) {
+        if (maxIdleBuffers < 0) {
+            throw new IllegalArgumentException("incorrect max idle buffers: " + maxIdleBuffers);
+        }
+        synchronized (lock) {
+            this.maxIdleBuffers = maxIdleBuffers;
+            trimLocked();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getBuffersCount() {
+        synchronized (lock) {
+            return leases.size();
+        }
+    }
+
+    public int getFreeBuffersCount() {
+        synchronized (lock) {
+            return freeLeases.size();
+        }
+    }
+
+    public long getAllocatedBytes() {
+        synchronized (lock) {
+            return (long) leases.size() * bufferSize;
+        }
+    }
+
+    /**
+     * @return number of buffer allocations since pool creation
+     */
+    public long getAllocationsCount() {
+        synchronized (lock) {
+            return allocationsCount;
+        }
+    }
+
+    /**
+     * Sets buffer size for the following {@link #obtain(boolean)} calls;
+     * buffers which were queued to producer are considered free again,
+     * buffers of other size are dropped (leased ones - after release)
+     */
+    public void configure(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("incorrect buffer size: " + bufferSize);
+        }
+        synchronized (lock) {
+            if (this.bufferSize != bufferSize) {
+                logger.d("buffer size changed: " + this.bufferSize + " -> " + bufferSize);
+                leases.clear();
+                freeLeases.clear();
+                this.bufferSize = bufferSize;
+            } else {
+                for (FrameLease lease : leases.values()) {
+                    if (lease.state == FrameLease.State.QUEUED) {
+                        lease.state = FrameLease.State.FREE;
+                        freeLeases.addLast(lease);
+                    }
+                }
+                trimLocked();
+            }
+        }
+    }
+
+    /**
+     * Takes buffer for handing to producer (e.g. camera callback queue)
+     *
+     * @param ignoreCap allocate new buffer even if max bytes is exceeded
+     * @return null if there are no free buffers and cap was reached
+     */
+    @Nullable
+    public byte[] obtain(boolean ignoreCap) {
+        synchronized (lock) {
+            if (bufferSize <= 0) {
+                throw new IllegalStateException("pool is not configured");
+            }
+            FrameLease lease = freeLeases.pollFirst();
+            if (lease == null) {
+                if (!ignoreCap && (long) (leases.size() + 1) * bufferSize > maxBytes) {
+                    return null;
+                }
+                lease = new FrameLease(this, new byte[bufferSize]);
+                leases.put(lease.getData(), lease);
+                allocationsCount++;
+            }
+            lease.state = FrameLease.State.QUEUED;
+            return lease.getData();
+        }
+    }
+
+    /**
+     * Turns buffer filled by producer into lease with single reference
+     *
+     * @return null if buffer is not owned by this pool
+     */
+    @Nullable
+    public FrameLease lease(@NotNull byte[] data, long time) {
+        synchronized (lock) {
+            final FrameLease lease = leases.get(data);
+            if (lease == null || lease.state == FrameLease.State.LEASED) {
+                return null;
+            }
+            lease.state = FrameLease.State.LEASED;
+            lease.acquire(time);
+            return lease;
+        }
+    }
+
+    /**
+     * Drops all free buffers and forgets about outstanding ones
+     */
+    public void clear() {
+        synchronized (lock) {
+            leases.clear();
+            freeLeases.clear();
+            bufferSize = 0;
+        }
+    }
+
+    void onLeaseReleased(@NotNull FrameLease lease) {
+        synchronized (lock) {
+            if (leases.get(lease.getData()) != lease) {
+                // pool was reconfigured meanwhile, let buffer go
+                return;
+            }
+            lease.state = FrameLease.State.QUEUED;
+        }
+        final IBufferRecycler recycler = this.recycler;
+        final boolean recycled = recycler != null && recycler.recycle(lease.getData());
+        synchronized (lock) {
+            if (leases.get(lease.getData()) != lease || lease.state != FrameLease.State.QUEUED) {
+                return;
+            }
+            if (!recycled) {
+                lease.state = FrameLease.State.FREE;
+                freeLeases.addLast(lease);
+                trimLocked();
+            }
+        }
+    }
+
+    private void trimLocked() {
+        final Iterator<FrameLease> it = freeLeases.iterator();
+        while (it.hasNext() && (freeLeases.size() > maxIdleBuffers || (long) leases.size() * bufferSize > maxBytes)) {
+            final FrameLease lease = it.next();
+            it.remove();
+            leases.remove(lease.getData());
+        }
+    }
+
+    public interface IBufferRecycler {
+
+        /**
+         * Called after last reference to buffer was released
+         *
+         * @return true if buffer has been given back to producer, false - to keep it in the pool
+         */
+        boolean recycle(@NotNull byte[] buffer);
+    }
+}
@@ -0,0 +1,122 @@
+package net.maxsmr.cameracontroller.frame.buffer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted handle on a frame buffer: buffer content stays valid
+ * until the last holder calls {@link #release()}
+ */
+public final class FrameLease {
+
+    enum State {
+        FREE, QUEUED, LEASED
+    }
+
+    @Nullable
+    private final FrameBufferPool pool;
+
+    @NotNull
+    private final byte[] data;
+
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    /**
+     * guarded by pool lock
+     */
+    @NotNull
+    State state = State.FREE;
+
+    /**
+     * in ns
+     */
+    private volatile long time;
+
+    FrameLease(@Nullable FrameBufferPool pool, @NotNull byte[] data) {
+        this.pool = pool;
+        this.data = data;
+    }
+
+    /**
+     * @return lease for buffer that is not owned by any pool, release will have no side effects
+     */
+    @NotNull
+    public static FrameLease wrap(@NotNull byte[] data, long time) {
+        final FrameLease lease = new FrameLease(null, data);
+        lease.acquire(time);
+        return lease;
+    }
+
+    @NotNull
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return frame time in ns
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    void acquire(long time) {
+        this.time = time;
+        refCount.set(1);
+    }
+
+    /**
+     * @throws IllegalStateException if lease was already released by all holders
+     */
+    @NotNull
+    public FrameLease retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("frame lease is already released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true if it was the last reference and buffer has been given back
+     * @throws IllegalStateException if lease was already released by all holders
+     */
+    public boolean release() {
+        final int count = refCount.decrementAndGet();
+        if (count < 0) {
+            refCount.set(0);
+            throw new IllegalStateException("frame lease is already released");
+        }
+        if (count == 0) {
+            if (pool != null) {
+                pool.onLeaseReleased(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "FrameLease{" +
+                "size=" + data.length +
+                ", time=" + time +
+                ", refCount=" + refCount.get() +
+                ", pooled=" + isPooled() +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+package net.maxsmr.cameracontroller.frame.buffer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps last N frames retained, so their buffers are not given back to producer;
+ * oldest frame is released when a new one is added to the full ring
+ */
+public class FrameLeaseRing {
+
+    private final Object lock = new Object();
+
+    @NotNull
+    private final FrameLease[] leases;
+
+    /**
+     * index of next add
+     */
+    private int head = 0;
+
+    private int size = 0;
+
+    public FrameLeaseRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        leases = new FrameLease[capacity];
+    }
+
+    public int getCapacity() {
+        return leases.length;
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Retains given lease
+     */
+    public void add(@NotNull FrameLease lease) {
+        lease.retain();
+        final FrameLease evicted;
+        synchronized (lock) {
+            evicted = leases[head];
+            leases[head] = lease;
+            head = (head + 1) % leases.length;
+            if (size < leases.length) {
+                size++;
+            }
+        }
+        if (evicted != null) {
+            evicted.release();
+        }
+    }
+
+    /**
+     * @param time in ns, same time base as {@link FrameLease#getTime()}
+     * @return frame with time closest to given one, retained for caller (must be released), or null if empty
+     */
+    @Nullable
+    public FrameLease retainClosest(long time) {
+        synchronized (lock) {
+            FrameLease closest = null;
+            long minDiff = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                final FrameLease lease = leases[(head - 1 - i + leases.length) % leases.length];
+                final long diff = Math.abs(lease.getTime() - time);
+                if (diff < minDiff) {
+                    minDiff = diff;
+                    closest = lease;
+                }
+            }
+            return closest != null ? closest.retain() : null;
+        }
+    }
+
+    /**
+     * @return newest frame retained for caller (must be released) or null if empty
+     */
+    @Nullable
+    public FrameLease retainLatest() {
+        synchronized (lock) {
+            return size > 0 ? leases[(head - 1 + leases.length) % leases.length].retain() : null;
+        }
+    }
+
+    /**
+     * Releases oldest held frame, so its buffer can go back to producer
+     *
+     * @return false if ring is empty
+     */
+    public boolean releaseOldest() {
+        final FrameLease evicted;
+        synchronized (lock) {
+            if (size == 0) {
+                return false;
+            }
+            final int index = (head - size + leases.length) % leases.length;
+            evicted = leases[index];
+            leases[index] = null;
+            size--;
+        }
+        evicted.release();
+        return true;
+    }
+
+    /**
+     * Releases all held frames
+     */
+    public void clear() {
+        final FrameLease[] cleared;
+        synchronized (lock) {
+            cleared = new FrameLease[size];
+            for (int i = 0; i < size; i++) {
+                final int index = (head - 1 - i + leases.length) % leases.length;
+                cleared[i] = leases[index];
+                leases[index] = null;
+            }
+            head = 0;
+            size = 0;
+        }
+        for (FrameLease lease : cleared) {
+            lease.release();
+        }
+    }
+}
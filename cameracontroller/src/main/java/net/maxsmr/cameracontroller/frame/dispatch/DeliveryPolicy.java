@@ -0,0 +1,22 @@
+package net.maxsmr.cameracontroller.frame.dispatch;
+
+/**
+ * What to do with a new frame when listener's lane is still busy with previous ones
+ */
+public enum DeliveryPolicy {
+
+    /**
+     * keep only the newest pending frame, replaced ones are counted as dropped
+     */
+    LATEST_ONLY,
+
+    /**
+     * bounded queue, the oldest pending frame is dropped on overflow
+     */
+    DROP_OLDEST,
+
+    /**
+     * bounded queue, producer waits for free space (but not longer than lane block timeout)
+     */
+    BLOCK_PRODUCER
+}
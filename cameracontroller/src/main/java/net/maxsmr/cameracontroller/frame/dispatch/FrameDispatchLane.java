@@ -0,0 +1,272 @@
+package net.maxsmr.cameracontroller.frame.dispatch;
+
+import net.maxsmr.cameracontroller.frame.buffer.FrameLease;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated delivery thread with its own pending frames queue and counters,
+ * so that slow consumer doesn't delay the others;
+ * frames are handed over through lock-free {@link FrameRing}, producer never waits on a monitor
+ */
+public class FrameDispatchLane {
+
+    public static final int DEFAULT_CAPACITY = 2;
+
+    public static final long DEFAULT_BLOCK_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(FrameDispatchLane.class);
+
+    /**
+     * producer park step in ns for {@link DeliveryPolicy#BLOCK_PRODUCER}
+     */
+    private static final long BLOCK_PARK_STEP = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @NotNull
+    private final String name;
+
+    @NotNull
+    private final DeliveryPolicy policy;
+
+    private final int capacity;
+
+    @NotNull
+    private final IFrameConsumer consumer;
+
+    private final FrameRing<FrameLease> pendingFrames;
+
+    /**
+     * true - started, false - finished
+     */
+    private final ConcurrentLinkedQueue<Boolean> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    private final Thread thread;
+
+    /**
+     * in ms
+     */
+    private long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+
+    private volatile boolean isRunning = true;
+
+    private volatile long deliveredFrames;
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * in ns
+     */
+    private volatile long lastDeliveryTime;
+
+    /**
+     * @param capacity max pending frames, ignored for {@link DeliveryPolicy#LATEST_ONLY}
+     */
+    public FrameDispatchLane(@NotNull String name, @NotNull DeliveryPolicy policy, int capacity, @NotNull IFrameConsumer consumer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        this.name = name;
+        this.policy = policy;
+        this.capacity = policy == DeliveryPolicy.LATEST_ONLY ? 1 : capacity;
+        this.consumer = consumer;
+        this.pendingFrames = new FrameRing<>(this.capacity);
+        this.thread = new Thread(this::loop, name);
+        this.thread.start();
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public DeliveryPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getBlockTimeout() {
+        return blockTimeout;
+    }
+
+    /**
+     * @param blockTimeout max producer wait in ms for {@link DeliveryPolicy#BLOCK_PRODUCER},
+     *                     frame is dropped after that
+     */
+    public void setBlockTimeout(long blockTimeout) {
+        if (blockTimeout < 0) {
+            throw new IllegalArgumentException("incorrect block timeout: " + blockTimeout);
+        }
+        this.blockTimeout = blockTimeout;
+    }
+
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return time of last delivered frame in ns
+     */
+    public long getLastDeliveryTime() {
+        return lastDeliveryTime;
+    }
+
+    public int getPendingFramesCount() {
+        return pendingFrames.size();
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void notifyStarted() {
+        postEvent(true);
+    }
+
+    public void notifyFinished() {
+        postEvent(false);
+    }
+
+    /**
+     * Lease is retained while pending in this lane
+     *
+     * @return false if frame was not accepted
+     */
+    public boolean offer(@NotNull FrameLease lease) {
+        if (!isRunning) {
+            return false;
+        }
+        lease.retain();
+        if (!pendingFrames.offer(lease)) {
+            if (policy == DeliveryPolicy.BLOCK_PRODUCER) {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                boolean offered = false;
+                while (isRunning && !(offered = pendingFrames.offer(lease)) && System.nanoTime() < deadline) {
+                    LockSupport.parkNanos(BLOCK_PARK_STEP);
+                }
+                if (!offered) {
+                    droppedFrames.incrementAndGet();
+                    lease.release();
+                    return false;
+                }
+            } else {
+                do {
+                    final FrameLease dropped = pendingFrames.poll();
+                    if (dropped != null) {
+                        droppedFrames.incrementAndGet();
+                        dropped.release();
+                    }
+                } while (!pendingFrames.offer(lease));
+            }
+        }
+        LockSupport.unpark(thread);
+        if (!isRunning) {
+            // lane could have been drained already
+            releasePending();
+        }
+        return true;
+    }
+
+    /**
+     * Stops the thread, pending frames are released without delivery
+     */
+    public void shutdown() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void postEvent(boolean started) {
+        if (isRunning) {
+            pendingEvents.offer(started);
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void loop() {
+        while (isRunning) {
+            FrameLease lease = null;
+            final Boolean nextEvent = pendingEvents.peek();
+            if (nextEvent != null && (nextEvent || pendingFrames.isEmpty())) {
+                // frames of finished stream are delivered before finish event
+                pendingEvents.poll();
+            } else {
+                lease = pendingFrames.poll();
+                if (lease == null) {
+                    if (nextEvent == null) {
+                        LockSupport.park(this);
+                    }
+                    continue;
+                }
+            }
+            try {
+                if (lease == null) {
+                    if (nextEvent) {
+                        consumer.onStarted();
+                    } else {
+                        consumer.onFinished();
+                    }
+                } else {
+                    consumer.onFrame(lease);
+                    deliveredFrames++;
+                    lastDeliveryTime = System.nanoTime();
+                }
+            } catch (RuntimeException e) {
+                logger.e("a RuntimeException occurred during delivery on lane " + name, e);
+            } finally {
+                if (lease != null) {
+                    lease.release();
+                }
+            }
+        }
+        releasePending();
+    }
+
+    private void releasePending() {
+        FrameLease lease;
+        while ((lease = pendingFrames.poll()) != null) {
+            lease.release();
+        }
+        pendingEvents.clear();
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "FrameDispatchLane{" +
+                "name='" + name + '\'' +
+                ", policy=" + policy +
+                ", capacity=" + capacity +
+                ", deliveredFrames=" + deliveredFrames +
+                ", droppedFrames=" + droppedFrames.get() +
+                '}';
+    }
+
+    public interface IFrameConsumer {
+
+        void onStarted();
+
+        void onFinished();
+
+        /**
+         * lease is valid during this call, retain it to keep the buffer longer
+         */
+        void onFrame(@NotNull FrameLease lease);
+    }
+}
@@ -0,0 +1,107 @@
+package net.maxsmr.cameracontroller.frame.dispatch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring for handing frames between threads;
+ * safe for multiple producers and multiple consumers (producer may poll to evict the oldest element).
+ * Each slot carries a sequence number, so element is visible to consumer only after it was fully published
+ */
+public final class FrameRing<E> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity max elements; slots count is rounded up to power of two, but not less than 2:
+     *                 with single slot published and consumed sequences are equal,
+     *                 so concurrent offer may overwrite element being polled
+     */
+    public FrameRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = capacity;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return false if ring is full
+     */
+    public boolean offer(@NotNull E element) {
+        while (true) {
+            final long position = tail.get();
+            if (position - head.get() >= capacity) {
+                return false;
+            }
+            final int index = (int) (position & mask);
+            final long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // slot is not consumed yet
+                return false;
+            }
+        }
+    }
+
+    @Nullable
+    public E poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) (position & mask);
+            final long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+            } else if (diff < 0) {
+                // empty or element is being published
+                return null;
+            }
+        }
+    }
+
+    public int size() {
+        final long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+}
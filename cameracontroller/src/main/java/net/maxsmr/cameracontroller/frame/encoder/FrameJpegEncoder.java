@@ -0,0 +1,539 @@
+package net.maxsmr.cameracontroller.frame.encoder;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import net.maxsmr.cameracontroller.frame.buffer.FrameLease;
+import net.maxsmr.cameracontroller.frame.estimator.IFpsEstimator;
+import net.maxsmr.cameracontroller.frame.estimator.SlidingWindowFpsEstimator;
+import net.maxsmr.cameracontroller.frame.stats.FrameIntervalHistogram;
+import net.maxsmr.cameracontroller.frame.stats.FrameIntervalStats;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes NV21/YUY2 frames to JPEG on bounded pool of worker threads;
+ * each worker reuses its output buffer, so result is valid only during callback
+ * (see {@link EncodedJpeg#toByteArray()})
+ */
+public class FrameJpegEncoder {
+
+    public static final int DEFAULT_THREADS_COUNT = 2;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    public static final int DEFAULT_QUALITY = 90;
+
+    public static final int DEFAULT_MIN_QUALITY = 40;
+
+    /**
+     * quality decrement when encoded size exceeds budget
+     */
+    private static final int QUALITY_STEP = 10;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(FrameJpegEncoder.class);
+
+    public enum QueueMode {
+        /**
+         * new frames are rejected when queue is full
+         */
+        FIFO,
+        /**
+         * oldest pending frame is dropped in favour of the new one
+         */
+        LATEST_WINS
+    }
+
+    private final Object lock = new Object();
+
+    private final ArrayDeque<Task> pendingTasks = new ArrayDeque<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    @NotNull
+    private final QueueMode queueMode;
+
+    private final int threadsCount;
+
+    private final int queueCapacity;
+
+    private int quality = DEFAULT_QUALITY;
+
+    private int minQuality = DEFAULT_MIN_QUALITY;
+
+    /**
+     * 0 - unlimited
+     */
+    private int maxJpegBytes = 0;
+
+    /**
+     * last quality which fit in the budget, encoding starts from it
+     */
+    private int adaptedQuality = DEFAULT_QUALITY;
+
+    private boolean isShutdown = false;
+
+    private int activeCount = 0;
+
+    private long encodedCount;
+
+    private long failedCount;
+
+    private long droppedCount;
+
+    private long rejectedCount;
+
+    private long overBudgetCount;
+
+    /**
+     * from submit to encoded, in ns
+     */
+    private final FrameIntervalHistogram latencyHistogram = new FrameIntervalHistogram();
+
+    /**
+     * pure encode time, in ns
+     */
+    private final FrameIntervalHistogram encodeHistogram = new FrameIntervalHistogram();
+
+    private final IFpsEstimator throughputEstimator = new SlidingWindowFpsEstimator();
+
+    public FrameJpegEncoder() {
+        this(DEFAULT_THREADS_COUNT, DEFAULT_QUEUE_CAPACITY, QueueMode.FIFO);
+    }
+
+    public FrameJpegEncoder(int threadsCount, int queueCapacity, @NotNull QueueMode queueMode) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException("incorrect threads count: " + threadsCount);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("incorrect queue capacity: " + queueCapacity);
+        }
+        this.threadsCount = threadsCount;
+        this.queueCapacity = queueCapacity;
+        this.queueMode = queueMode;
+    }
+
+    @NotNull
+    public QueueMode getQueueMode() {
+        return queueMode;
+    }
+
+    public int getQuality() {
+        synchronized (lock) {
+            return quality;
+        }
+    }
+
+    public void setQuality(int quality) {
+        if (quality <= 0 || quality > 100) {
+            throw new IllegalArgumentException("incorrect quality: " + quality);
+        }
+        synchronized (lock) {
+            this.quality = quality;
+            this.adaptedQuality = quality;
+        }
+    }
+
+    public int getMaxJpegBytes() {
+        synchronized (lock) {
+            return maxJpegBytes;
+        }
+    }
+
+    /**
+     * @param maxJpegBytes size budget, quality is lowered down to min quality to fit in it; 0 - unlimited
+     */
+    public void setSizeBudget(int maxJpegBytes, int minQuality) {
+        if (maxJpegBytes < 0) {
+            throw new IllegalArgumentException("incorrect max jpeg bytes: " + maxJpegBytes);
+        }
+        if (minQuality <= 0 || minQuality > 100) {
+            throw new IllegalArgumentException("incorrect min quality: " + minQuality);
+        }
+        synchronized (lock) {
+            this.maxJpegBytes = maxJpegBytes;
+            this.minQuality = minQuality;
+            this.adaptedQuality = quality;
+        }
+    }
+
+    /**
+     * @param quality frame quality, or 0 to use encoder quality and size budget
+     * @return false if frame was rejected (queue is full in {@link QueueMode#FIFO} mode or encoder is shut down)
+     */
+    public boolean submit(@NotNull FrameLease lease, int format, int width, int height, int quality, @NotNull IJpegCallback callback) {
+        if (format != ImageFormat.NV21 && format != ImageFormat.YUY2) {
+            throw new IllegalArgumentException("unsupported format: " + format);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("incorrect frame size: " + width + "x" + height);
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("incorrect quality: " + quality);
+        }
+        Task dropped = null;
+        synchronized (lock) {
+            if (isShutdown) {
+                rejectedCount++;
+                return false;
+            }
+            if (pendingTasks.size() >= queueCapacity) {
+                if (queueMode == QueueMode.FIFO) {
+                    rejectedCount++;
+                    return false;
+                }
+                dropped = pendingTasks.pollFirst();
+                droppedCount++;
+            }
+            pendingTasks.addLast(new Task(lease.retain(), format, width, height, quality, callback, System.nanoTime()));
+            startWorkersLocked();
+            lock.notify();
+        }
+        if (dropped != null) {
+            dropped.lease.release();
+            dropped.callback.onJpegDropped(dropped.frameTime);
+        }
+        return true;
+    }
+
+    /**
+     * Pending frames are dropped, frames being encoded are completed
+     */
+    public void shutdown() {
+        final List<Task> dropped;
+        synchronized (lock) {
+            if (isShutdown) {
+                return;
+            }
+            isShutdown = true;
+            dropped = new ArrayList<>(pendingTasks);
+            droppedCount += pendingTasks.size();
+            pendingTasks.clear();
+            lock.notifyAll();
+        }
+        for (Task task : dropped) {
+            task.lease.release();
+            task.callback.onJpegDropped(task.frameTime);
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized (lock) {
+            return isShutdown;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingTasks.size() + activeCount;
+        }
+    }
+
+    public long getEncodedCount() {
+        synchronized (lock) {
+            return encodedCount;
+        }
+    }
+
+    public long getFailedCount() {
+        synchronized (lock) {
+            return failedCount;
+        }
+    }
+
+    /**
+     * @return frames dropped in favour of newer ones or on shutdown
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * @return encodes which didn't fit in size budget even with min quality
+     */
+    public long getOverBudgetCount() {
+        synchronized (lock) {
+            return overBudgetCount;
+        }
+    }
+
+    /**
+     * @return distribution of time from submit to encoded, in ms
+     */
+    @Nullable
+    public FrameIntervalStats getLatencyStats() {
+        synchronized (lock) {
+            return latencyHistogram.toStats();
+        }
+    }
+
+    /**
+     * @return distribution of pure encode time, in ms
+     */
+    @Nullable
+    public FrameIntervalStats getEncodeTimeStats() {
+        synchronized (lock) {
+            return encodeHistogram.toStats();
+        }
+    }
+
+    /**
+     * @return recent encodes per second
+     */
+    public double getThroughput() {
+        synchronized (lock) {
+            return throughputEstimator.getFps();
+        }
+    }
+
+    public void resetStats() {
+        synchronized (lock) {
+            encodedCount = 0;
+            failedCount = 0;
+            droppedCount = 0;
+            rejectedCount = 0;
+            overBudgetCount = 0;
+            latencyHistogram.reset();
+            encodeHistogram.reset();
+            throughputEstimator.reset();
+        }
+    }
+
+    private void startWorkersLocked() {
+        while (workers.size() < threadsCount && workers.size() < pendingTasks.size() + activeCount) {
+            final Thread worker = new Thread(new Worker(), FrameJpegEncoder.class.getSimpleName() + "-" + workers.size());
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @Nullable
+    private Task takeTask() {
+        synchronized (lock) {
+            while (pendingTasks.isEmpty() && !isShutdown) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            final Task task = pendingTasks.pollFirst();
+            if (task != null) {
+                activeCount++;
+            }
+            return task;
+        }
+    }
+
+    private void encode(@NotNull Task task, @NotNull OutputBuffer buffer) {
+        final int maxJpegBytes;
+        final int minQuality;
+        int quality;
+        synchronized (lock) {
+            maxJpegBytes = this.maxJpegBytes;
+            minQuality = this.minQuality;
+            quality = task.quality > 0 ? task.quality : adaptedQuality;
+        }
+        final long startTime = System.nanoTime();
+        boolean success;
+        boolean overBudget = false;
+        try {
+            final YuvImage image = new YuvImage(task.lease.getData(), task.format, task.width, task.height, null);
+            final Rect rect = new Rect(0, 0, task.width, task.height);
+            while (true) {
+                buffer.reset();
+                success = image.compressToJpeg(rect, quality, buffer);
+                if (!success || task.quality > 0 || maxJpegBytes == 0 || buffer.size() <= maxJpegBytes) {
+                    break;
+                }
+                if (quality <= minQuality) {
+                    overBudget = true;
+                    break;
+                }
+                quality = Math.max(minQuality, quality - QUALITY_STEP);
+            }
+        } catch (RuntimeException e) {
+            // any failure must still reach accounting and callback below, otherwise pending count is never decremented
+            logger.e("a RuntimeException occurred during compressToJpeg()", e);
+            success = false;
+        } finally {
+            task.lease.release();
+        }
+        final long endTime = System.nanoTime();
+        synchronized (lock) {
+            activeCount--;
+            if (success) {
+                encodedCount++;
+                latencyHistogram.record(endTime - task.submitTime);
+                encodeHistogram.record(endTime - startTime);
+                throughputEstimator.onFrame(endTime);
+                if (task.quality == 0) {
+                    adaptedQuality = quality;
+                }
+                if (overBudget) {
+                    overBudgetCount++;
+                }
+            } else {
+                failedCount++;
+            }
+        }
+        if (success) {
+            task.callback.onJpegEncoded(new EncodedJpeg(buffer.getBuffer(), buffer.size(), task.frameTime, quality,
+                    endTime - task.submitTime));
+        } else {
+            logger.e("can't compress frame to JPEG");
+            task.callback.onJpegFailed(task.frameTime);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final OutputBuffer buffer = new OutputBuffer();
+
+        @Override
+        public void run() {
+            Task task;
+            while ((task = takeTask()) != null) {
+                try {
+                    encode(task, buffer);
+                } catch (RuntimeException e) {
+                    logger.e("a RuntimeException occurred during encode()", e);
+                }
+            }
+            synchronized (lock) {
+                workers.remove(Thread.currentThread());
+            }
+        }
+    }
+
+    private static final class Task {
+
+        @NotNull
+        final FrameLease lease;
+
+        /**
+         * captured on submit: pooled lease may carry another frame once released
+         */
+        final long frameTime;
+
+        final int format;
+
+        final int width;
+
+        final int height;
+
+        final int quality;
+
+        @NotNull
+        final IJpegCallback callback;
+
+        /**
+         * in ns
+         */
+        final long submitTime;
+
+        Task(@NotNull FrameLease lease, int format, int width, int height, int quality, @NotNull IJpegCallback callback, long submitTime) {
+            this.lease = lease;
+            this.frameTime = lease.getTime();
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.callback = callback;
+            this.submitTime = submitTime;
+        }
+    }
+
+    /**
+     * Output stream which exposes its buffer instead of copying
+     */
+    private static final class OutputBuffer extends ByteArrayOutputStream {
+
+        OutputBuffer() {
+            super(256 * 1024);
+        }
+
+        @NotNull
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Encoded frame, data is owned by worker and is overwritten after callback returns
+     */
+    public static final class EncodedJpeg {
+
+        @NotNull
+        private final byte[] data;
+
+        public final int length;
+
+        /**
+         * source frame time, in ns
+         */
+        public final long frameTime;
+
+        public final int quality;
+
+        /**
+         * from submit to encoded, in ns
+         */
+        public final long latency;
+
+        EncodedJpeg(@NotNull byte[] data, int length, long frameTime, int quality, long latency) {
+            this.data = data;
+            this.length = length;
+            this.frameTime = frameTime;
+            this.quality = quality;
+            this.latency = latency;
+        }
+
+        /**
+         * @return shared buffer, valid bytes are [0, length)
+         */
+        @NotNull
+        public byte[] getData() {
+            return data;
+        }
+
+        @NotNull
+        public byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    /**
+     * all methods are invoked from encoder threads (or submitting thread for dropped frames)
+     */
+    public interface IJpegCallback {
+
+        void onJpegEncoded(@NotNull EncodedJpeg jpeg);
+
+        void onJpegFailed(long frameTime);
+
+        /**
+         * frame was dropped in favour of newer one or on shutdown
+         */
+        void onJpegDropped(long frameTime);
+    }
+}
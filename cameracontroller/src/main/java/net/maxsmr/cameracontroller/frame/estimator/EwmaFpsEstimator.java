@@ -0,0 +1,77 @@
+package net.maxsmr.cameracontroller.frame.estimator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time-decayed exponentially weighted average of frame interval:
+ * weight of each interval depends on its duration, so estimate doesn't depend on the frame rate itself
+ */
+public class EwmaFpsEstimator implements IFpsEstimator {
+
+    public static final long DEFAULT_TIME_CONSTANT = 500;
+
+    /**
+     * in ns
+     */
+    private final double timeConstant;
+
+    /**
+     * in ns
+     */
+    private long lastFrameTime;
+
+    /**
+     * in ns
+     */
+    private double averageInterval;
+
+    private int count;
+
+    public EwmaFpsEstimator() {
+        this(DEFAULT_TIME_CONSTANT);
+    }
+
+    /**
+     * @param timeConstant in ms, time after which old intervals weigh about 1/e
+     */
+    public EwmaFpsEstimator(long timeConstant) {
+        if (timeConstant <= 0) {
+            throw new IllegalArgumentException("incorrect time constant: " + timeConstant);
+        }
+        this.timeConstant = TimeUnit.MILLISECONDS.toNanos(timeConstant);
+    }
+
+    @Override
+    public void onFrame(long time) {
+        if (count > 0 && time > lastFrameTime) {
+            final long interval = time - lastFrameTime;
+            if (averageInterval == 0) {
+                averageInterval = interval;
+            } else {
+                final double alpha = 1 - Math.exp(-interval / timeConstant);
+                averageInterval += alpha * (interval - averageInterval);
+            }
+        }
+        lastFrameTime = time;
+        if (count < Integer.MAX_VALUE) {
+            count++;
+        }
+    }
+
+    @Override
+    public double getFps() {
+        return averageInterval > 0 ? TimeUnit.SECONDS.toNanos(1) / averageInterval : 0;
+    }
+
+    @Override
+    public int getSamplesCount() {
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        lastFrameTime = 0;
+        averageInterval = 0;
+        count = 0;
+    }
+}
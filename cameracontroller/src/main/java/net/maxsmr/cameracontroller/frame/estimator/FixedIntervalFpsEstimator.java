@@ -0,0 +1,76 @@
+package net.maxsmr.cameracontroller.frame.estimator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames counted during fixed interval, estimate changes only at interval boundaries
+ */
+public class FixedIntervalFpsEstimator implements IFpsEstimator {
+
+    public static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * in ns
+     */
+    private final long interval;
+
+    /**
+     * in ns
+     */
+    private long startIntervalTime;
+
+    private int intervalFrames;
+
+    private double fps;
+
+    private int samplesCount;
+
+    public FixedIntervalFpsEstimator() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param interval in ms
+     */
+    public FixedIntervalFpsEstimator(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("incorrect interval: " + interval);
+        }
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    @Override
+    public void onFrame(long time) {
+        if (startIntervalTime == 0) {
+            startIntervalTime = time;
+            intervalFrames = 0;
+            return;
+        }
+        intervalFrames++;
+        final long elapsed = time - startIntervalTime;
+        if (elapsed >= interval) {
+            fps = intervalFrames * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            samplesCount = intervalFrames + 1;
+            startIntervalTime = time;
+            intervalFrames = 0;
+        }
+    }
+
+    @Override
+    public double getFps() {
+        return fps;
+    }
+
+    @Override
+    public int getSamplesCount() {
+        return samplesCount;
+    }
+
+    @Override
+    public void reset() {
+        startIntervalTime = 0;
+        intervalFrames = 0;
+        fps = 0;
+        samplesCount = 0;
+    }
+}
@@ -0,0 +1,25 @@
+package net.maxsmr.cameracontroller.frame.estimator;
+
+/**
+ * Fps estimate updated on every frame at O(1) cost, without allocations;
+ * implementations are not thread-safe and are fed by single writer
+ */
+public interface IFpsEstimator {
+
+    /**
+     * @param time frame time in ns
+     */
+    void onFrame(long time);
+
+    /**
+     * @return current estimate, 0 if not enough frames yet
+     */
+    double getFps();
+
+    /**
+     * @return number of frames the current estimate is based on
+     */
+    int getSamplesCount();
+
+    void reset();
+}
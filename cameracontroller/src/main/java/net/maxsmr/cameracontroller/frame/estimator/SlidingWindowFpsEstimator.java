@@ -0,0 +1,66 @@
+package net.maxsmr.cameracontroller.frame.estimator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fps over last N frames: (N - 1) intervals divided by time between the oldest and the newest frame
+ */
+public class SlidingWindowFpsEstimator implements IFpsEstimator {
+
+    public static final int DEFAULT_WINDOW_SIZE = 30;
+
+    /**
+     * ring of frame times in ns
+     */
+    private final long[] frameTimes;
+
+    private int nextIndex;
+
+    private int count;
+
+    public SlidingWindowFpsEstimator() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public SlidingWindowFpsEstimator(int windowSize) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("incorrect window size: " + windowSize);
+        }
+        frameTimes = new long[windowSize];
+    }
+
+    public int getWindowSize() {
+        return frameTimes.length;
+    }
+
+    @Override
+    public void onFrame(long time) {
+        frameTimes[nextIndex] = time;
+        nextIndex = (nextIndex + 1) % frameTimes.length;
+        if (count < frameTimes.length) {
+            count++;
+        }
+    }
+
+    @Override
+    public double getFps() {
+        if (count < 2) {
+            return 0;
+        }
+        final long newest = frameTimes[(nextIndex - 1 + frameTimes.length) % frameTimes.length];
+        final long oldest = frameTimes[count < frameTimes.length ? 0 : nextIndex];
+        final long duration = newest - oldest;
+        return duration > 0 ? (count - 1) * (double) TimeUnit.SECONDS.toNanos(1) / duration : 0;
+    }
+
+    @Override
+    public int getSamplesCount() {
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        nextIndex = 0;
+        count = 0;
+    }
+}
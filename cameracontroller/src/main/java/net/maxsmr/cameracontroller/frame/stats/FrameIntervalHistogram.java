@@ -0,0 +1,176 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-memory histogram of frame intervals with logarithmic buckets:
+ * each power of two (in us) is split into {@link #SUB_BUCKETS} linear buckets,
+ * so relative error of percentiles is about 1 / SUB_BUCKETS.
+ * Not thread-safe, intended to be filled by single writer
+ */
+public class FrameIntervalHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * covers intervals up to 2^36 us (about 19 hours)
+     */
+    private static final int MAX_EXPONENT = 36;
+
+    private static final int BUCKETS_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS_COUNT];
+
+    private long totalCount;
+
+    /**
+     * in ns
+     */
+    private long minValue = Long.MAX_VALUE;
+
+    /**
+     * in ns
+     */
+    private long maxValue;
+
+    private double sum;
+
+    private double sumOfSquares;
+
+    /**
+     * @param interval in ns
+     */
+    public void record(long interval) {
+        if (interval <= 0) {
+            return;
+        }
+        counts[bucketIndex(TimeUnit.NANOSECONDS.toMicros(interval))]++;
+        totalCount++;
+        if (interval < minValue) {
+            minValue = interval;
+        }
+        if (interval > maxValue) {
+            maxValue = interval;
+        }
+        sum += interval;
+        sumOfSquares += (double) interval * interval;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return in ns
+     */
+    public long getMin() {
+        return totalCount > 0 ? minValue : 0;
+    }
+
+    /**
+     * @return in ns
+     */
+    public long getMax() {
+        return maxValue;
+    }
+
+    /**
+     * @return in ns
+     */
+    public double getMean() {
+        return totalCount > 0 ? sum / totalCount : 0;
+    }
+
+    /**
+     * @return in ns
+     */
+    public double getStdDev() {
+        if (totalCount < 2) {
+            return 0;
+        }
+        final double mean = sum / totalCount;
+        final double variance = sumOfSquares / totalCount - mean * mean;
+        return variance > 0 ? Math.sqrt(variance) : 0;
+    }
+
+    /**
+     * @param percentile in range [0..100]
+     * @return interval in ns, within bucket precision and clamped to observed min/max
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("incorrect percentile: " + percentile);
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                final long value = TimeUnit.MICROSECONDS.toNanos(bucketMiddle(i));
+                return Math.max(getMin(), Math.min(maxValue, value));
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * @return snapshot in ms
+     */
+    @NotNull
+    public FrameIntervalStats toStats() {
+        return new FrameIntervalStats(totalCount,
+                toMillis(getPercentile(50)), toMillis(getPercentile(95)), toMillis(getPercentile(99)),
+                toMillis(getMax()), toMillis(getMean()), toMillis(getStdDev()));
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @param value in us
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            // values below first full octave are stored as is
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS_COUNT - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return middle of bucket range in us
+     */
+    private static long bucketMiddle(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lower = (1L << exponent) + subBucket * width;
+        return lower + width / 2;
+    }
+}
@@ -0,0 +1,128 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Distribution of frame intervals, all times in ms
+ */
+public final class FrameIntervalStats implements Parcelable {
+
+    public final long intervalsCount;
+
+    public final double p50;
+
+    public final double p95;
+
+    public final double p99;
+
+    public final double max;
+
+    public final double mean;
+
+    public final double stdDev;
+
+    public FrameIntervalStats(long intervalsCount, double p50, double p95, double p99, double max, double mean, double stdDev) {
+        this.intervalsCount = intervalsCount;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+        this.mean = mean;
+        this.stdDev = stdDev;
+    }
+
+    protected FrameIntervalStats(Parcel in) {
+        intervalsCount = in.readLong();
+        p50 = in.readDouble();
+        p95 = in.readDouble();
+        p99 = in.readDouble();
+        max = in.readDouble();
+        mean = in.readDouble();
+        stdDev = in.readDouble();
+    }
+
+    public static final Creator<FrameIntervalStats> CREATOR = new Creator<FrameIntervalStats>() {
+        @Override
+        public FrameIntervalStats createFromParcel(Parcel in) {
+            return new FrameIntervalStats(in);
+        }
+
+        @Override
+        public FrameIntervalStats[] newArray(int size) {
+            return new FrameIntervalStats[size];
+        }
+    };
+
+    /**
+     * @return max deviation of interval from median, in ms
+     */
+    public double getMaxJitter() {
+        return max - p50;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FrameIntervalStats that = (FrameIntervalStats) o;
+
+        if (intervalsCount != that.intervalsCount) return false;
+        if (Double.compare(that.p50, p50) != 0) return false;
+        if (Double.compare(that.p95, p95) != 0) return false;
+        if (Double.compare(that.p99, p99) != 0) return false;
+        if (Double.compare(that.max, max) != 0) return false;
+        if (Double.compare(that.mean, mean) != 0) return false;
+        return Double.compare(that.stdDev, stdDev) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result;
+        long temp;
+        result = (int) (intervalsCount ^ (intervalsCount >>> 32));
+        temp = Double.doubleToLongBits(p50);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(p95);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(p99);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(max);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(mean);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(stdDev);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameIntervalStats{" +
+                "intervalsCount=" + intervalsCount +
+                ", p50=" + p50 +
+                ", p95=" + p95 +
+                ", p99=" + p99 +
+                ", max=" + max +
+                ", mean=" + mean +
+                ", stdDev=" + stdDev +
+                '}';
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int i) {
+        parcel.writeLong(intervalsCount);
+        parcel.writeDouble(p50);
+        parcel.writeDouble(p95);
+        parcel.writeDouble(p99);
+        parcel.writeDouble(max);
+        parcel.writeDouble(mean);
+        parcel.writeDouble(stdDev);
+    }
+}
@@ -3,6 +3,8 @@ package net.maxsmr.cameracontroller.frame.stats;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import org.jetbrains.annotations.Nullable;
+
 public final class FrameStats implements Parcelable {
 
     public final long previewStartTime;
@@ -15,12 +17,50 @@ public final class FrameStats implements Parcelable {
 
     public final double overallAverageFrameTime;
 
+    /**
+     * frame intervals distribution during last calculate interval
+     */
+    @Nullable
+    public final FrameIntervalStats lastIntervalStats;
+
+    /**
+     * frame intervals distribution since stream start
+     */
+    @Nullable
+    public final FrameIntervalStats overallIntervalStats;
+
+    /**
+     * frames inferred as dropped during last calculate interval
+     */
+    public final long lastDroppedFrames;
+
+    /**
+     * frames inferred as dropped since stream start
+     */
+    public final long overallDroppedFrames;
+
+    /**
+     * longest gap between frames since stream start, in ms
+     */
+    public final double longestStall;
+
     public FrameStats(long previewStartTime, double lastFps, double lastAverageFrameTime, double overallAverageFps, double overallAverageFrameTime) {
+        this(previewStartTime, lastFps, lastAverageFrameTime, overallAverageFps, overallAverageFrameTime, null, null, 0, 0, 0);
+    }
+
+    public FrameStats(long previewStartTime, double lastFps, double lastAverageFrameTime, double overallAverageFps, double overallAverageFrameTime,
+                      @Nullable FrameIntervalStats lastIntervalStats, @Nullable FrameIntervalStats overallIntervalStats,
+                      long lastDroppedFrames, long overallDroppedFrames, double longestStall) {
         this.previewStartTime = previewStartTime;
         this.lastFps = lastFps;
         this.lastAverageFrameTime = lastAverageFrameTime;
         this.overallAverageFps = overallAverageFps;
         this.overallAverageFrameTime = overallAverageFrameTime;
+        this.lastIntervalStats = lastIntervalStats;
+        this.overallIntervalStats = overallIntervalStats;
+        this.lastDroppedFrames = lastDroppedFrames;
+        this.overallDroppedFrames = overallDroppedFrames;
+        this.longestStall = longestStall;
     }
 
     protected FrameStats(Parcel in) {
@@ -29,6 +69,11 @@ public final class FrameStats implements Parcelable {
         lastAverageFrameTime = in.readDouble();
         overallAverageFps = in.readDouble();
         overallAverageFrameTime = in.readDouble();
+        lastIntervalStats = in.readParcelable(FrameIntervalStats.class.getClassLoader());
+        overallIntervalStats = in.readParcelable(FrameIntervalStats.class.getClassLoader());
+        lastDroppedFrames = in.readLong();
+        overallDroppedFrames = in.readLong();
+        longestStall = in.readDouble();
     }
 
     public static final Creator<FrameStats> CREATOR = new Creator<FrameStats>() {
@@ -54,7 +99,12 @@ public final class FrameStats implements Parcelable {
         if (Double.compare(that.lastFps, lastFps) != 0) return false;
         if (Double.compare(that.lastAverageFrameTime, lastAverageFrameTime) != 0) return false;
         if (Double.compare(that.overallAverageFps, overallAverageFps) != 0) return false;
-        return Double.compare(that.overallAverageFrameTime, overallAverageFrameTime) == 0;
+        if (Double.compare(that.overallAverageFrameTime, overallAverageFrameTime) != 0) return false;
+        if (lastDroppedFrames != that.lastDroppedFrames) return false;
+        if (overallDroppedFrames != that.overallDroppedFrames) return false;
+        if (Double.compare(that.longestStall, longestStall) != 0) return false;
+        if (lastIntervalStats != null ? !lastIntervalStats.equals(that.lastIntervalStats) : that.lastIntervalStats != null) return false;
+        return overallIntervalStats != null ? overallIntervalStats.equals(that.overallIntervalStats) : that.overallIntervalStats == null;
     }
 
     @Override
@@ -70,6 +120,12 @@ public final class FrameStats implements Parcelable {
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(overallAverageFrameTime);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (lastIntervalStats != null ? lastIntervalStats.hashCode() : 0);
+        result = 31 * result + (overallIntervalStats != null ? overallIntervalStats.hashCode() : 0);
+        result = 31 * result + (int) (lastDroppedFrames ^ (lastDroppedFrames >>> 32));
+        result = 31 * result + (int) (overallDroppedFrames ^ (overallDroppedFrames >>> 32));
+        temp = Double.doubleToLongBits(longestStall);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
         return result;
     }
 
@@ -80,6 +136,11 @@ public final class FrameStats implements Parcelable {
                 ", lastAverageFrameTime=" + lastAverageFrameTime +
                 ", overallAverageFps=" + overallAverageFps +
                 ", overallAverageFrameTime=" + overallAverageFrameTime +
+                ", lastIntervalStats=" + lastIntervalStats +
+                ", overallIntervalStats=" + overallIntervalStats +
+                ", lastDroppedFrames=" + lastDroppedFrames +
+                ", overallDroppedFrames=" + overallDroppedFrames +
+                ", longestStall=" + longestStall +
                 '}';
     }
 
@@ -95,5 +156,10 @@ public final class FrameStats implements Parcelable {
         parcel.writeDouble(lastAverageFrameTime);
         parcel.writeDouble(overallAverageFps);
         parcel.writeDouble(overallAverageFrameTime);
+        parcel.writeParcelable(lastIntervalStats, i);
+        parcel.writeParcelable(overallIntervalStats, i);
+        parcel.writeLong(lastDroppedFrames);
+        parcel.writeLong(overallDroppedFrames);
+        parcel.writeDouble(longestStall);
     }
 }
@@ -0,0 +1,388 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-capacity ring of per-interval {@link FrameStats} samples,
+ * kept in primitive columns so recording does not allocate;
+ * oldest samples are overwritten when capacity is reached.
+ * Sample times are of monotonic clock ({@link #now()}), so range queries stay correct
+ * when wall-clock time is changed; use {@link #toWallClockTime(long)} and {@link #fromWallClockTime(long)} to convert
+ */
+public class FrameStatsHistory {
+
+    /**
+     * one hour of samples with default 1 s calculate interval
+     */
+    public static final int DEFAULT_CAPACITY = 3600;
+
+    public enum Metric {
+        /**
+         * fps during interval
+         */
+        FPS,
+        /**
+         * average frame time during interval, in ms
+         */
+        AVERAGE_FRAME_TIME,
+        /**
+         * 95th percentile of frame interval, in ms
+         */
+        P95_INTERVAL,
+        /**
+         * longest frame interval, in ms
+         */
+        MAX_INTERVAL,
+        /**
+         * frames dropped during interval
+         */
+        DROPPED_FRAMES
+    }
+
+    private final Object sync = new Object();
+
+    private final int capacity;
+
+    /**
+     * in ms, see {@link #now()}
+     */
+    private final long[] times;
+
+    private final double[] fps;
+
+    private final double[] averageFrameTimes;
+
+    private final double[] p95Intervals;
+
+    private final double[] maxIntervals;
+
+    private final long[] droppedFrames;
+
+    /**
+     * index of next write
+     */
+    private int head = 0;
+
+    private int size = 0;
+
+    public FrameStatsHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FrameStatsHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("incorrect capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        times = new long[capacity];
+        fps = new double[capacity];
+        averageFrameTimes = new double[capacity];
+        p95Intervals = new double[capacity];
+        maxIntervals = new double[capacity];
+        droppedFrames = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (sync) {
+            return size;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        synchronized (sync) {
+            head = 0;
+            size = 0;
+        }
+    }
+
+    /**
+     * @param time sample time in ms of {@link #now()} clock; time earlier than newest sample is replaced by newest one,
+     *             so samples stay sorted for range queries
+     */
+    public void record(long time, @NotNull FrameStats stats) {
+        synchronized (sync) {
+            if (size > 0) {
+                time = Math.max(time, times[indexOf(size - 1)]);
+            }
+            times[head] = time;
+            fps[head] = stats.lastFps;
+            averageFrameTimes[head] = stats.lastAverageFrameTime;
+            p95Intervals[head] = stats.lastIntervalStats != null ? stats.lastIntervalStats.p95 : 0;
+            maxIntervals[head] = stats.lastIntervalStats != null ? stats.lastIntervalStats.max : 0;
+            droppedFrames[head] = stats.lastDroppedFrames;
+            head = (head + 1) % capacity;
+            if (size < capacity) {
+                size++;
+            }
+        }
+    }
+
+    /**
+     * @return time of oldest sample in ms or 0 if empty
+     */
+    public long getOldestTime() {
+        synchronized (sync) {
+            return size > 0 ? times[indexOf(0)] : 0;
+        }
+    }
+
+    /**
+     * @return time of newest sample in ms or 0 if empty
+     */
+    public long getNewestTime() {
+        synchronized (sync) {
+            return size > 0 ? times[indexOf(size - 1)] : 0;
+        }
+    }
+
+    /**
+     * @param fromTime inclusive, in ms
+     * @param toTime   exclusive, in ms
+     * @return samples within range, oldest first
+     */
+    @NotNull
+    public List<Sample> query(long fromTime, long toTime) {
+        synchronized (sync) {
+            final int from = lowerBound(fromTime);
+            final int to = lowerBound(toTime);
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            final List<Sample> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                final int index = indexOf(i);
+                result.add(new Sample(times[index], fps[index], averageFrameTimes[index],
+                        p95Intervals[index], maxIntervals[index], droppedFrames[index]));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return values of single metric within range, oldest first
+     */
+    @NotNull
+    public double[] queryMetric(@NotNull Metric metric, long fromTime, long toTime) {
+        synchronized (sync) {
+            final int from = lowerBound(fromTime);
+            final int to = lowerBound(toTime);
+            if (from >= to) {
+                return new double[0];
+            }
+            final double[] result = new double[to - from];
+            for (int i = from; i < to; i++) {
+                result[i - from] = valueAt(metric, indexOf(i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Splits range into buckets of fixed duration aligned to fromTime;
+     * empty buckets are skipped
+     *
+     * @param bucketDuration in ms, e.g. 60000 for per-minute values
+     * @return aggregates of metric per bucket, oldest first
+     */
+    @NotNull
+    public List<Aggregate> downsample(@NotNull Metric metric, long fromTime, long toTime, long bucketDuration) {
+        if (bucketDuration <= 0) {
+            throw new IllegalArgumentException("incorrect bucket duration: " + bucketDuration);
+        }
+        synchronized (sync) {
+            final int from = lowerBound(fromTime);
+            final int to = lowerBound(toTime);
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            final List<Aggregate> result = new ArrayList<>();
+            long bucketStart = 0;
+            int count = 0;
+            double min = 0;
+            double max = 0;
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                final int index = indexOf(i);
+                final long start = fromTime + (times[index] - fromTime) / bucketDuration * bucketDuration;
+                if (count > 0 && start != bucketStart) {
+                    result.add(new Aggregate(bucketStart, bucketDuration, count, min, max, sum / count));
+                    count = 0;
+                }
+                final double value = valueAt(metric, index);
+                if (count == 0) {
+                    bucketStart = start;
+                    min = value;
+                    max = value;
+                    sum = 0;
+                } else {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                sum += value;
+                count++;
+            }
+            if (count > 0) {
+                result.add(new Aggregate(bucketStart, bucketDuration, count, min, max, sum / count));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return current time of monotonic clock used for samples, in ms
+     */
+    public static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * @param time sample time, in ms
+     * @return wall-clock time in ms, according to current offset between clocks
+     */
+    public static long toWallClockTime(long time) {
+        return System.currentTimeMillis() - (now() - time);
+    }
+
+    /**
+     * @param wallClockTime in ms
+     * @return time of samples clock, e.g. for range queries by wall-clock time
+     */
+    public static long fromWallClockTime(long wallClockTime) {
+        return now() - (System.currentTimeMillis() - wallClockTime);
+    }
+
+    private double valueAt(@NotNull Metric metric, int index) {
+        switch (metric) {
+            case FPS:
+                return fps[index];
+            case AVERAGE_FRAME_TIME:
+                return averageFrameTimes[index];
+            case P95_INTERVAL:
+                return p95Intervals[index];
+            case MAX_INTERVAL:
+                return maxIntervals[index];
+            case DROPPED_FRAMES:
+                return droppedFrames[index];
+            default:
+                throw new IllegalArgumentException("unknown metric: " + metric);
+        }
+    }
+
+    /**
+     * @param position 0 for oldest sample
+     */
+    private int indexOf(int position) {
+        return (head - size + position + capacity) % capacity;
+    }
+
+    /**
+     * @return position of first sample with time >= given time
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[indexOf(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public static final class Sample {
+
+        /**
+         * in ms, see {@link #now()}
+         */
+        public final long time;
+
+        public final double fps;
+
+        public final double averageFrameTime;
+
+        public final double p95Interval;
+
+        public final double maxInterval;
+
+        public final long droppedFrames;
+
+        Sample(long time, double fps, double averageFrameTime, double p95Interval, double maxInterval, long droppedFrames) {
+            this.time = time;
+            this.fps = fps;
+            this.averageFrameTime = averageFrameTime;
+            this.p95Interval = p95Interval;
+            this.maxInterval = maxInterval;
+            this.droppedFrames = droppedFrames;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{" +
+                    "time=" + time +
+                    ", fps=" + fps +
+                    ", averageFrameTime=" + averageFrameTime +
+                    ", p95Interval=" + p95Interval +
+                    ", maxInterval=" + maxInterval +
+                    ", droppedFrames=" + droppedFrames +
+                    '}';
+        }
+    }
+
+    public static final class Aggregate {
+
+        /**
+         * in ms, see {@link #now()}
+         */
+        public final long bucketStart;
+
+        /**
+         * in ms
+         */
+        public final long bucketDuration;
+
+        public final int samplesCount;
+
+        public final double min;
+
+        public final double max;
+
+        public final double avg;
+
+        Aggregate(long bucketStart, long bucketDuration, int samplesCount, double min, double max, double avg) {
+            this.bucketStart = bucketStart;
+            this.bucketDuration = bucketDuration;
+            this.samplesCount = samplesCount;
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+        }
+
+        @Override
+        public String toString() {
+            return "Aggregate{" +
+                    "bucketStart=" + bucketStart +
+                    ", bucketDuration=" + bucketDuration +
+                    ", samplesCount=" + samplesCount +
+                    ", min=" + min +
+                    ", max=" + max +
+                    ", avg=" + avg +
+                    '}';
+        }
+    }
+}
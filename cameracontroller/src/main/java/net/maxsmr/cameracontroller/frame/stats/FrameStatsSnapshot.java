@@ -0,0 +1,54 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Combined stats of several named frame streams at some moment
+ */
+public final class FrameStatsSnapshot {
+
+    /**
+     * in ms
+     */
+    public final long time;
+
+    /**
+     * stream name -> last stats, only streams which already have stats
+     */
+    @NotNull
+    public final Map<String, FrameStats> streams;
+
+    public final int streamsCount;
+
+    public final double totalFps;
+
+    public final long totalDroppedFrames;
+
+    public FrameStatsSnapshot(long time, @NotNull Map<String, FrameStats> streams, int streamsCount) {
+        this.time = time;
+        this.streams = Collections.unmodifiableMap(streams);
+        this.streamsCount = streamsCount;
+        double totalFps = 0;
+        long totalDroppedFrames = 0;
+        for (FrameStats stats : streams.values()) {
+            totalFps += stats.lastFps;
+            totalDroppedFrames += stats.overallDroppedFrames;
+        }
+        this.totalFps = totalFps;
+        this.totalDroppedFrames = totalDroppedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameStatsSnapshot{" +
+                "time=" + time +
+                ", streamsCount=" + streamsCount +
+                ", totalFps=" + totalFps +
+                ", totalDroppedFrames=" + totalDroppedFrames +
+                ", streams=" + streams +
+                '}';
+    }
+}
@@ -0,0 +1,8 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface IFrameStatsSnapshotListener {
+
+    void onFrameStatsSnapshot(@NotNull FrameStatsSnapshot snapshot);
+}
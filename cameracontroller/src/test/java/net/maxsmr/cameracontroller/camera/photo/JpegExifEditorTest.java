@@ -0,0 +1,398 @@
+package net.maxsmr.cameracontroller.camera.photo;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JpegExifEditorTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    private static final int TAG_GPS_IFD_POINTER = 0x8825;
+    private static final int TAG_EXPOSURE_TIME = 0x829A;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, 6, (byte) 0xFF, (byte) 0xD9};
+
+    private static final byte[] IMAGE_DATA = {
+            (byte) 0xFF, (byte) 0xDA, 0, 8, 1, 1, 0, 0, 0x3F, 0,
+            0x12, 0x34, 0x56, 0x78, (byte) 0x9A,
+            (byte) 0xFF, (byte) 0xD9};
+
+    private static final String MAKE = "CameraControllerTest";
+
+    @Test
+    public void testInsertGpsIntoJpegWithoutExif() throws IOException {
+        final byte[] jpeg = createJpeg(null);
+
+        final byte[] result = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(55.75, -37.5, true, 150, 0));
+
+        // JFIF header stays first, new APP1 follows it
+        final int app0Length = 2 + readUnsignedShort(jpeg, 4, ByteOrder.BIG_ENDIAN);
+        assertArrayEquals(Arrays.copyOfRange(jpeg, 0, 2 + app0Length), Arrays.copyOfRange(result, 0, 2 + app0Length));
+        assertEquals(0xE1, result[2 + app0Length + 1] & 0xFF);
+        assertImageDataKept(jpeg, result);
+
+        final Tiff tiff = Tiff.parse(result);
+        final int gpsOffset = (int) tiff.getValue(tiff.ifd0Offset, TAG_GPS_IFD_POINTER);
+        assertEquals("N", tiff.getAscii(gpsOffset, TAG_GPS_LATITUDE_REF));
+        assertEquals("W", tiff.getAscii(gpsOffset, TAG_GPS_LONGITUDE_REF));
+        final long[] latitude = tiff.getRationals(gpsOffset, TAG_GPS_LATITUDE, 3);
+        assertEquals(55, latitude[0] / latitude[1]);
+        assertEquals(45, latitude[2] / latitude[3]);
+        assertEquals(0, latitude[4] / latitude[5]);
+    }
+
+    @Test
+    public void testInsertGpsIntoExistingExif() throws IOException {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            final byte[] jpeg = createJpeg(createTiff(order, false));
+
+            final byte[] result = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(-10.5, 20.25, false, 0, 0));
+
+            assertImageDataKept(jpeg, result);
+            final Tiff tiff = Tiff.parse(result);
+            assertEquals(order, tiff.order);
+            // other IFD0 entries are kept
+            assertEquals(MAKE, tiff.getAscii(tiff.ifd0Offset, TAG_MAKE));
+            assertEquals(6, tiff.getValue(tiff.ifd0Offset, TAG_ORIENTATION));
+            final int exifOffset = (int) tiff.getValue(tiff.ifd0Offset, TAG_EXIF_IFD_POINTER);
+            assertEquals(1, tiff.getEntriesCount(exifOffset));
+            final int gpsOffset = (int) tiff.getValue(tiff.ifd0Offset, TAG_GPS_IFD_POINTER);
+            assertEquals("S", tiff.getAscii(gpsOffset, TAG_GPS_LATITUDE_REF));
+            assertEquals("E", tiff.getAscii(gpsOffset, TAG_GPS_LONGITUDE_REF));
+        }
+    }
+
+    @Test
+    public void testRewriteGps() throws IOException {
+        final byte[] jpeg = createJpeg(createTiff(ByteOrder.LITTLE_ENDIAN, true));
+
+        final byte[] first = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(10, 10, false, 0, 0));
+        final byte[] second = JpegExifEditor.setGps(first, new JpegExifEditor.GpsInfo(-20, -30, true, -5, System.currentTimeMillis()));
+
+        final Tiff tiff = Tiff.parse(second);
+        final int gpsOffset = (int) tiff.getValue(tiff.ifd0Offset, TAG_GPS_IFD_POINTER);
+        assertEquals("S", tiff.getAscii(gpsOffset, TAG_GPS_LATITUDE_REF));
+        assertEquals("W", tiff.getAscii(gpsOffset, TAG_GPS_LONGITUDE_REF));
+        assertEquals(MAKE, tiff.getAscii(tiff.ifd0Offset, TAG_MAKE));
+        assertImageDataKept(jpeg, second);
+    }
+
+    @Test
+    public void testRepeatedRewritesDontGrowSegment() throws IOException {
+        byte[] jpeg = createJpeg(createTiff(ByteOrder.BIG_ENDIAN, true));
+        jpeg = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(1, 1, false, 0, 0));
+        final int length = jpeg.length;
+
+        // without reuse of appended IFD0 segment would exceed 64 KB long before that
+        for (int i = 0; i < 1000; i++) {
+            jpeg = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(i % 90, i % 180, false, 0, 0));
+            assertEquals(length, jpeg.length);
+        }
+        final Tiff tiff = Tiff.parse(jpeg);
+        assertEquals(MAKE, tiff.getAscii(tiff.ifd0Offset, TAG_MAKE));
+        assertNotNull(JpegExifEditor.findThumbnail(jpeg, jpeg.length));
+    }
+
+    @Test
+    public void testThumbnailLinkIsKept() throws IOException {
+        final byte[] jpeg = createJpeg(createTiff(ByteOrder.BIG_ENDIAN, false));
+        assertThumbnail(jpeg);
+
+        final byte[] result = JpegExifEditor.setGps(jpeg, new JpegExifEditor.GpsInfo(45, 45, false, 0, 0));
+        assertThumbnail(result);
+        final byte[] rewritten = JpegExifEditor.setGps(result, new JpegExifEditor.GpsInfo(46, 46, false, 0, 0));
+        assertThumbnail(rewritten);
+    }
+
+    @Test
+    public void testEditMatchesSetGps() throws IOException {
+        final byte[] jpeg = createJpeg(createTiff(ByteOrder.LITTLE_ENDIAN, false));
+        final JpegExifEditor.GpsInfo gps = new JpegExifEditor.GpsInfo(1.5, 2.5, true, 3.5, 1000);
+
+        final JpegExifEditor.Edit edit = JpegExifEditor.prepareGpsEdit(jpeg, gps);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        edit.writeTo(out);
+
+        assertEquals(edit.getLength(), out.size());
+        assertArrayEquals(JpegExifEditor.setGps(jpeg, gps), out.toByteArray());
+    }
+
+    @Test
+    public void testMalformedInput() {
+        final JpegExifEditor.GpsInfo gps = new JpegExifEditor.GpsInfo(0, 0, false, 0, 0);
+
+        assertMalformed(new byte[0], gps);
+        assertMalformed(new byte[]{1, 2, 3, 4, 5}, gps);
+
+        // segment length beyond data
+        final byte[] truncated = createJpeg(createTiff(ByteOrder.BIG_ENDIAN, false));
+        assertMalformed(Arrays.copyOf(truncated, 40), gps);
+
+        // invalid byte order
+        final byte[] tiff = createTiff(ByteOrder.BIG_ENDIAN, false);
+        tiff[0] = 'X';
+        tiff[1] = 'X';
+        assertMalformed(createJpeg(tiff), gps);
+
+        // IFD0 offset out of bounds
+        final byte[] badOffset = createTiff(ByteOrder.BIG_ENDIAN, false);
+        ByteBuffer.wrap(badOffset).putInt(4, badOffset.length + 10);
+        assertMalformed(createJpeg(badOffset), gps);
+        assertNull(JpegExifEditor.findThumbnail(createJpeg(badOffset), Integer.MAX_VALUE));
+
+        // IFD0 entries beyond segment
+        final byte[] badCount = createTiff(ByteOrder.BIG_ENDIAN, false);
+        ByteBuffer.wrap(badCount).putShort(8, (short) 1000);
+        assertMalformed(createJpeg(badCount), gps);
+
+        // missing marker prefix
+        final byte[] badMarker = createJpeg(null);
+        badMarker[2] = 0;
+        assertMalformed(badMarker, gps);
+    }
+
+    @Test
+    public void testTooLargeSegmentIsReported() {
+        // makernote-like padding, segment is close to 64 KB already
+        final byte[] tiff = Arrays.copyOf(createTiff(ByteOrder.BIG_ENDIAN, false), 65500);
+        assertMalformed(createJpeg(tiff), new JpegExifEditor.GpsInfo(1, 1, false, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncorrectLatitude() {
+        new JpegExifEditor.GpsInfo(91, 0, false, 0, 0);
+    }
+
+    private static void assertMalformed(@NotNull byte[] jpeg, @NotNull JpegExifEditor.GpsInfo gps) {
+        try {
+            JpegExifEditor.prepareGpsEdit(jpeg, gps);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertThumbnail(@NotNull byte[] jpeg) {
+        final int[] thumbnail = JpegExifEditor.findThumbnail(jpeg, jpeg.length);
+        assertNotNull(thumbnail);
+        assertArrayEquals(THUMBNAIL, Arrays.copyOfRange(jpeg, thumbnail[0], thumbnail[0] + thumbnail[1]));
+    }
+
+    private static void assertImageDataKept(@NotNull byte[] source, @NotNull byte[] result) {
+        assertTrue(result.length > IMAGE_DATA.length);
+        assertArrayEquals(Arrays.copyOfRange(source, source.length - IMAGE_DATA.length, source.length),
+                Arrays.copyOfRange(result, result.length - IMAGE_DATA.length, result.length));
+    }
+
+    /**
+     * @param tiff TIFF block of APP1 segment or null for JFIF only jpeg
+     */
+    @NotNull
+    private static byte[] createJpeg(@Nullable byte[] tiff) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        if (tiff == null) {
+            final byte[] jfif = {(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+            out.write(jfif, 0, jfif.length);
+        } else {
+            final int length = 2 + 6 + tiff.length;
+            out.write(0xFF);
+            out.write(0xE1);
+            out.write(length >> 8);
+            out.write(length);
+            final byte[] header = {'E', 'x', 'i', 'f', 0, 0};
+            out.write(header, 0, header.length);
+            out.write(tiff, 0, tiff.length);
+        }
+        out.write(IMAGE_DATA, 0, IMAGE_DATA.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * IFD0 (make, orientation, exif pointer, optional gps pointer) -> exif IFD, gps IFD; IFD1 with thumbnail
+     */
+    @NotNull
+    private static byte[] createTiff(@NotNull ByteOrder order, boolean withGps) {
+        final ByteBuffer buffer = ByteBuffer.allocate(512).order(order);
+        buffer.put(0, (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M'));
+        buffer.put(1, (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M'));
+        buffer.putShort(2, (short) 42);
+        buffer.putInt(4, 8);
+
+        final int ifd0Entries = withGps ? 4 : 3;
+        final int ifd0Size = 2 + ifd0Entries * 12 + 4;
+        final int makeOffset = 8 + ifd0Size;
+        final byte[] make = (MAKE + '\0').getBytes(ASCII);
+        final int exifOffset = makeOffset + make.length + (make.length & 1);
+        final int exifSize = 2 + 12 + 4;
+        final int gpsOffset = exifOffset + exifSize;
+        final int gpsSize = withGps ? 2 + 12 + 4 : 0;
+        final int ifd1Offset = gpsOffset + gpsSize;
+        final int ifd1Size = 2 + 2 * 12 + 4;
+        final int thumbnailOffset = ifd1Offset + ifd1Size;
+
+        int position = 8;
+        buffer.putShort(position, (short) ifd0Entries);
+        position += 2;
+        position = putEntry(buffer, position, TAG_MAKE, 2, make.length, makeOffset);
+        position = putShortEntry(buffer, position, TAG_ORIENTATION, 6);
+        position = putEntry(buffer, position, TAG_EXIF_IFD_POINTER, 4, 1, exifOffset);
+        if (withGps) {
+            position = putEntry(buffer, position, TAG_GPS_IFD_POINTER, 4, 1, gpsOffset);
+        }
+        buffer.putInt(position, ifd1Offset);
+        for (int i = 0; i < make.length; i++) {
+            buffer.put(makeOffset + i, make[i]);
+        }
+
+        buffer.putShort(exifOffset, (short) 1);
+        buffer.putInt(putEntry(buffer, exifOffset + 2, TAG_EXPOSURE_TIME, 4, 1, 100), 0);
+
+        if (withGps) {
+            buffer.putShort(gpsOffset, (short) 1);
+            final int entry = gpsOffset + 2;
+            buffer.putShort(entry, (short) TAG_GPS_LATITUDE_REF);
+            buffer.putShort(entry + 2, (short) 2);
+            buffer.putInt(entry + 4, 2);
+            buffer.put(entry + 8, (byte) 'N');
+            buffer.putInt(entry + 12, 0);
+        }
+
+        buffer.putShort(ifd1Offset, (short) 2);
+        position = putEntry(buffer, ifd1Offset + 2, TAG_JPEG_INTERCHANGE_FORMAT, 4, 1, thumbnailOffset);
+        position = putEntry(buffer, position, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, 4, 1, THUMBNAIL.length);
+        buffer.putInt(position, 0);
+        for (int i = 0; i < THUMBNAIL.length; i++) {
+            buffer.put(thumbnailOffset + i, THUMBNAIL[i]);
+        }
+        return Arrays.copyOf(buffer.array(), thumbnailOffset + THUMBNAIL.length);
+    }
+
+    private static int putEntry(@NotNull ByteBuffer buffer, int position, int tag, int type, int count, int value) {
+        buffer.putShort(position, (short) tag);
+        buffer.putShort(position + 2, (short) type);
+        buffer.putInt(position + 4, count);
+        buffer.putInt(position + 8, value);
+        return position + 12;
+    }
+
+    private static int putShortEntry(@NotNull ByteBuffer buffer, int position, int tag, int value) {
+        buffer.putShort(position, (short) tag);
+        buffer.putShort(position + 2, (short) 3);
+        buffer.putInt(position + 4, 1);
+        buffer.putShort(position + 8, (short) value);
+        return position + 12;
+    }
+
+    private static int readUnsignedShort(@NotNull byte[] data, int offset, @NotNull ByteOrder order) {
+        return ByteBuffer.wrap(data, offset, 2).order(order).getShort() & 0xFFFF;
+    }
+
+    /**
+     * Minimal reader of TIFF block from first APP1 segment
+     */
+    private static final class Tiff {
+
+        @NotNull
+        final byte[] data;
+
+        final int start;
+
+        @NotNull
+        final ByteOrder order;
+
+        final int ifd0Offset;
+
+        private Tiff(@NotNull byte[] data, int start, @NotNull ByteOrder order) {
+            this.data = data;
+            this.start = start;
+            this.order = order;
+            this.ifd0Offset = buffer().getInt(start + 4);
+        }
+
+        @NotNull
+        static Tiff parse(@NotNull byte[] jpeg) {
+            int offset = 2;
+            while (offset + 4 <= jpeg.length) {
+                final int marker = jpeg[offset + 1] & 0xFF;
+                final int length = readUnsignedShort(jpeg, offset + 2, ByteOrder.BIG_ENDIAN);
+                if (marker == 0xE1) {
+                    final int start = offset + 4 + 6;
+                    assertTrue(offset + 2 + length <= jpeg.length);
+                    return new Tiff(jpeg, start, jpeg[start] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                }
+                offset += 2 + length;
+            }
+            throw new AssertionError("no APP1 segment");
+        }
+
+        @NotNull
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(data).order(order);
+        }
+
+        int getEntriesCount(int ifdOffset) {
+            return buffer().getShort(start + ifdOffset) & 0xFFFF;
+        }
+
+        int findEntry(int ifdOffset, int tag) {
+            final int count = getEntriesCount(ifdOffset);
+            for (int i = 0; i < count; i++) {
+                final int entry = start + ifdOffset + 2 + i * 12;
+                if ((buffer().getShort(entry) & 0xFFFF) == tag) {
+                    return entry;
+                }
+            }
+            throw new AssertionError("no tag " + Integer.toHexString(tag));
+        }
+
+        long getValue(int ifdOffset, int tag) {
+            final int entry = findEntry(ifdOffset, tag);
+            return (buffer().getShort(entry + 2) & 0xFFFF) == 3 ? buffer().getShort(entry + 8) & 0xFFFF : buffer().getInt(entry + 8) & 0xFFFFFFFFL;
+        }
+
+        @NotNull
+        String getAscii(int ifdOffset, int tag) {
+            final int entry = findEntry(ifdOffset, tag);
+            final int count = buffer().getInt(entry + 4);
+            final int valueStart = count <= 4 ? entry + 8 : start + buffer().getInt(entry + 8);
+            return new String(data, valueStart, count - 1, ASCII);
+        }
+
+        @NotNull
+        long[] getRationals(int ifdOffset, int tag, int count) {
+            final int entry = findEntry(ifdOffset, tag);
+            assertEquals(count, buffer().getInt(entry + 4));
+            final int valueStart = start + buffer().getInt(entry + 8);
+            final long[] values = new long[count * 2];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer().getInt(valueStart + i * 4) & 0xFFFFFFFFL;
+            }
+            return values;
+        }
+    }
+}
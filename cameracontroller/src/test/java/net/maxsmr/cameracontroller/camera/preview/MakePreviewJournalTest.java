@@ -0,0 +1,230 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import net.maxsmr.cameracontroller.camera.MakePreviewRunnableInfo;
+import net.maxsmr.cameracontroller.camera.settings.video.record.VideoSettings;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MakePreviewJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+
+    private MakePreviewJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = new File(folder.getRoot(), "make_preview.journal");
+        journal = new MakePreviewJournal(journalFile);
+        assertTrue(journal.open().isEmpty());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void testReplayRestoresPendingTasks() throws IOException {
+        journal.add(createInfo(1, "a.mp4", new VideoSettings()));
+        journal.add(createInfo(2, "b.mp4", null));
+        journal.add(createInfo(3, "c.mp4", null));
+        assertTrue(journal.remove(createInfo(2, "b.mp4", null)));
+        journal.checkpoint();
+        journal.close();
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+
+        assertEquals(2, restored.size());
+        assertEquals(1, restored.get(0).id);
+        assertNotNull(restored.get(0).videoSettings);
+        assertEquals(3, restored.get(1).id);
+    }
+
+    @Test
+    public void testFinishedTaskKeepsRescheduledOne() throws IOException {
+        final MakePreviewRunnableInfo running = createInfo(1, "a.mp4", null);
+        journal.add(running);
+        // same video is scheduled again while first task is running
+        final MakePreviewRunnableInfo rescheduled = createInfo(2, "a.mp4", null);
+        journal.add(rescheduled);
+
+        assertFalse(journal.remove(running));
+        assertEquals(1, journal.getPendingCount());
+        journal.close();
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(1, restored.size());
+        assertEquals(rescheduled.id, restored.get(0).id);
+
+        assertTrue(journal.remove(restored.get(0)));
+        assertEquals(0, journal.getPendingCount());
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        journal.add(createInfo(1, "a.mp4", null));
+        journal.add(createInfo(2, "b.mp4", null));
+        journal.checkpoint();
+        journal.close();
+        final long validLength = journalFile.length();
+
+        // record type and part of length, as if process died during append
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[]{1, 0, 0});
+        }
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(2, restored.size());
+        final MakePreviewJournal.ReplayStats stats = journal.getLastReplayStats();
+        assertNotNull(stats);
+        assertEquals(3, stats.truncatedBytes);
+        assertEquals(validLength, journalFile.length());
+
+        // appending after truncated tail keeps journal readable
+        journal.add(createInfo(3, "c.mp4", null));
+        journal.close();
+        assertEquals(3, reopen().size());
+    }
+
+    @Test
+    public void testCorruptedTailIsTruncated() throws IOException {
+        journal.add(createInfo(1, "a.mp4", null));
+        journal.add(createInfo(2, "b.mp4", null));
+        final long validLength = journalFile.length();
+        journal.add(createInfo(3, "c.mp4", null));
+        journal.close();
+
+        // break crc of last record
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.seek(raf.length() - 1);
+            final int lastByte = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(lastByte ^ 0xFF);
+        }
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(2, restored.size());
+        assertEquals(1, restored.get(0).id);
+        assertEquals(2, restored.get(1).id);
+        final MakePreviewJournal.ReplayStats stats = journal.getLastReplayStats();
+        assertNotNull(stats);
+        assertEquals(2, stats.recordsCount);
+        assertTrue(stats.truncatedBytes > 0);
+        assertEquals(validLength, journalFile.length());
+    }
+
+    @Test
+    public void testCheckpointReplay() throws IOException {
+        journal.add(createInfo(1, "a.mp4", null));
+        journal.add(createInfo(2, "b.mp4", null));
+        journal.checkpoint();
+        journal.add(createInfo(3, "c.mp4", null));
+        journal.checkpoint();
+        journal.close();
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(3, restored.size());
+        assertEquals(3, restored.get(2).id);
+        final MakePreviewJournal.ReplayStats stats = journal.getLastReplayStats();
+        assertNotNull(stats);
+        assertEquals(5, stats.recordsCount);
+        assertEquals(3, stats.pendingCount);
+        assertEquals(0, stats.truncatedBytes);
+        // checkpoints don't describe tasks
+        assertEquals(2, journal.getDeadRecordsCount());
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        journal.add(createInfo(1, "a.mp4", null));
+        journal.add(createInfo(2, "b.mp4", null));
+        journal.add(createInfo(3, "c.mp4", null));
+        assertTrue(journal.remove(createInfo(2, "b.mp4", null)));
+        journal.checkpoint();
+        final long length = journalFile.length();
+
+        journal.compact();
+
+        assertEquals(0, journal.getDeadRecordsCount());
+        assertEquals(1, journal.getCompactionsCount());
+        assertTrue(journalFile.length() < length);
+        assertFalse(new File(folder.getRoot(), journalFile.getName() + ".tmp").exists());
+        journal.close();
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(2, restored.size());
+        assertEquals(1, restored.get(0).id);
+        assertEquals(3, restored.get(1).id);
+        final MakePreviewJournal.ReplayStats stats = journal.getLastReplayStats();
+        assertNotNull(stats);
+        assertEquals(2, stats.recordsCount);
+    }
+
+    @Test
+    public void testCompactIfNeeded() throws IOException {
+        final MakePreviewRunnableInfo pending = createInfo(0, "pending.mp4", null);
+        journal.add(pending);
+        final long compactedLength = journalFile.length();
+
+        // each finished task leaves two dead records
+        final int pairsToCompact = MakePreviewJournal.DEFAULT_MIN_DEAD_RECORDS_TO_COMPACT / 2;
+        for (int i = 1; i < pairsToCompact; i++) {
+            final MakePreviewRunnableInfo info = createInfo(i, i + ".mp4", null);
+            journal.add(info);
+            assertTrue(journal.remove(info));
+        }
+        assertEquals(0, journal.getCompactionsCount());
+        assertEquals(MakePreviewJournal.DEFAULT_MIN_DEAD_RECORDS_TO_COMPACT - 2, journal.getDeadRecordsCount());
+
+        final MakePreviewRunnableInfo last = createInfo(pairsToCompact, pairsToCompact + ".mp4", null);
+        journal.add(last);
+        assertTrue(journal.remove(last));
+
+        assertEquals(1, journal.getCompactionsCount());
+        assertEquals(0, journal.getDeadRecordsCount());
+        assertEquals(compactedLength, journalFile.length());
+        journal.close();
+
+        final List<MakePreviewRunnableInfo> restored = reopen();
+        assertEquals(1, restored.size());
+        assertEquals(pending.id, restored.get(0).id);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemoveAfterClose() throws IOException {
+        final MakePreviewRunnableInfo info = createInfo(1, "a.mp4", null);
+        journal.add(info);
+        journal.close();
+        journal.remove(info);
+    }
+
+    @NotNull
+    private List<MakePreviewRunnableInfo> reopen() throws IOException {
+        journal = new MakePreviewJournal(journalFile);
+        return journal.open();
+    }
+
+    @NotNull
+    private MakePreviewRunnableInfo createInfo(int id, @NotNull String name, VideoSettings settings) {
+        return new MakePreviewRunnableInfo(id, name, settings, new File(folder.getRoot(), name));
+    }
+}
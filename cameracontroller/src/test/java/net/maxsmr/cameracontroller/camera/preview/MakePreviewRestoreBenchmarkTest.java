@@ -0,0 +1,135 @@
+package net.maxsmr.cameracontroller.camera.preview;
+
+import net.maxsmr.cameracontroller.camera.MakePreviewRunnableInfo;
+import net.maxsmr.cameracontroller.camera.settings.video.record.VideoSettings;
+import net.maxsmr.commonutils.logger.BaseLogger;
+import net.maxsmr.commonutils.logger.holder.BaseLoggerHolder;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares restore of pending make-preview tasks from {@link MakePreviewJournal}
+ * with java deserialization of each task from its own file, as serializing storage does;
+ * timing depends on machine, so it's only logged and benchmark runs with -Pbenchmark
+ */
+public class MakePreviewRestoreBenchmarkTest {
+
+    private static final int TASKS_COUNT = 500;
+
+    private static final int WARM_UP_RUNS = 5;
+
+    private static final int MEASURED_RUNS = 10;
+
+    private static final BaseLogger logger = BaseLoggerHolder.getInstance().getLogger(MakePreviewRestoreBenchmarkTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark is disabled", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void testRestoreTime() throws IOException, ClassNotFoundException {
+        final List<MakePreviewRunnableInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS_COUNT; i++) {
+            final VideoSettings settings = new VideoSettings();
+            settings.setPreviewGridSize(1 + i % 4);
+            tasks.add(new MakePreviewRunnableInfo(i, "VID_" + i + ".mp4", settings, new File(folder.getRoot(), "VID_" + i + ".mp4")));
+        }
+
+        final File journalFile = new File(folder.getRoot(), "make_preview.journal");
+        final MakePreviewJournal journal = new MakePreviewJournal(journalFile);
+        journal.open();
+        for (MakePreviewRunnableInfo info : tasks) {
+            journal.add(info);
+        }
+        journal.checkpoint();
+        journal.close();
+
+        final File storageDir = folder.newFolder("storage");
+        for (MakePreviewRunnableInfo info : tasks) {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(storageDir, info.id + ".ser"))))) {
+                out.writeObject(info);
+            }
+        }
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            assertEquals(TASKS_COUNT, replay(journalFile).size());
+            assertEquals(TASKS_COUNT, deserialize(storageDir).size());
+        }
+
+        long replayTime = Long.MAX_VALUE;
+        long deserializationTime = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long startTime = System.nanoTime();
+            final List<MakePreviewRunnableInfo> replayed = replay(journalFile);
+            replayTime = Math.min(replayTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            final List<MakePreviewRunnableInfo> deserialized = deserialize(storageDir);
+            deserializationTime = Math.min(deserializationTime, System.nanoTime() - startTime);
+
+            assertEquals(TASKS_COUNT, replayed.size());
+            assertEquals(TASKS_COUNT, deserialized.size());
+        }
+
+        final List<MakePreviewRunnableInfo> replayed = replay(journalFile);
+        for (int i = 0; i < TASKS_COUNT; i++) {
+            final MakePreviewRunnableInfo info = replayed.get(i);
+            assertEquals(tasks.get(i).id, info.id);
+            assertEquals(tasks.get(i).videoFile, info.videoFile);
+            assertNotNull(info.videoSettings);
+            assertEquals(1 + i % 4, info.videoSettings.getPreviewGridSize());
+        }
+
+        logger.i("restore of " + TASKS_COUNT + " tasks: journal replay " + TimeUnit.NANOSECONDS.toMicros(replayTime)
+                + " us, deserialization " + TimeUnit.NANOSECONDS.toMicros(deserializationTime) + " us");
+    }
+
+    @NotNull
+    private static List<MakePreviewRunnableInfo> replay(@NotNull File journalFile) throws IOException {
+        final MakePreviewJournal journal = new MakePreviewJournal(journalFile);
+        try {
+            return journal.open();
+        } finally {
+            journal.close();
+        }
+    }
+
+    @NotNull
+    private static List<MakePreviewRunnableInfo> deserialize(@NotNull File storageDir) throws IOException, ClassNotFoundException {
+        final File[] files = storageDir.listFiles();
+        assertNotNull(files);
+        Arrays.sort(files);
+        final List<MakePreviewRunnableInfo> result = new ArrayList<>(files.length);
+        for (File file : files) {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                result.add((MakePreviewRunnableInfo) in.readObject());
+            }
+        }
+        return result;
+    }
+}
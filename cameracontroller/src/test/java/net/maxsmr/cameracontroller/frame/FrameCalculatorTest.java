@@ -0,0 +1,129 @@
+package net.maxsmr.cameracontroller.frame;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCalculatorTest {
+
+    private static final int WARM_UP_FRAMES = 20_000;
+
+    private static final int MEASURED_FRAMES = 100_000;
+
+    /**
+     * tolerance for allocations done by measurement itself, much less than one byte per frame
+     */
+    private static final long ALLOCATION_TOLERANCE = 1024;
+
+    /**
+     * com.sun.management.ThreadMXBean, java.lang.management is not in android.jar,
+     * which is boot classpath of unit tests, so it's accessed by reflection
+     */
+    private Object threadMXBean;
+
+    private Method getThreadAllocatedBytes;
+
+    @Before
+    public void setUp() {
+        try {
+            threadMXBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            final Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Assume.assumeTrue(beanClass.isInstance(threadMXBean));
+            Assume.assumeTrue((Boolean) beanClass.getMethod("isThreadAllocatedMemorySupported").invoke(threadMXBean));
+            beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threadMXBean, true);
+            getThreadAllocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @Test
+    public void testSingleWriterDoesNotAllocatePerFrame() throws Exception {
+        final FrameCalculator calculator = createCalculator(FrameCalculator.CalculationMode.SINGLE_WRITER);
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            calculator.onFrame();
+        }
+        final long allocated = measureAllocations(() -> {
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                calculator.onFrame();
+            }
+        });
+
+        assertTrue("allocated " + allocated + " bytes for " + MEASURED_FRAMES + " frames", allocated <= ALLOCATION_TOLERANCE);
+        assertTrue(calculator.getEstimatedFps() > 0);
+    }
+
+    @Test
+    public void testSharedThreadDoesNotAllocatePerFrame() throws Exception {
+        final FrameCalculator calculator = createCalculator(FrameCalculator.CalculationMode.SHARED_THREAD);
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            calculator.onFrame();
+            calculator.drainPendingFrames();
+        }
+        final long allocated = measureAllocations(() -> {
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                calculator.onFrame();
+                if (i % 64 == 0) {
+                    calculator.drainPendingFrames();
+                }
+            }
+            calculator.drainPendingFrames();
+        });
+
+        assertTrue("allocated " + allocated + " bytes for " + MEASURED_FRAMES + " frames", allocated <= ALLOCATION_TOLERANCE);
+        assertEquals(0, calculator.getOverflowedFrames());
+        assertTrue(calculator.getEstimatedFps() > 0);
+    }
+
+    @Test
+    public void testRestartResetsCountersOnWriterThread() throws InterruptedException {
+        final FrameCalculator calculator = createCalculator(FrameCalculator.CalculationMode.SINGLE_WRITER);
+        for (int i = 0; i < 1000; i++) {
+            calculator.onFrame();
+        }
+        assertTrue(calculator.getEstimatedFps() > 0);
+
+        final Thread restartThread = new Thread(calculator::notifySteamStarted);
+        restartThread.start();
+        restartThread.join();
+        // published values are cleared at once, counters - by writer on next frame
+        assertEquals(0, calculator.getEstimatedFps(), 0);
+        calculator.onFrame();
+        assertEquals(0, calculator.getEstimatedFps(), 0);
+        assertEquals(1, calculator.getEstimatedFpsSamplesCount());
+    }
+
+    /**
+     * calculate interval is longer than the test, so only per-frame path is measured
+     */
+    private static FrameCalculator createCalculator(FrameCalculator.CalculationMode mode) {
+        final FrameCalculator calculator = new FrameCalculator();
+        calculator.setNotifyInterval(TimeUnit.HOURS.toMillis(1));
+        calculator.setCalculateInterval(TimeUnit.HOURS.toMillis(1));
+        calculator.setCalculationMode(mode);
+        calculator.notifySteamStarted();
+        return calculator;
+    }
+
+    private long measureAllocations(Runnable runnable) throws Exception {
+        // measurement call may allocate by itself
+        final long overheadStartBytes = getAllocatedBytes();
+        final long overhead = getAllocatedBytes() - overheadStartBytes;
+        final long startBytes = getAllocatedBytes();
+        runnable.run();
+        final long endBytes = getAllocatedBytes();
+        return Math.max(0, endBytes - startBytes - overhead);
+    }
+
+    private long getAllocatedBytes() throws Exception {
+        return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,58 @@
+package net.maxsmr.cameracontroller.frame;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameStatsRegistryTest {
+
+    @Test
+    public void testRegisteredCalculatorIsDrainedByRegistry() {
+        final FrameStatsRegistry registry = new FrameStatsRegistry();
+        final FrameCalculator calculator = new FrameCalculator();
+        calculator.setCalculateInterval(TimeUnit.HOURS.toMillis(1));
+        calculator.setCalculationMode(FrameCalculator.CalculationMode.SINGLE_WRITER);
+        calculator.notifySteamStarted();
+
+        registry.registerStream("preview", calculator);
+
+        assertSame(calculator, registry.getStream("preview"));
+        assertEquals(FrameCalculator.CalculationMode.SHARED_THREAD, calculator.getCalculationMode());
+        // first drain applies counters reset
+        calculator.drainPendingFrames();
+        for (int i = 0; i < 10; i++) {
+            calculator.onFrame();
+        }
+        // frames wait for registry thread instead of being accounted by producer
+        assertEquals(0, calculator.getEstimatedFpsSamplesCount());
+        assertEquals(10, calculator.drainPendingFrames());
+        assertTrue(calculator.getEstimatedFpsSamplesCount() > 0);
+
+        registry.unregisterStream("preview");
+
+        assertEquals(FrameCalculator.CalculationMode.SINGLE_WRITER, calculator.getCalculationMode());
+        assertEquals(0, calculator.drainPendingFrames());
+    }
+
+    @Test
+    public void testReplacedCalculatorModeIsRestored() {
+        final FrameStatsRegistry registry = new FrameStatsRegistry();
+        final FrameCalculator first = new FrameCalculator();
+        final FrameCalculator second = new FrameCalculator();
+        second.setCalculationMode(FrameCalculator.CalculationMode.SINGLE_WRITER);
+
+        registry.registerStream("preview", first);
+        registry.registerStream("preview", first);
+        registry.registerStream("preview", second);
+
+        assertEquals(FrameCalculator.CalculationMode.EXECUTOR, first.getCalculationMode());
+        assertEquals(FrameCalculator.CalculationMode.SHARED_THREAD, second.getCalculationMode());
+
+        registry.unregisterStream("preview");
+        assertEquals(FrameCalculator.CalculationMode.SINGLE_WRITER, second.getCalculationMode());
+    }
+}
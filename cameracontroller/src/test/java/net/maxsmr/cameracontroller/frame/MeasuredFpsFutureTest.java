@@ -0,0 +1,69 @@
+package net.maxsmr.cameracontroller.frame;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MeasuredFpsFutureTest {
+
+    @Test
+    public void testCompletesOnStableEstimate() throws Exception {
+        final MeasuredFpsFuture future = new MeasuredFpsFuture(4, 0.1, null);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(future.onEstimate(30, i + 1));
+        }
+        assertTrue(future.onEstimate(30, 4));
+
+        assertTrue(future.isDone());
+        assertTrue(future.isConfident());
+        assertEquals(30, future.get(0, TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    public void testTimeoutCompletesWithLastEstimate() throws Exception {
+        final MeasuredFpsFuture future = new MeasuredFpsFuture(10, 0.1, null);
+        future.onEstimate(25, 1);
+        future.onTimeout();
+
+        assertFalse(future.isConfident());
+        assertEquals(25, future.get(), 0);
+    }
+
+    @Test
+    public void testGetAfterCancel() throws Exception {
+        final MeasuredFpsFuture future = new MeasuredFpsFuture(10, 0.1, null);
+        future.onEstimate(25, 1);
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        // calculator drops cancelled request on next estimate
+        assertTrue(future.onEstimate(25, 2));
+        assertEquals(25, future.getCurrentFps(), 0);
+        try {
+            future.get();
+            fail("CancellationException expected");
+        } catch (CancellationException e) {
+            // expected
+        }
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("CancellationException expected");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package net.maxsmr.cameracontroller.frame.dispatch;
+
+import net.maxsmr.cameracontroller.frame.buffer.FrameLease;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDispatchLaneTest {
+
+    private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private FrameDispatchLane lane;
+
+    @After
+    public void tearDown() {
+        if (lane != null) {
+            lane.shutdown();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testLatestOnlyKeepsNewestFrame() throws InterruptedException {
+        final BlockingConsumer consumer = new BlockingConsumer();
+        lane = new FrameDispatchLane("latest", DeliveryPolicy.LATEST_ONLY, 4, consumer);
+        assertEquals(1, lane.getCapacity());
+
+        final List<FrameLease> leases = offerWhileFirstIsDelivered(consumer, 10);
+
+        consumer.awaitFrames(2);
+        // first frame was in delivery, all others except the last one were replaced
+        assertEquals(2, lane.getDeliveredFrames());
+        assertEquals(8, lane.getDroppedFrames());
+        assertEquals(0L, (long) consumer.times.get(0));
+        assertEquals(9L, (long) consumer.times.get(1));
+        assertAllReleased(leases);
+    }
+
+    @Test(timeout = 30_000)
+    public void testDropOldestKeepsLastFrames() throws InterruptedException {
+        final BlockingConsumer consumer = new BlockingConsumer();
+        lane = new FrameDispatchLane("dropOldest", DeliveryPolicy.DROP_OLDEST, 3, consumer);
+
+        final List<FrameLease> leases = offerWhileFirstIsDelivered(consumer, 10);
+
+        consumer.awaitFrames(4);
+        assertEquals(4, lane.getDeliveredFrames());
+        assertEquals(6, lane.getDroppedFrames());
+        assertEquals(0L, (long) consumer.times.get(0));
+        assertEquals(7L, (long) consumer.times.get(1));
+        assertEquals(8L, (long) consumer.times.get(2));
+        assertEquals(9L, (long) consumer.times.get(3));
+        assertAllReleased(leases);
+    }
+
+    @Test(timeout = 30_000)
+    public void testBlockProducerDropsAfterTimeout() throws InterruptedException {
+        final BlockingConsumer consumer = new BlockingConsumer();
+        lane = new FrameDispatchLane("blockTimeout", DeliveryPolicy.BLOCK_PRODUCER, 2, consumer);
+        lane.setBlockTimeout(50);
+
+        final List<FrameLease> leases = new ArrayList<>();
+        leases.add(offer(0));
+        assertTrue(consumer.entered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        leases.add(offer(1));
+        leases.add(offer(2));
+
+        final FrameLease blocked = FrameLease.wrap(new byte[1], 3);
+        final long startTime = System.nanoTime();
+        assertFalse(lane.offer(blocked));
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+        blocked.release();
+        assertEquals(1, lane.getDroppedFrames());
+
+        consumer.unblock.countDown();
+        consumer.awaitFrames(3);
+        assertEquals(3, lane.getDeliveredFrames());
+        assertAllReleased(leases);
+        assertEquals(0, blocked.getRefCount());
+    }
+
+    @Test(timeout = 60_000)
+    public void testConcurrentProducersWithBlockProducer() throws InterruptedException {
+        final int producersCount = 4;
+        final int framesPerProducer = 2_000;
+        final int total = producersCount * framesPerProducer;
+        final AtomicIntegerArray delivered = new AtomicIntegerArray(total);
+        final AtomicInteger deliveredCount = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        lane = new FrameDispatchLane("blockConcurrent", DeliveryPolicy.BLOCK_PRODUCER, 4, new SimpleConsumer() {
+
+            @Override
+            public void onFrame(@NotNull FrameLease lease) {
+                delivered.incrementAndGet((int) lease.getTime());
+                if ((int) lease.getTime() % 100 == 0) {
+                    // slow consumer, producers must wait instead of dropping
+                    sleep(1);
+                }
+                if (deliveredCount.incrementAndGet() == total) {
+                    finished.countDown();
+                }
+            }
+        });
+        lane.setBlockTimeout(WAIT_TIMEOUT);
+
+        final List<FrameLease> leases = new CopyOnWriteArrayList<>();
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producersCount; p++) {
+            final int producer = p;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < framesPerProducer; i++) {
+                    final FrameLease lease = FrameLease.wrap(new byte[1], producer * framesPerProducer + i);
+                    if (!lane.offer(lease)) {
+                        rejected.incrementAndGet();
+                    }
+                    lease.release();
+                    leases.add(lease);
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertTrue(finished.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(0, rejected.get());
+        assertEquals(0, lane.getDroppedFrames());
+        assertEquals(total, lane.getDeliveredFrames());
+        for (int i = 0; i < total; i++) {
+            assertEquals("frame " + i, 1, delivered.get(i));
+        }
+        assertAllReleased(leases);
+    }
+
+    @Test(timeout = 60_000)
+    public void testConcurrentProducersWithDroppingPolicies() throws InterruptedException {
+        for (DeliveryPolicy policy : new DeliveryPolicy[]{DeliveryPolicy.LATEST_ONLY, DeliveryPolicy.DROP_OLDEST}) {
+            final int producersCount = 4;
+            final int framesPerProducer = 5_000;
+            final AtomicInteger deliveredCount = new AtomicInteger();
+
+            final FrameDispatchLane lane = new FrameDispatchLane(policy.name(), policy, 2, new SimpleConsumer() {
+
+                @Override
+                public void onFrame(@NotNull FrameLease lease) {
+                    deliveredCount.incrementAndGet();
+                }
+            });
+            this.lane = lane;
+
+            final List<FrameLease> leases = new CopyOnWriteArrayList<>();
+            final AtomicInteger rejected = new AtomicInteger();
+            final List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < producersCount; p++) {
+                producers.add(new Thread(() -> {
+                    for (int i = 0; i < framesPerProducer; i++) {
+                        final FrameLease lease = FrameLease.wrap(new byte[1], i);
+                        if (!lane.offer(lease)) {
+                            rejected.incrementAndGet();
+                        }
+                        lease.release();
+                        leases.add(lease);
+                    }
+                }));
+            }
+            for (Thread producer : producers) {
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+            while (lane.getPendingFramesCount() > 0 && System.currentTimeMillis() < deadline) {
+                sleep(1);
+            }
+            sleep(50);
+
+            // every frame is either delivered or dropped, none is lost or delivered twice
+            assertEquals(policy.name(), 0, rejected.get());
+            assertEquals(policy.name(), producersCount * framesPerProducer, lane.getDeliveredFrames() + lane.getDroppedFrames());
+            assertEquals(policy.name(), lane.getDeliveredFrames(), deliveredCount.get());
+            assertAllReleased(leases);
+            lane.shutdown();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testShutdownReleasesPendingFrames() throws InterruptedException {
+        final BlockingConsumer consumer = new BlockingConsumer();
+        lane = new FrameDispatchLane("shutdown", DeliveryPolicy.DROP_OLDEST, 4, consumer);
+
+        final List<FrameLease> leases = new ArrayList<>();
+        leases.add(offer(0));
+        assertTrue(consumer.entered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int i = 1; i < 4; i++) {
+            leases.add(offer(i));
+        }
+        lane.shutdown();
+        assertFalse(lane.offer(FrameLease.wrap(new byte[1], 4)));
+        consumer.unblock.countDown();
+
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (lane.getPendingFramesCount() > 0 && System.currentTimeMillis() < deadline) {
+            sleep(1);
+        }
+        sleep(50);
+        assertEquals(1, lane.getDeliveredFrames());
+        assertAllReleased(leases);
+    }
+
+    /**
+     * offers frames with times 0..count-1 while the first one is held by consumer, then unblocks it
+     */
+    private List<FrameLease> offerWhileFirstIsDelivered(@NotNull BlockingConsumer consumer, int count) throws InterruptedException {
+        final List<FrameLease> leases = new ArrayList<>();
+        leases.add(offer(0));
+        assertTrue(consumer.entered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int i = 1; i < count; i++) {
+            leases.add(offer(i));
+        }
+        consumer.unblock.countDown();
+        return leases;
+    }
+
+    /**
+     * @return offered lease, released by producer
+     */
+    private FrameLease offer(long time) {
+        final FrameLease lease = FrameLease.wrap(new byte[1], time);
+        assertTrue(lane.offer(lease));
+        lease.release();
+        return lease;
+    }
+
+    private static void assertAllReleased(@NotNull List<FrameLease> leases) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        for (FrameLease lease : leases) {
+            while (lease.getRefCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(lease.toString(), 0, lease.getRefCount());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static abstract class SimpleConsumer implements FrameDispatchLane.IFrameConsumer {
+
+        @Override
+        public void onStarted() {
+        }
+
+        @Override
+        public void onFinished() {
+        }
+    }
+
+    /**
+     * holds delivery of the first frame until {@link #unblock} is counted down
+     */
+    private static class BlockingConsumer extends SimpleConsumer {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final CountDownLatch unblock = new CountDownLatch(1);
+
+        final List<Long> times = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onFrame(@NotNull FrameLease lease) {
+            times.add(lease.getTime());
+            entered.countDown();
+            try {
+                unblock.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitFrames(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+            while (times.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            // let lane update counters after callback
+            Thread.sleep(20);
+        }
+    }
+}
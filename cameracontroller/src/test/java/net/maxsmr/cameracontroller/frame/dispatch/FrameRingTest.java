@@ -0,0 +1,137 @@
+package net.maxsmr.cameracontroller.frame.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRingTest {
+
+    private static final int PRODUCERS_COUNT = 4;
+
+    private static final int CONSUMERS_COUNT = 4;
+
+    private static final int ELEMENTS_PER_PRODUCER = 50_000;
+
+    @Test
+    public void testCapacityAndOrder() {
+        final FrameRing<Integer> ring = new FrameRing<>(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(3));
+        assertEquals(3, ring.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testSingleElementCapacity() {
+        final FrameRing<Integer> ring = new FrameRing<>(1);
+        assertTrue(ring.offer(0));
+        assertFalse(ring.offer(1));
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(1));
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void testWrapAround() {
+        final FrameRing<Integer> ring = new FrameRing<>(2);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ring.offer(i));
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 60_000)
+    public void testConcurrentProducersAndConsumers() throws InterruptedException {
+        checkConcurrentProducersAndConsumers(new FrameRing<>(8));
+    }
+
+    @Test(timeout = 60_000)
+    public void testConcurrentProducersAndConsumersWithSingleElement() throws InterruptedException {
+        checkConcurrentProducersAndConsumers(new FrameRing<>(1));
+    }
+
+    private static void checkConcurrentProducersAndConsumers(FrameRing<Integer> ring) throws InterruptedException {
+        final int total = PRODUCERS_COUNT * ELEMENTS_PER_PRODUCER;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        final AtomicInteger consumed = new AtomicInteger();
+        final AtomicInteger orderViolations = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS_COUNT; p++) {
+            final int producer = p;
+            threads.add(new Thread(() -> {
+                await(startLatch);
+                for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                    final Integer element = producer * ELEMENTS_PER_PRODUCER + i;
+                    while (!ring.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS_COUNT; c++) {
+            threads.add(new Thread(() -> {
+                // elements of single producer must come to each consumer in order
+                final int[] lastIndices = new int[PRODUCERS_COUNT];
+                Arrays.fill(lastIndices, -1);
+                await(startLatch);
+                while (consumed.get() < total) {
+                    final Integer element = ring.poll();
+                    if (element == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    seen.incrementAndGet(element);
+                    consumed.incrementAndGet();
+                    final int producer = element / ELEMENTS_PER_PRODUCER;
+                    final int index = element % ELEMENTS_PER_PRODUCER;
+                    if (index <= lastIndices[producer]) {
+                        orderViolations.incrementAndGet();
+                    }
+                    lastIndices[producer] = index;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(total, consumed.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("element " + i, 1, seen.get(i));
+        }
+        assertEquals(0, orderViolations.get());
+        assertTrue(ring.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
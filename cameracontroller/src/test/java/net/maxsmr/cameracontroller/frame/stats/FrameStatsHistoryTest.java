@@ -0,0 +1,51 @@
+package net.maxsmr.cameracontroller.frame.stats;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameStatsHistoryTest {
+
+    @Test
+    public void testQueryRange() {
+        final FrameStatsHistory history = new FrameStatsHistory(4);
+        for (int i = 0; i < 6; i++) {
+            history.record(1000 * i, new FrameStats(0, i, 0, 0, 0));
+        }
+
+        assertEquals(4, history.size());
+        assertEquals(2000, history.getOldestTime());
+        final List<FrameStatsHistory.Sample> samples = history.query(3000, 5000);
+        assertEquals(2, samples.size());
+        assertEquals(3, samples.get(0).fps, 0);
+        assertEquals(4, samples.get(1).fps, 0);
+    }
+
+    @Test
+    public void testEarlierTimeKeepsOrder() {
+        final FrameStatsHistory history = new FrameStatsHistory();
+        history.record(1000, new FrameStats(0, 1, 0, 0, 0));
+        history.record(2000, new FrameStats(0, 2, 0, 0, 0));
+        // clock went backwards
+        history.record(500, new FrameStats(0, 3, 0, 0, 0));
+        history.record(3000, new FrameStats(0, 4, 0, 0, 0));
+
+        final double[] fps = history.queryMetric(FrameStatsHistory.Metric.FPS, 1500, 2500);
+        assertEquals(2, fps.length);
+        assertEquals(2, fps[0], 0);
+        assertEquals(3, fps[1], 0);
+        assertEquals(4, history.query(0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testWallClockConversion() {
+        final long now = FrameStatsHistory.now();
+        final long wallClockTime = FrameStatsHistory.toWallClockTime(now - 1000);
+
+        assertTrue(Math.abs(System.currentTimeMillis() - 1000 - wallClockTime) <= 50);
+        assertTrue(Math.abs(FrameStatsHistory.fromWallClockTime(wallClockTime) - (now - 1000)) <= 50);
+    }
+}